@@ -1,6 +1,9 @@
 package it.unipi.dii;
 
+import it.unipi.dii.dao.base.BaseRedisDAO;
+import it.unipi.dii.dao.base.MatchStatusCache;
 import it.unipi.dii.pagesGUI.navBar;
+import it.unipi.dii.periodicUpdates.matchUpdateScheduler;
 import javafx.application.Application;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -28,6 +31,9 @@ public class BeansBetGUI extends Application {
     public void start(Stage primaryStage) {
 
         deactivateMongoDBNotifications();
+        BaseRedisDAO.initPool(); // Create the Redis pool and preload the Lua scripts.
+        // Same period of the match updater for the leagues with live matches.
+        MatchStatusCache.getInstance().startPeriodicRefresh(matchUpdateScheduler.ACTIVE_PERIOD_MS / 1000);
         primaryStage.setTitle("BeansBet");
 
         root = new BorderPane();
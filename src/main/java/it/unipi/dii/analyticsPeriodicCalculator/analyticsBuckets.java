@@ -0,0 +1,229 @@
+package it.unipi.dii.analyticsPeriodicCalculator;
+
+import it.unipi.dii.dao.mongo.StatisticsMongoDBDAO;
+import it.unipi.dii.dao.redis.LiveStatsRedisDAO;
+import org.bson.Document;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static it.unipi.dii.utility.dateTimes.getCurrentInstant;
+import static it.unipi.dii.utility.dateTimes.getCurrentInstantString;
+import static it.unipi.dii.utility.generators.randomGeneration.truncateNumber;
+
+/**
+ * Materialized analytics in the "analytics_buckets" collection: a bucket for each closed day of the month and
+ * for each closed hour of the current day, so a monthly report is the sum of at most 31 + 23 buckets plus
+ * the slips of the current hour, whatever the day of the month.
+ * The bucket of a period is computed again when one of its slips is settled (settledAt).
+ * The periods are the confirmation dates of the slips: days "yyyy-MM-dd" and hours "yyyy-MM-ddTHH".
+ * The hour buckets also reconcile the live counters of Redis, which are the primary source of the statistics page.
+ */
+public class analyticsBuckets {
+    public static final String DAY = "day";
+    public static final String HOUR = "hour";
+
+    /**
+     * Sum of the buckets of a period.
+     */
+    public static class summary {
+        private double financial = 0;
+        private final Map<String, Long> teams = new HashMap<>();
+        private final Map<String, long[]> championships = new HashMap<>(); // {bets, slips}
+
+        public void add(Document bucket) {
+            if (bucket == null) {
+                return;
+            }
+            this.financial += bucket.get("financial", Number.class).doubleValue();
+            for (Document t : bucket.getList("teams", Document.class)) {
+                this.teams.merge(t.getString("_id"), t.get("howMany", Number.class).longValue(), Long::sum);
+            }
+            for (Document c : bucket.getList("championships", Document.class)) {
+                long[] value = this.championships.computeIfAbsent(c.getString("_id"), k -> new long[2]);
+                value[0] += c.get("bets", Number.class).longValue();
+                value[1] += c.get("slips", Number.class).longValue();
+            }
+        }
+
+        public double getFinancial() {
+            return truncateNumber(this.financial, 2);
+        }
+
+        /**
+         * @param howManyShow How many teams to return.
+         * @return The most bet teams, in descending order of bets.
+         */
+        public List<String> getFavouriteTeams(int howManyShow) {
+            List<Map.Entry<String, Long>> sorted = new ArrayList<>(this.teams.entrySet());
+            sorted.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+            List<String> result = new ArrayList<>();
+            for (int i = 0; i < sorted.size() && i < howManyShow; i++) {
+                result.add(sorted.get(i).getKey());
+            }
+            return result;
+        }
+
+        /**
+         * @return The average number of bets on each championship for each slip with a bet on it.
+         */
+        public Map<String, Double> getAverageMatchesForChampionship() {
+            Map<String, Double> result = new HashMap<>();
+            for (Map.Entry<String, long[]> e : this.championships.entrySet()) {
+                result.put(e.getKey(), (double) e.getValue()[0] / e.getValue()[1]);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Write the buckets of the closed hours of the current day still missing (e.g. the newly closed hour),
+     * and compute again the buckets of the periods with slips settled since the last run.
+     * The settledAt watermark is stored only after the buckets have been written, so the settlements
+     * of a failed or skipped run are applied by the next one.
+     */
+    public static void updateHourBuckets(StatisticsMongoDBDAO st) {
+        fillMissingHours(st);
+        final String now = getCurrentInstantString();
+        final Instant currentHour = getCurrentInstant().truncatedTo(ChronoUnit.HOURS);
+        final String today = dayKey(currentHour);
+        final String watermark = st.getSettledWatermark(currentHour.minus(2, ChronoUnit.HOURS).toString());
+        final String since = Instant.parse(watermark).minusSeconds(60).toString(); // margin for other processes' clocks
+        Set<String> days = new HashSet<>();
+        List<String> settledHours = st.findSettledHours(since);
+        for (String hour : settledHours) {
+            if (hour == null) {
+                continue;
+            }
+            if (hour.startsWith(today)) {
+                if (hour.compareTo(hourKey(currentHour)) < 0) {
+                    st.mergeBucket(HOUR, hour, nextHour(hour));
+                }
+            } else if (hour.substring(0, 10).compareTo(today) < 0) {
+                days.add(hour.substring(0, 10));
+            }
+        }
+        for (String day : days) {
+            st.mergeBucket(DAY, day, nextDay(day));
+        }
+        reconcileLive(st, settledHours);
+        st.setSettledWatermark(now);
+    }
+
+    /**
+     * Overwrite the live counters in Redis (LiveStatsRedisDAO) with the buckets computed on MongoDB:
+     * the closed hours of the current day, the hours with slips settled since the last run and the hours
+     * of the month never written (e.g. at the first run), then the month is marked as complete.
+     *
+     * @param settledHours The confirmation hours of the slips settled since the last run.
+     */
+    private static void reconcileLive(StatisticsMongoDBDAO st, List<String> settledHours) {
+        final Instant currentHour = getCurrentInstant().truncatedTo(ChronoUnit.HOURS);
+        final String today = dayKey(currentHour);
+        LiveStatsRedisDAO live = new LiveStatsRedisDAO();
+        try {
+            Set<String> done = new HashSet<>();
+            for (Document d : st.getBuckets(HOUR, today + "T00", hourKey(currentHour))) {
+                live.replaceHour(d.getString("start"), d);
+                done.add(d.getString("start"));
+            }
+            Set<String> hours = new HashSet<>(live.findMissingHours());
+            for (String hour : settledHours) {
+                if (hour != null && hour.compareTo(firstDayOfMonth(today)) >= 0) {
+                    hours.add(hour);
+                }
+            }
+            for (String hour : hours) {
+                if (!done.contains(hour)) {
+                    live.replaceHour(hour, st.computeBucket(hour, nextHour(hour)));
+                }
+            }
+            live.setMonthComplete();
+        } catch (Exception e) {
+            e.printStackTrace(); // Redis is not available, the GUI reads the analytics of MongoDB.
+        }
+    }
+
+    /**
+     * Write the buckets of the closed days of the current month still missing (e.g. the newly closed day).
+     */
+    public static void updateDayBuckets(StatisticsMongoDBDAO st) {
+        fillMissingDays(st);
+    }
+
+    /**
+     * @return The sum of the buckets from the first day of the current month to now.
+     */
+    public static summary sumMonth(StatisticsMongoDBDAO st) {
+        fillMissingDays(st);
+        fillMissingHours(st);
+        final Instant currentHour = getCurrentInstant().truncatedTo(ChronoUnit.HOURS);
+        final String today = dayKey(currentHour);
+
+        summary s = new summary();
+        for (Document d : st.getBuckets(DAY, firstDayOfMonth(today), today)) {
+            s.add(d);
+        }
+        for (Document d : st.getBuckets(HOUR, today + "T00", hourKey(currentHour))) {
+            s.add(d);
+        }
+        s.add(st.computeBucket(hourKey(currentHour), nextHour(hourKey(currentHour)))); // The open hour.
+        return s;
+    }
+
+    private static void fillMissingDays(StatisticsMongoDBDAO st) {
+        final String today = dayKey(getCurrentInstant());
+        Set<String> present = new HashSet<>();
+        for (Document d : st.getBuckets(DAY, firstDayOfMonth(today), today)) {
+            present.add(d.getString("start"));
+        }
+        for (String day = firstDayOfMonth(today); day.compareTo(today) < 0; day = nextDay(day)) {
+            if (!present.contains(day)) {
+                st.mergeBucket(DAY, day, nextDay(day));
+            }
+        }
+    }
+
+    private static void fillMissingHours(StatisticsMongoDBDAO st) {
+        final Instant currentHour = getCurrentInstant().truncatedTo(ChronoUnit.HOURS);
+        final String today = dayKey(currentHour);
+        Set<String> present = new HashSet<>();
+        for (Document d : st.getBuckets(HOUR, today + "T00", hourKey(currentHour))) {
+            present.add(d.getString("start"));
+        }
+        for (String hour = today + "T00"; hour.compareTo(hourKey(currentHour)) < 0; hour = nextHour(hour)) {
+            if (!present.contains(hour)) {
+                st.mergeBucket(HOUR, hour, nextHour(hour));
+            }
+        }
+    }
+
+    private static String dayKey(Instant instant) {
+        return instant.toString().substring(0, 10);
+    }
+
+    private static String hourKey(Instant instant) {
+        return instant.toString().substring(0, 13);
+    }
+
+    private static String nextDay(String day) {
+        return LocalDate.parse(day).plusDays(1).toString();
+    }
+
+    private static String nextHour(String hour) {
+        return hourKey(LocalDate.parse(hour.substring(0, 10)).atStartOfDay(ZoneOffset.UTC).toInstant()
+                .plus(Integer.parseInt(hour.substring(11, 13)) + 1, ChronoUnit.HOURS));
+    }
+
+    private static String firstDayOfMonth(String day) {
+        return LocalDate.parse(day).withDayOfMonth(1).toString();
+    }
+}
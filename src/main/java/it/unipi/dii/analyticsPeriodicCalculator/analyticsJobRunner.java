@@ -0,0 +1,148 @@
+package it.unipi.dii.analyticsPeriodicCalculator;
+
+import it.unipi.dii.dao.mongo.StatisticsMongoDBDAO;
+import org.bson.Document;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static it.unipi.dii.utility.dateTimes.getCurrentInstantString;
+
+/**
+ * Runner of the analytics jobs: a scheduler thread only triggers the jobs, that are executed concurrently by a pool
+ * of workers, so a slow job doesn't delay the others.
+ * <ul>
+ *     <li>A job triggered while it is still running is not started twice: the triggers are coalesced in a single
+ *     run executed as soon as the current one ends.</li>
+ *     <li>An exception ends the run, not the schedule of the job.</li>
+ *     <li>The queries of a run are bounded by the timeout of the job (maxTimeMS, see StatisticsMongoDBDAO.setDeadline).</li>
+ *     <li>Every run is recorded in the "analytics_runs" collection: duration, success, error and the index keys
+ *     and documents examined by the queries of the run only: they are tagged with a comment of the run and read
+ *     from the profiler, that records only the tagged queries (see StatisticsMongoDBDAO.profileAnalytics).</li>
+ * </ul>
+ */
+public class analyticsJobRunner {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService workers;
+    private final boolean profiling; // False if the profiler is not available: the scans are not recorded.
+
+    private static class job {
+        private final String name;
+        private final Runnable task;
+        private final long maxTimeMS;
+        private final AtomicBoolean running = new AtomicBoolean(false);
+        private final AtomicBoolean pending = new AtomicBoolean(false);
+        private final AtomicInteger coalesced = new AtomicInteger(0);
+
+        private job(String name, Runnable task, long maxTimeMS) {
+            this.name = name;
+            this.task = task;
+            this.maxTimeMS = maxTimeMS;
+        }
+    }
+
+    /**
+     * @param threads The number of jobs that can run at the same time.
+     */
+    public analyticsJobRunner(int threads) {
+        this.workers = Executors.newFixedThreadPool(threads);
+        StatisticsMongoDBDAO st = new StatisticsMongoDBDAO();
+        st.openConnection();
+        try {
+            this.profiling = st.profileAnalytics();
+        } finally {
+            st.closeConnection();
+        }
+    }
+
+    /**
+     * Execute a job periodically.
+     *
+     * @param name      The name of the job, used in analytics_runs.
+     * @param task      The calculator.
+     * @param maxTimeMS The maximum duration of a run.
+     */
+    public void schedule(String name, Runnable task, long initialDelay, long period, TimeUnit unit, long maxTimeMS) {
+        job j = new job(name, task, maxTimeMS);
+        this.scheduler.scheduleAtFixedRate(() -> trigger(j), initialDelay, period, unit);
+    }
+
+    public void shutdown() {
+        this.scheduler.shutdown();
+        this.workers.shutdown();
+    }
+
+    private void trigger(job j) {
+        if (j.running.compareAndSet(false, true)) {
+            this.workers.execute(() -> execute(j));
+        } else {
+            // The job is still running: this trigger is coalesced with the ones already pending.
+            j.pending.set(true);
+            j.coalesced.incrementAndGet();
+            System.out.println("Analytics job " + j.name + " is still running, the run has been postponed.");
+            if (j.running.compareAndSet(false, true)) {
+                this.workers.execute(() -> execute(j)); // The run ended meanwhile, without seeing this trigger.
+            }
+        }
+    }
+
+    private void execute(job j) {
+        do {
+            j.pending.set(false);
+            runOnce(j, j.coalesced.getAndSet(0));
+            j.running.set(false);
+            // A trigger arrived during the run: run once more, unless another worker has already started it.
+        } while (j.pending.get() && j.running.compareAndSet(false, true));
+    }
+
+    private void runOnce(job j, int coalesced) {
+        final String startedAt = getCurrentInstantString();
+        final long start = System.nanoTime();
+        String error = null;
+        StatisticsMongoDBDAO.setDeadline(System.currentTimeMillis() + j.maxTimeMS);
+        // The job runs entirely on this thread.
+        final String comment = StatisticsMongoDBDAO.setComment(j.name + ":" + startedAt);
+        try {
+            j.task.run();
+        } catch (Exception e) {
+            e.printStackTrace();
+            error = e.toString();
+        } finally {
+            StatisticsMongoDBDAO.setDeadline(0);
+            StatisticsMongoDBDAO.setComment(null);
+        }
+        final long durationMs = (System.nanoTime() - start) / 1_000_000;
+
+        Document run = new Document("job", j.name)
+                .append("startedAt", startedAt)
+                .append("endedAt", getCurrentInstantString())
+                .append("durationMs", durationMs)
+                .append("maxTimeMS", j.maxTimeMS)
+                .append("success", error == null)
+                .append("error", error)
+                .append("coalescedTriggers", coalesced);
+        StatisticsMongoDBDAO st = new StatisticsMongoDBDAO();
+        try {
+            st.openConnection();
+            if (this.profiling) {
+                try {
+                    final long[] scanned = st.examined(comment);
+                    run.append("keysScanned", scanned[0])
+                            .append("docsScanned", scanned[1]);
+                } catch (Exception e) {
+                    e.printStackTrace(); // The run is recorded without the scans.
+                }
+            }
+            st.mongoDB.getCollection("analytics_runs").insertOne(run);
+        } catch (Exception e) {
+            e.printStackTrace(); // The run is not recorded, the next ones will be.
+        } finally {
+            st.closeConnection();
+        }
+        System.out.println("Analytics job " + j.name + (error == null ? " done" : " failed") + " in " + durationMs + " ms.");
+    }
+}
@@ -1,24 +1,26 @@
 package it.unipi.dii.analyticsPeriodicCalculator;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import static it.unipi.dii.utility.mongoUtility.deactivateMongoDBNotifications;
 
 public class periodicAnalytics {
+    private static final long HOURLY_MAX_TIME_MS = 10 * 60 * 1000L;
+    private static final long DAILY_MAX_TIME_MS = 60 * 60 * 1000L;
+
     public static void main(String[] args) {
         deactivateMongoDBNotifications();
         launchPeriodicAnalytics(); // Launch of the update function.
     }
 
     private static void launchPeriodicAnalytics(){
-        ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+        // The two jobs run concurrently, a slow daily run doesn't delay the hourly financial report.
+        analyticsJobRunner runner = new analyticsJobRunner(2);
 
         updateDailyAnalytics updateDailyTask = new updateDailyAnalytics();
-        executorService.scheduleAtFixedRate(updateDailyTask, 0, 1, TimeUnit.DAYS);
+        runner.schedule("daily", updateDailyTask, 0, 1, TimeUnit.DAYS, DAILY_MAX_TIME_MS);
 
         updateHourlyAnalytics updateHourTask = new updateHourlyAnalytics();
-        executorService.scheduleAtFixedRate(updateHourTask, 0, 1, TimeUnit.HOURS);
+        runner.schedule("hourly", updateHourTask, 0, 1, TimeUnit.HOURS, HOURLY_MAX_TIME_MS);
     }
 }
 
@@ -1,13 +1,12 @@
 package it.unipi.dii.analyticsPeriodicCalculator;
-import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.model.ReplaceOptions;
 import it.unipi.dii.analyticsPeriodicCalculator.analyticsResultModel.seventhQuery.championshipValue;
 import it.unipi.dii.analyticsPeriodicCalculator.analyticsResultModel.seventhQuery.mainReport;
 import it.unipi.dii.dao.mongo.StatisticsMongoDBDAO;
 import org.bson.Document;
 
-import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.Map;
 import java.util.TimerTask;
 import static it.unipi.dii.utility.converters.jsonToDocumentConverter.convertJsonToDocument;
 import static it.unipi.dii.utility.converters.objectToJsonStringConverter.convertObjectToJsonString;
@@ -21,6 +20,10 @@ public class updateDailyAnalytics extends TimerTask {
     @Override
     public void run() {
         System.out.println("Ok Day Start");
+        StatisticsMongoDBDAO st = new StatisticsMongoDBDAO();
+        st.openConnection();
+        analyticsBuckets.updateDayBuckets(st); // The newly closed day.
+        st.closeConnection();
         averageNumberOfMatchesForEachChampionshipForEachSlipCalculator();
         showUsersFavouriteTeamsCalculator();
         System.out.println("Ok Day end");
@@ -36,15 +39,13 @@ public class updateDailyAnalytics extends TimerTask {
         report.setComputationTimestamp(getCurrentInstantString());
         report.setType("seventh");
 
-        AggregateIterable<Document> av = st.averageNumberOfMatchesForEachChampionshipForEachSlip(
-                report.getPeriodRelated(),
-                getCurrentDate().plusDays(1).toString()
-        );
+        // Sum of the buckets of the month.
+        Map<String, Double> av = analyticsBuckets.sumMonth(st).getAverageMatchesForChampionship();
 
-        for (Document document : av) {
+        for (Map.Entry<String, Double> e : av.entrySet()) {
             report.addValueToList(new championshipValue(
-                    document.getString("_id"),
-                    document.getDouble("HowMany")
+                    e.getKey(),
+                    e.getValue()
             ));
         }
 
@@ -66,11 +67,8 @@ public class updateDailyAnalytics extends TimerTask {
         report.setComputationTimestamp(getCurrentInstantString());
         report.setType("users favourite teams");
 
-        List<String> sList = st.showUsersFavouriteTeams(
-                report.getPeriodRelated(),
-                getCurrentDate().plusDays(1).toString(),
-                10
-        );
+        // Sum of the buckets of the month.
+        List<String> sList = analyticsBuckets.sumMonth(st).getFavouriteTeams(10);
 
         for (String s : sList) {
             report.addValueToList(new championshipValue(s, 0));
@@ -34,10 +34,9 @@ public class updateHourlyAnalytics extends TimerTask {
         financialValue financialVal = new financialValue();
         financialVal.setDateFrom(report.getPeriodRelated());
         financialVal.setDateTo(getCurrentDate().plusDays(1).toString());
-        financialVal.setValue(st.showFinancialResults(
-                financialVal.getDateFrom() ,
-                financialVal.getDateTo()
-        ));
+        // The closed hours are read from the buckets, only the current hour is aggregated.
+        analyticsBuckets.updateHourBuckets(st);
+        financialVal.setValue(analyticsBuckets.sumMonth(st).getFinancial());
         report.addValueToList(financialVal);
 
 
@@ -21,6 +21,8 @@ import java.util.List;
      public List<String> getAllUsernames() ;
      void deleteBetFromSlip(String username, Integer slipID, Bet bet);
 
+     int removeMatchFromCarts(String teamHome, String teamAway); //remove a match from all the non-confirmed slips
+
      String slipBetsKeysNS(String username, Integer slipID);
 
      String slipbetAmountKeysNS(String username, Integer slipID);
@@ -1,17 +1,13 @@
 package it.unipi.dii.dao.base;
 
-import com.mongodb.ConnectionString;
-import com.mongodb.MongoClientSettings;
-import com.mongodb.ReadPreference;
-import com.mongodb.WriteConcern;
 import com.mongodb.client.MongoClient;
-import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoDatabase;
 
 public class BaseMongoDAO {
     public MongoDatabase mongoDB;
 
     protected MongoClient client; // It represents a pool of connections to the database, also for replicas.
+    private MongoClientRegistry.Profile borrowedProfile = null; // Profile of the shared client in use, null if not borrowed.
     public static final String MONGO_PRIMARY_HOST = "10.1.1.55"; //10.1.1.55
     public static final Integer MONGO_PRIMARY_HOST_PORT = 27018;
     public static String MONGO_SECONDARY_HOST = "10.1.1.54";//"10.1.1.54";
@@ -25,9 +21,19 @@ public class BaseMongoDAO {
         this.client = null;
     }
 
+    /**
+     * Release the client: a shared client is given back to the registry (it is not closed),
+     * while a client set with setClient() is closed.
+     */
     public void closeConnection() {
         if (this.client != null) {
-            this.client.close(); // Clean up resources at the end of the application.
+            if (this.borrowedProfile != null) {
+                MongoClientRegistry.getInstance().release(this.borrowedProfile);
+                this.borrowedProfile = null;
+            } else {
+                this.client.close(); // Clean up resources at the end of the application.
+            }
+            this.client = null;
         }
     }
 
@@ -39,75 +45,42 @@ public class BaseMongoDAO {
         return this.client;
     }
 
-    public void openConnectiona() {
-        // This is for the connection to the single local instance
+    /**
+     * Borrow the shared client of the target profile from the registry.
+     *
+     * @param profile The connection profile.
+     * @return The client, or null if the connection failed.
+     */
+    private MongoClient borrowClient(MongoClientRegistry.Profile profile) {
         if (this.client == null) {
-            try {
-                ConnectionString uriString = new ConnectionString(DB_URL);
-                MongoClientSettings mcs = MongoClientSettings.builder().applyConnectionString(uriString).readPreference(ReadPreference.primaryPreferred()).retryWrites(true).writeConcern(WriteConcern.W1).build();
-                this.client = MongoClients.create(mcs);
+            MongoClient c = MongoClientRegistry.getInstance().borrow(profile);
+            if (c != null) {
+                this.client = c;
+                this.borrowedProfile = profile;
                 this.mongoDB = this.client.getDatabase(MONGO_DATABASE_NAME);
-            } catch (Exception e) {
-                System.out.println("problems with connection to mongodb");
             }
         }
+        return this.client;
+    }
+
+    public void openConnectiona() {
+        // This is for the connection to the single local instance
+        borrowClient(MongoClientRegistry.Profile.LOCAL);
     }
 
     public void openStrictConnectiona() {
         // This is for the connection to the single local instance
-        if (this.client == null) {
-            try {
-                ConnectionString uriString = new ConnectionString(DB_URL);
-                MongoClientSettings mcs = MongoClientSettings.builder().applyConnectionString(uriString).readPreference(ReadPreference.primary()).retryWrites(true).writeConcern(WriteConcern.W1).build(); //W3 for replicas
-                this.client = MongoClients.create(mcs);
-                this.mongoDB = this.client.getDatabase(MONGO_DATABASE_NAME);
-            } catch (Exception e) {
-                System.out.println("problems with connection to mongodb");
-            }
-        }
+        borrowClient(MongoClientRegistry.Profile.LOCAL_STRICT);
     }
 
     public void openStrictConnection() {
         // This is for the connection to the local/VM replicas
-        if (this.client == null) {
-            // Client not connected.
-            try {
-                String url = "mongodb://" + MONGO_PRIMARY_HOST + ":" + MONGO_PRIMARY_HOST_PORT + "," + MONGO_SECONDARY_HOST + ":" + MONGO_SECONDARY_HOST_PORT + "," + MONGO_THIRD_HOST + ":" + MONGO_THIRD_HOST_PORT;
-                ConnectionString uriString = new ConnectionString(url);
-                MongoClientSettings mcs = MongoClientSettings.builder().applyConnectionString(uriString).readPreference(ReadPreference.primary()).retryWrites(true).writeConcern(WriteConcern.W3).build(); //W3 for replicas
-                this.client = MongoClients.create(mcs);
-                this.mongoDB = this.client.getDatabase(MONGO_DATABASE_NAME);
-            } catch (Exception e) {
-                System.out.println("Problems occurs with the connection to MongoDB!");
-                e.printStackTrace();
-            }
-
-        }
+        borrowClient(MongoClientRegistry.Profile.STRICT);
     }
 
     public MongoClient openConnection() {
         // This is for the connection to the local/VM replicas
-        if (this.client != null) {
-            // Client already connected.
-            return this.client;
-        } else {
-            // Client not connected.
-            try {
-                String url = "mongodb://" + MONGO_PRIMARY_HOST + ":" + MONGO_PRIMARY_HOST_PORT + "," + MONGO_SECONDARY_HOST + ":" + MONGO_SECONDARY_HOST_PORT + "," + MONGO_THIRD_HOST + ":" + MONGO_THIRD_HOST_PORT;
-                ConnectionString uriString = new ConnectionString(url);
-                MongoClientSettings mcs = MongoClientSettings.builder().applyConnectionString(uriString).readPreference(ReadPreference.primaryPreferred()).retryWrites(true).writeConcern(WriteConcern.W1).build();
-                this.client = MongoClients.create(mcs);
-                this.mongoDB = this.client.getDatabase(MONGO_DATABASE_NAME);
-
-                System.out.println("Connection to MongoDB.");
-                return client;
-            } catch (Exception e) {
-                System.out.println("Problems occurs with the connection to MongoDB!");
-                e.printStackTrace();
-                return null;
-            }
-
-        }
+        return borrowClient(MongoClientRegistry.Profile.DEFAULT);
     }
 
-}
\ No newline at end of file
+}
@@ -1,25 +1,25 @@
 package it.unipi.dii.dao.base;
 
 import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
 
 public abstract class BaseRedisDAO {
-    private static final String REDIS_HOST = "localhost";
-    private static final Integer REDIS_PORT = 6379;
-    private static JedisPool pool;
 
     public static void initPool(){
-        pool = new JedisPool(REDIS_HOST, REDIS_PORT);
+        try (Jedis jedis = RedisPoolManager.getInstance().getResource()) { // The pool is created only once.
+            RedisScripts.preload(jedis);
+        } catch (Exception e) {
+            e.printStackTrace(); // The scripts will be loaded at their first use.
+        }
     }
 
+    /**
+     * @return A connection taken from the shared pool, it must be closed to give it back to the pool.
+     */
     public Jedis getConnection(){
-        initPool();
-        return pool.getResource();
+        return RedisPoolManager.getInstance().getResource();
     }
 
     public static void closePool(){
-        if (!pool.isClosed()){
-            pool.close();
-        }
+        RedisPoolManager.shutdown();
     }
 }
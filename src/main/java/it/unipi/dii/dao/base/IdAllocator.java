@@ -0,0 +1,182 @@
+package it.unipi.dii.dao.base;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Allocator of the numeric IDs (slipID, matchID, pollID...) backed by the "counters" collection.
+ * Every sequence is a document {_id: sequence name, value: last reserved id}.
+ * The allocator reserves blocks of IDs with an atomic findOneAndUpdate + $inc (HiLo strategy),
+ * so only one insert every blockSize needs the extra round trip and two processes can never obtain the same id.
+ * The IDs of a block not used when the process ends are given back if no one reserved a block in the meantime,
+ * otherwise they are lost: the IDs are unique and increasing, but they can have gaps.
+ */
+public class IdAllocator {
+    public static final String COUNTERS_COLLECTION = "counters";
+    private static final int MAX_UPSERT_ATTEMPTS = 3;
+
+    private static final Map<String, IdAllocator> allocators = new ConcurrentHashMap<>();
+
+    private final String sequence;
+    private final int blockSize;
+    private BaseMongoDAO dao; // Opened at the first reservation, released by the registry at shutdown.
+    private boolean seeded = false;
+    private long next = 1; // Next id to give.
+    private long hi = 0; // Last id of the reserved block.
+
+    // Counters of the allocator.
+    private final AtomicLong allocations = new AtomicLong();
+    private final AtomicLong reservations = new AtomicLong();
+
+    private IdAllocator(String sequence, int blockSize) {
+        this.sequence = sequence;
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    /**
+     * @param sequence  The name of the sequence (usually the name of the collection).
+     * @param blockSize How many IDs are reserved in a single round trip, used only at the first call for the sequence.
+     * @return The allocator of the sequence, shared in the whole process.
+     */
+    public static IdAllocator forSequence(String sequence, int blockSize) {
+        return allocators.computeIfAbsent(sequence, s -> new IdAllocator(s, blockSize));
+    }
+
+    /**
+     * Give back the unused IDs of all the allocators, called before the shutdown of the MongoDB clients.
+     */
+    public static void releaseAllUnused() {
+        for (IdAllocator allocator : allocators.values()) {
+            allocator.releaseUnused();
+        }
+    }
+
+    /**
+     * @param seed Function that returns the biggest id already present in the database,
+     *             it is called only at the first reservation of the process, to align the counter with the data.
+     * @return A new unique id, or -1 if the counters collection is unreachable.
+     */
+    public synchronized int nextId(IntSupplier seed) {
+        if (this.next > this.hi) {
+            if (!reserveBlock(seed)) {
+                return -1;
+            }
+        }
+        this.allocations.incrementAndGet();
+        return (int) this.next++;
+    }
+
+    /**
+     * Reserve a new block of IDs.
+     *
+     * @param seed Function that returns the biggest id already present in the database.
+     * @return True if the block has been reserved.
+     */
+    private boolean reserveBlock(IntSupplier seed) {
+        MongoCollection<Document> counters = getCounters();
+        if (counters == null) {
+            return false;
+        }
+
+        for (int attempt = 1; attempt <= MAX_UPSERT_ATTEMPTS; attempt++) {
+            try {
+                if (!this.seeded) {
+                    // The counter can't be behind the IDs already in the collection (e.g. imported datasets).
+                    counters.updateOne(
+                            Filters.eq("_id", this.sequence),
+                            Updates.max("value", seed.getAsInt()),
+                            new UpdateOptions().upsert(true)
+                    );
+                    this.seeded = true;
+                }
+
+                Document counter = counters.findOneAndUpdate(
+                        Filters.eq("_id", this.sequence),
+                        Updates.inc("value", this.blockSize),
+                        new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER)
+                );
+                this.hi = counter.get("value", Number.class).longValue();
+                this.next = this.hi - this.blockSize + 1;
+                this.reservations.incrementAndGet();
+                return true;
+            } catch (MongoWriteException e) {
+                // Two processes created the counter at the same time, the upsert must be retried.
+                if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                    e.printStackTrace();
+                    return false;
+                }
+            } catch (Exception e) {
+                System.out.println("Problems in the reservation of the IDs of '" + this.sequence + "'.");
+                e.printStackTrace();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Give back the IDs reserved and not used, only if no one reserved a block after this one.
+     */
+    public synchronized void releaseUnused() {
+        if (this.next <= this.hi && this.dao != null) {
+            try {
+                getCounters().updateOne(
+                        Filters.and(Filters.eq("_id", this.sequence), Filters.eq("value", this.hi)),
+                        Updates.set("value", this.next - 1)
+                );
+                this.hi = this.next - 1;
+            } catch (Exception ignored) {
+                // The IDs are simply lost.
+            }
+        }
+    }
+
+    /**
+     * @return The counters collection, or null if the connection is not available.
+     */
+    private MongoCollection<Document> getCounters() {
+        if (this.dao == null) {
+            BaseMongoDAO d = new BaseMongoDAO();
+            d.openStrictConnection();
+            if (d.getClient() == null) {
+                return null;
+            }
+            this.dao = d;
+        }
+        return this.dao.mongoDB.getCollection(COUNTERS_COLLECTION);
+    }
+
+    public String getSequence() {
+        return this.sequence;
+    }
+
+    public int getBlockSize() {
+        return this.blockSize;
+    }
+
+    /**
+     * @return How many IDs have been given.
+     */
+    public long getAllocations() {
+        return this.allocations.get();
+    }
+
+    /**
+     * @return How many round trips have been done to reserve the blocks.
+     */
+    public long getReservations() {
+        return this.reservations.get();
+    }
+}
@@ -0,0 +1,241 @@
+package it.unipi.dii.dao.base;
+
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.UpdateOptions;
+import it.unipi.dii.model.Match;
+import it.unipi.dii.utility.sportAPI;
+import org.bson.Document;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compact in-memory snapshot of the fixtures of the API, keyed by the API match id (status, score, lastUpdated),
+ * used to pass to the DAO layer only the real transitions of the matches instead of all the fixtures of every poll.
+ * The most recent lastUpdated applied of each competition is persisted as its watermark (collection "ingestion_state"):
+ * at the first poll of a competition after a restart, when the snapshot is empty, its fixtures older than the
+ * watermark are recorded as already applied (except the TIMED ones, whose insertion is idempotent).
+ * The transitions are committed only after the DAO has applied them, a failed poll is emitted again by the next one;
+ * a FINISHED match is committed only when its settlement is complete (commitWhenDone()).
+ */
+public class MatchSnapshot {
+    private static final String STATE_COLLECTION = "ingestion_state";
+    private static final String STATE_ID = "sportAPI";
+    private static final long WATERMARK_MARGIN_SECONDS = 5 * 60; // Late updates of the API, checked with the snapshot.
+    private static final long MAX_UNSEEN_MS = 24 * 60 * 60 * 1000L; // Fixtures out of the window of the API.
+
+    private static final MatchSnapshot INSTANCE = new MatchSnapshot();
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    // Epoch seconds for each competition_id, null if not loaded yet.
+    private volatile Map<String, Long> watermarks = null;
+    private final Set<String> warm = ConcurrentHashMap.newKeySet(); // Competitions polled since the start.
+    // Competition_id of the FINISHED fixtures whose settlement is running, keyed by the API match id.
+    private final Map<Long, String> settling = new ConcurrentHashMap<>();
+
+    // Counters of the fixtures.
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    private static final class Entry {
+        final String status;
+        final Integer homeGoals;
+        final Integer awayGoals;
+        final long lastUpdated; // Epoch seconds.
+        final long seenAt;
+
+        Entry(Match m, long lastUpdated) {
+            this.status = m.getStatus() == null ? null : m.getStatus().intern();
+            this.homeGoals = m.getHome_goals();
+            this.awayGoals = m.getAway_goals();
+            this.lastUpdated = lastUpdated;
+            this.seenAt = System.currentTimeMillis();
+        }
+
+        boolean sameState(Match m) {
+            return Objects.equals(this.status, m.getStatus())
+                    && Objects.equals(this.homeGoals, m.getHome_goals())
+                    && Objects.equals(this.awayGoals, m.getAway_goals());
+        }
+    }
+
+    private MatchSnapshot() {
+    }
+
+    /**
+     * @return The single instance of the snapshot.
+     */
+    public static MatchSnapshot getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param db       The database with the persisted watermarks.
+     * @param fixtures The fixtures of a poll.
+     * @return The fixtures that change the state (status or score) of their match, to be applied and then committed.
+     */
+    public List<sportAPI.fixture> transitions(MongoDatabase db, List<sportAPI.fixture> fixtures) {
+        if (this.watermarks == null) {
+            loadWatermarks(db);
+        }
+        List<sportAPI.fixture> changed = new ArrayList<>();
+        Set<String> polled = new HashSet<>();
+        for (sportAPI.fixture f : fixtures) {
+            final long lastUpdated = Instant.parse(f.getLastUpdated()).getEpochSecond();
+            final String competition = f.getMatch().getCompetition_id();
+            polled.add(competition);
+            Entry e = this.entries.get(f.getApiID());
+            final boolean skip;
+            if (this.settling.containsKey(f.getApiID())) {
+                this.skipped.incrementAndGet(); // Committed (or emitted again) when its settlement ends.
+                continue;
+            } else if (e != null) {
+                skip = lastUpdated <= e.lastUpdated || e.sameState(f.getMatch());
+            } else {
+                // Unknown fixture: already applied only if it is older than the watermark of its competition
+                // at the first poll after a restart.
+                skip = !this.warm.contains(competition)
+                        && !Objects.equals(f.getMatch().getStatus(), "TIMED")
+                        && lastUpdated < this.watermarks.getOrDefault(competition, 0L) - WATERMARK_MARGIN_SECONDS;
+            }
+            if (skip) {
+                this.skipped.incrementAndGet();
+                if (e == null || lastUpdated >= e.lastUpdated) {
+                    // Same state, newer update (or seen again): the fixture is kept in the snapshot.
+                    this.entries.put(f.getApiID(), new Entry(f.getMatch(), lastUpdated));
+                }
+                continue;
+            }
+            changed.add(f);
+        }
+        // The skipped fixtures are in the snapshot now, the next polls compare them with it.
+        this.warm.addAll(polled);
+        this.processed.addAndGet(changed.size());
+        return changed;
+    }
+
+    /**
+     * Record the transitions applied by the DAO and persist the new watermarks of their competitions.
+     * The watermark of a competition with a match not applied (e.g. a FINISHED match whose settlement failed)
+     * is not moved, otherwise a restart would skip that match as already applied.
+     *
+     * @param applied             The transitions applied by the DAO.
+     * @param pendingCompetitions The competitions with a transition not applied, they keep their watermark.
+     */
+    public void commit(MongoDatabase db, List<sportAPI.fixture> applied, Set<String> pendingCompetitions) {
+        Map<String, Long> newWatermarks = new HashMap<>();
+        for (sportAPI.fixture f : applied) {
+            final long lastUpdated = Instant.parse(f.getLastUpdated()).getEpochSecond();
+            this.entries.put(f.getApiID(), new Entry(f.getMatch(), lastUpdated));
+            if (!pendingCompetitions.contains(f.getMatch().getCompetition_id())
+                    && !isSettling(f.getMatch().getCompetition_id())) {
+                newWatermarks.merge(f.getMatch().getCompetition_id(), lastUpdated, Math::max);
+            }
+        }
+        final long now = System.currentTimeMillis();
+        this.entries.values().removeIf(e -> now - e.seenAt > MAX_UNSEEN_MS);
+
+        Document max = new Document();
+        for (Map.Entry<String, Long> w : newWatermarks.entrySet()) {
+            if (w.getValue() > this.watermarks.getOrDefault(w.getKey(), 0L)) {
+                this.watermarks.put(w.getKey(), w.getValue());
+                max.append("watermarks." + w.getKey(), Instant.ofEpochSecond(w.getValue()).toString());
+            }
+        }
+        if (!max.isEmpty()) {
+            try {
+                db.getCollection(STATE_COLLECTION).updateOne(
+                        new Document("_id", STATE_ID),
+                        new Document("$max", max),
+                        new UpdateOptions().upsert(true)
+                );
+            } catch (Exception e) {
+                e.printStackTrace(); // A restart processes again the fixtures after the old watermarks.
+            }
+        }
+    }
+
+    /**
+     * Commit a FINISHED fixture applied by the DAO when its settlement, running in background, ends.
+     * Until then the fixture is not emitted again and the watermark of its competition is not moved;
+     * if the settlement is not complete the fixture is emitted again by the next poll.
+     *
+     * @param f       The fixture.
+     * @param settled Completed with true if the settlement of the match is complete.
+     */
+    public void commitWhenDone(sportAPI.fixture f, CompletableFuture<Boolean> settled) {
+        this.settling.put(f.getApiID(), f.getMatch().getCompetition_id());
+        settled.whenComplete((complete, e) -> {
+            if (Boolean.TRUE.equals(complete)) {
+                this.entries.put(f.getApiID(), new Entry(f.getMatch(), Instant.parse(f.getLastUpdated()).getEpochSecond()));
+            }
+            this.settling.remove(f.getApiID());
+        });
+    }
+
+    /**
+     * @param competition The competition_id.
+     * @return True if a match of the competition is being settled.
+     */
+    public boolean isSettling(String competition) {
+        return this.settling.containsValue(competition);
+    }
+
+    private void loadWatermarks(MongoDatabase db) {
+        Map<String, Long> loaded = new ConcurrentHashMap<>();
+        try {
+            Document state = db.getCollection(STATE_COLLECTION).find(new Document("_id", STATE_ID)).first();
+            if (state != null && state.get("watermarks", Document.class) != null) {
+                for (Map.Entry<String, Object> w : state.get("watermarks", Document.class).entrySet()) {
+                    loaded.put(w.getKey(), Instant.parse((String) w.getValue()).getEpochSecond());
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace(); // All the fixtures are processed.
+        }
+        this.watermarks = loaded;
+    }
+
+    /**
+     * Forget the snapshot and the watermarks, the next poll processes all the fixtures.
+     */
+    public void reset(MongoDatabase db) {
+        this.entries.clear();
+        this.warm.clear();
+        this.settling.clear();
+        this.watermarks = new ConcurrentHashMap<>();
+        db.getCollection(STATE_COLLECTION).deleteOne(new Document("_id", STATE_ID));
+    }
+
+    public long getProcessed() {
+        return this.processed.get();
+    }
+
+    public long getSkipped() {
+        return this.skipped.get();
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "MatchSnapshot{" +
+                "size=" + size() +
+                ", processed=" + getProcessed() +
+                ", skipped=" + getSkipped() +
+                ", settling=" + this.settling.size() +
+                ", watermarks=" + (this.watermarks == null ? 0 : this.watermarks.size()) +
+                '}';
+    }
+}
@@ -0,0 +1,302 @@
+package it.unipi.dii.dao.base;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory cache of the status of the matches, keyed both by (team_home, team_away) and by matchID.
+ * For a couple of teams the cache keeps the most recent match, like the sorted find on "matches" it replaces.
+ * The cache is bulk loaded with all the non-finished matches by refresh(), called by the periodic match updater
+ * after every update and, in the GUI, by a background task; a missing or too old entry is read from MongoDB on demand.
+ */
+public class MatchStatusCache {
+    private static final int MAX_ENTRIES = 10000;
+    private static final long MAX_AGE_MS = 60 * 1000L; // Two update periods of the live matches.
+
+    private static final MatchStatusCache INSTANCE = new MatchStatusCache();
+
+    private final Map<String, Entry> byTeams = new ConcurrentHashMap<>();
+    private final Map<Integer, Entry> byID = new ConcurrentHashMap<>();
+    private ScheduledExecutorService refresher;
+
+    // Counters of the cache.
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Cached information of a match.
+     */
+    private static final class Entry {
+        final Integer matchID;
+        final String teamHome;
+        final String teamAway;
+        final String status;
+        final String matchDate;
+        final long loadedAt;
+
+        Entry(Document d, long loadedAt) {
+            this.matchID = d.getInteger("matchID");
+            this.teamHome = d.getString("team_home");
+            this.teamAway = d.getString("team_away");
+            this.status = d.getString("status");
+            this.matchDate = d.getString("matchDate");
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private MatchStatusCache() {
+    }
+
+    /**
+     * @return The single instance of the cache.
+     */
+    public static MatchStatusCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param teamHome The home team of the match.
+     * @param teamAway The away team of the match.
+     * @return The status of the most recent match between the teams, null if there is no such match.
+     */
+    public String getStatus(String teamHome, String teamAway) {
+        Entry e = this.byTeams.get(teamsKey(teamHome, teamAway));
+        if (isFresh(e)) {
+            this.hits.incrementAndGet();
+            return e.status;
+        }
+        this.misses.incrementAndGet();
+        e = load(new Document("team_home", teamHome).append("team_away", teamAway));
+        return e == null ? null : e.status;
+    }
+
+    /**
+     * @param matchID The ID of the match.
+     * @return The status of the match, null if there is no such match.
+     */
+    public String getStatus(Integer matchID) {
+        Entry e = this.byID.get(matchID);
+        if (isFresh(e)) {
+            this.hits.incrementAndGet();
+            return e.status;
+        }
+        this.misses.incrementAndGet();
+        e = load(new Document("matchID", matchID));
+        return e == null ? null : e.status;
+    }
+
+    /**
+     * Reload all the non-finished matches with a single query.
+     *
+     * @return The number of loaded matches, -1 if MongoDB is not reachable.
+     */
+    public int refresh() {
+        BaseMongoDAO dao = new BaseMongoDAO();
+        dao.openConnection();
+        if (dao.getClient() == null) {
+            return -1;
+        }
+        try {
+            return refresh(dao.mongoDB);
+        } finally {
+            dao.closeConnection();
+        }
+    }
+
+    /**
+     * Reload all the non-finished matches with a single query, on an already open database.
+     * The non-finished entries missing from the result are dropped: their match has been deleted (CANCELED)
+     * or is FINISHED, and it is read again from MongoDB at the next request.
+     *
+     * @param db The database that contains the matches collection.
+     * @return The number of loaded matches.
+     */
+    public int refresh(MongoDatabase db) {
+        final long now = System.currentTimeMillis();
+        Set<Integer> loaded = new HashSet<>();
+        try (MongoCursor<Document> cursor = db.getCollection("matches")
+                .find(new Document("status", new Document("$ne", "FINISHED")))
+                .projection(projection())
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Entry e = new Entry(cursor.next(), now);
+                put(e);
+                loaded.add(e.matchID);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return loaded.size(); // A partial result doesn't tell which matches are gone.
+        }
+        Iterator<Entry> it = this.byID.values().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (!loaded.contains(e.matchID) && !Objects.equals(e.status, "FINISHED")) {
+                it.remove();
+                this.byTeams.remove(teamsKey(e.teamHome, e.teamAway), e);
+                this.evictions.incrementAndGet();
+            }
+        }
+        this.refreshes.incrementAndGet();
+        return loaded.size();
+    }
+
+    /**
+     * Refresh the cache in background, used by the processes that don't run the match updater (e.g. the GUI).
+     *
+     * @param periodSeconds The period of the refresh.
+     */
+    public synchronized void startPeriodicRefresh(long periodSeconds) {
+        if (this.refresher == null) {
+            this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "match-status-cache-refresh");
+                t.setDaemon(true);
+                return t;
+            });
+            this.refresher.scheduleAtFixedRate(this::refresh, 0, periodSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public synchronized void stopPeriodicRefresh() {
+        if (this.refresher != null) {
+            this.refresher.shutdownNow();
+            this.refresher = null;
+        }
+    }
+
+    /**
+     * Remove all the entries.
+     */
+    public void invalidateAll() {
+        this.byTeams.clear();
+        this.byID.clear();
+    }
+
+    /**
+     * Read a single match from MongoDB (the most recent one that respects the query) and cache it.
+     */
+    private Entry load(Document query) {
+        BaseMongoDAO dao = new BaseMongoDAO();
+        dao.openConnection();
+        try {
+            Document d = dao.mongoDB.getCollection("matches")
+                    .find(query)
+                    .sort(new Document("matchDate", -1)) // descending order
+                    .projection(projection())
+                    .first();
+            if (d == null) {
+                return null;
+            }
+            Entry e = new Entry(d, System.currentTimeMillis());
+            put(e);
+            return e;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            dao.closeConnection();
+        }
+    }
+
+    private void put(Entry e) {
+        if (this.byID.size() >= MAX_ENTRIES && !this.byID.containsKey(e.matchID)) {
+            evictOldest();
+        }
+        this.byID.put(e.matchID, e);
+        // For a couple of teams only the most recent match is kept.
+        this.byTeams.merge(teamsKey(e.teamHome, e.teamAway), e,
+                (old, neu) -> neu.matchDate != null && old.matchDate != null && neu.matchDate.compareTo(old.matchDate) < 0
+                        && !Objects.equals(old.matchID, neu.matchID) ? old : neu);
+    }
+
+    /**
+     * Remove the expired entries or, if there are none, the least recently loaded one.
+     */
+    private void evictOldest() {
+        final long now = System.currentTimeMillis();
+        Entry oldest = null;
+        Iterator<Entry> it = this.byID.values().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (now - e.loadedAt > MAX_AGE_MS) {
+                it.remove();
+                this.byTeams.remove(teamsKey(e.teamHome, e.teamAway), e);
+                this.evictions.incrementAndGet();
+            } else if (oldest == null || e.loadedAt < oldest.loadedAt) {
+                oldest = e;
+            }
+        }
+        if (this.byID.size() >= MAX_ENTRIES && oldest != null) {
+            this.byID.remove(oldest.matchID, oldest);
+            this.byTeams.remove(teamsKey(oldest.teamHome, oldest.teamAway), oldest);
+            this.evictions.incrementAndGet();
+        }
+    }
+
+    private static boolean isFresh(Entry e) {
+        return e != null && System.currentTimeMillis() - e.loadedAt <= MAX_AGE_MS;
+    }
+
+    private static String teamsKey(String teamHome, String teamAway) {
+        return teamHome + "|" + teamAway;
+    }
+
+    private static Document projection() {
+        return new Document("_id", 0)
+                .append("matchID", 1)
+                .append("team_home", 1)
+                .append("team_away", 1)
+                .append("status", 1)
+                .append("matchDate", 1);
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public double getHitRatio() {
+        final long total = getHits() + getMisses();
+        return total == 0 ? 0 : (double) getHits() / total;
+    }
+
+    public long getRefreshes() {
+        return this.refreshes.get();
+    }
+
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    public int size() {
+        return this.byID.size();
+    }
+
+    @Override
+    public String toString() {
+        return "MatchStatusCache{" +
+                "size=" + size() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", hitRatio=" + getHitRatio() +
+                ", refreshes=" + getRefreshes() +
+                ", evictions=" + getEvictions() +
+                '}';
+    }
+}
@@ -0,0 +1,253 @@
+package it.unipi.dii.dao.base;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import it.unipi.dii.utility.codecs.BeansBetCodecs;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static it.unipi.dii.dao.base.BaseMongoDAO.*;
+
+/**
+ * Process-wide registry of the MongoDB clients.
+ * A MongoClient already is a pool of connections, so the application needs only one client for each
+ * connection profile: the DAOs borrow the shared client in openConnection() and release it in closeConnection(),
+ * while the clients themselves are closed only when the registry is shut down (or when the JVM exits).
+ */
+public class MongoClientRegistry {
+    /**
+     * The supported connection profiles:
+     * <ul>
+     *     <li>DEFAULT - Replicas, primary preferred read preference, W1 write concern.</li>
+     *     <li>STRICT - Replicas, primary read preference, W3 write concern.</li>
+     *     <li>LOCAL - Single local instance, primary preferred read preference, W1 write concern.</li>
+     *     <li>LOCAL_STRICT - Single local instance, primary read preference, W1 write concern.</li>
+     * </ul>
+     */
+    public enum Profile {
+        DEFAULT, STRICT, LOCAL, LOCAL_STRICT
+    }
+
+    private static final MongoClientRegistry INSTANCE = new MongoClientRegistry();
+
+    private final Map<Profile, MongoClient> clients = new EnumMap<>(Profile.class);
+    private final Map<Profile, AtomicLong> activeLeases = new EnumMap<>(Profile.class);
+    private boolean shutdown = false;
+
+    // Counters of the registry.
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong releases = new AtomicLong();
+    private final AtomicLong clientsCreated = new AtomicLong();
+
+    // Counters of the driver connection pools (summed over all the profiles).
+    private final AtomicLong connectionsCreated = new AtomicLong();
+    private final AtomicLong connectionsClosed = new AtomicLong();
+    private final AtomicLong connectionsCheckedOut = new AtomicLong();
+    private final AtomicLong checkOuts = new AtomicLong();
+
+    private MongoClientRegistry() {
+        for (Profile p : Profile.values()) {
+            this.activeLeases.put(p, new AtomicLong());
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "mongo-client-registry-shutdown"));
+    }
+
+    /**
+     * @return The single instance of the registry.
+     */
+    public static MongoClientRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Borrow the shared client of the given profile, creating it at the first request.
+     *
+     * @param profile The connection profile.
+     * @return The shared client, or null if the client cannot be created.
+     */
+    public synchronized MongoClient borrow(Profile profile) {
+        if (this.shutdown) {
+            return null;
+        }
+        MongoClient client = this.clients.get(profile);
+        if (client == null) {
+            try {
+                client = MongoClients.create(buildSettings(profile));
+            } catch (Exception e) {
+                System.out.println("Problems occurs with the connection to MongoDB!");
+                e.printStackTrace();
+                return null;
+            }
+            this.clients.put(profile, client);
+            this.clientsCreated.incrementAndGet();
+        }
+        this.borrows.incrementAndGet();
+        this.activeLeases.get(profile).incrementAndGet();
+        return client;
+    }
+
+    /**
+     * Give back a client previously borrowed; the client is not closed.
+     *
+     * @param profile The connection profile used in the borrow.
+     */
+    public void release(Profile profile) {
+        this.releases.incrementAndGet();
+        this.activeLeases.get(profile).decrementAndGet();
+    }
+
+    /**
+     * Close all the clients of the registry, after this call no more clients can be borrowed.
+     */
+    public void shutdown() {
+        IdAllocator.releaseAllUnused(); // It needs the clients still open.
+        closeClients();
+    }
+
+    private synchronized void closeClients() {
+        if (!this.shutdown) {
+            this.shutdown = true;
+            for (MongoClient client : this.clients.values()) {
+                client.close(); // Clean up resources at the end of the application.
+            }
+            this.clients.clear();
+        }
+    }
+
+    /**
+     * @param profile The connection profile.
+     * @return The settings of the client related to the profile.
+     */
+    private MongoClientSettings buildSettings(Profile profile) {
+        String url;
+        ReadPreference readPreference;
+        WriteConcern writeConcern;
+
+        switch (profile) {
+            case STRICT:
+                url = getReplicasUrl();
+                readPreference = ReadPreference.primary();
+                writeConcern = WriteConcern.W3;
+                break;
+            case LOCAL:
+                url = DB_URL;
+                readPreference = ReadPreference.primaryPreferred();
+                writeConcern = WriteConcern.W1;
+                break;
+            case LOCAL_STRICT:
+                url = DB_URL;
+                readPreference = ReadPreference.primary();
+                writeConcern = WriteConcern.W1; // W3 for replicas
+                break;
+            default:
+                url = getReplicasUrl();
+                readPreference = ReadPreference.primaryPreferred();
+                writeConcern = WriteConcern.W1;
+                break;
+        }
+
+        return MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString(url))
+                .readPreference(readPreference)
+                .retryWrites(true)
+                .writeConcern(writeConcern)
+                .codecRegistry(BeansBetCodecs.getCodecRegistry()) // Typed collections of the model.
+                .applyToConnectionPoolSettings(builder -> builder.addConnectionPoolListener(new PoolCounter()))
+                .build();
+    }
+
+    /**
+     * @return The connection string of the replica set.
+     */
+    private static String getReplicasUrl() {
+        return "mongodb://" + MONGO_PRIMARY_HOST + ":" + MONGO_PRIMARY_HOST_PORT + "," + MONGO_SECONDARY_HOST + ":" + MONGO_SECONDARY_HOST_PORT + "," + MONGO_THIRD_HOST + ":" + MONGO_THIRD_HOST_PORT;
+    }
+
+    /**
+     * Listener that keeps the counters of the driver connection pools.
+     */
+    private class PoolCounter implements ConnectionPoolListener {
+        @Override
+        public void connectionCreated(ConnectionCreatedEvent event) {
+            connectionsCreated.incrementAndGet();
+        }
+
+        @Override
+        public void connectionClosed(ConnectionClosedEvent event) {
+            connectionsClosed.incrementAndGet();
+        }
+
+        @Override
+        public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+            checkOuts.incrementAndGet();
+            connectionsCheckedOut.incrementAndGet();
+        }
+
+        @Override
+        public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+            connectionsCheckedOut.decrementAndGet();
+        }
+    }
+
+    public long getBorrows() {
+        return this.borrows.get();
+    }
+
+    public long getReleases() {
+        return this.releases.get();
+    }
+
+    public long getClientsCreated() {
+        return this.clientsCreated.get();
+    }
+
+    public long getActiveLeases(Profile profile) {
+        return this.activeLeases.get(profile).get();
+    }
+
+    public long getConnectionsCreated() {
+        return this.connectionsCreated.get();
+    }
+
+    public long getConnectionsClosed() {
+        return this.connectionsClosed.get();
+    }
+
+    /**
+     * @return The number of connections that are currently in use.
+     */
+    public long getConnectionsInUse() {
+        return this.connectionsCheckedOut.get();
+    }
+
+    /**
+     * @return The total number of operations that took a connection from a pool.
+     */
+    public long getCheckOuts() {
+        return this.checkOuts.get();
+    }
+
+    @Override
+    public String toString() {
+        return "MongoClientRegistry{" +
+                "borrows=" + getBorrows() +
+                ", releases=" + getReleases() +
+                ", clientsCreated=" + getClientsCreated() +
+                ", connectionsCreated=" + getConnectionsCreated() +
+                ", connectionsClosed=" + getConnectionsClosed() +
+                ", connectionsInUse=" + getConnectionsInUse() +
+                ", checkOuts=" + getCheckOuts() +
+                '}';
+    }
+}
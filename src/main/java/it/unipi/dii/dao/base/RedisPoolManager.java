@@ -0,0 +1,211 @@
+package it.unipi.dii.dao.base;
+
+import org.apache.commons.pool2.impl.AbandonedConfig;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide manager of the pool of connections to Redis.
+ * The pool is created once, at the first request of a connection, and every Jedis object taken from it
+ * must be closed by the caller (try-with-resources), the close gives the connection back to the pool.
+ * Connections borrowed and not given back for more than LEAK_TIMEOUT are considered leaked:
+ * they are reclaimed by the pool and the stack trace of the borrower is logged.
+ */
+public class RedisPoolManager {
+    private static final String REDIS_HOST = "localhost";
+    private static final Integer REDIS_PORT = 6379;
+    private static final int CONNECTION_TIMEOUT_MS = 2000;
+
+    // Default sizing of the pool, they can be changed with configure() before the first borrow.
+    private static int maxTotal = 32;
+    private static int maxIdle = 16;
+    private static int minIdle = 2;
+    private static Duration borrowTimeout = Duration.ofSeconds(2);
+    private static Duration leakTimeout = Duration.ofMinutes(2);
+    private static int database = 0; // Logical database of Redis.
+
+    private static RedisPoolManager instance;
+
+    private final JedisPool pool;
+
+    // Borrow statistics.
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong borrowFailures = new AtomicLong();
+    private final AtomicLong totalBorrowNanos = new AtomicLong();
+    private final AtomicLong maxBorrowNanos = new AtomicLong();
+
+    private RedisPoolManager() {
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(maxTotal);
+        config.setMaxIdle(maxIdle);
+        config.setMinIdle(minIdle);
+        config.setBlockWhenExhausted(true);
+        config.setMaxWait(borrowTimeout); // After this time a borrow on an exhausted pool fails.
+        config.setTestWhileIdle(true);
+        config.setTimeBetweenEvictionRuns(Duration.ofSeconds(30));
+        config.setJmxEnabled(false);
+
+        this.pool = new JedisPool(config, REDIS_HOST, REDIS_PORT, CONNECTION_TIMEOUT_MS, null, database);
+
+        // Leak detection.
+        AbandonedConfig abandonedConfig = new AbandonedConfig();
+        abandonedConfig.setRemoveAbandonedOnBorrow(true);
+        abandonedConfig.setRemoveAbandonedOnMaintenance(true);
+        abandonedConfig.setRemoveAbandonedTimeout(leakTimeout);
+        abandonedConfig.setLogAbandoned(true);
+        this.pool.setAbandonedConfig(abandonedConfig);
+    }
+
+    /**
+     * @return The single instance of the manager, the pool is created at the first call.
+     */
+    public static synchronized RedisPoolManager getInstance() {
+        if (instance == null) {
+            instance = new RedisPoolManager();
+        }
+        return instance;
+    }
+
+    /**
+     * Change the sizing of the pool, it has effect only if called before the creation of the pool.
+     *
+     * @param maxTotalConnections Maximum number of connections.
+     * @param maxIdleConnections  Maximum number of idle connections kept in the pool.
+     * @param minIdleConnections  Minimum number of idle connections kept in the pool.
+     * @param maxBorrowWait       Maximum time that a borrow waits for a free connection.
+     * @param leakAfter           Time after which a borrowed connection is considered leaked.
+     * @return True if the new configuration has been applied.
+     */
+    public static synchronized boolean configure(int maxTotalConnections, int maxIdleConnections, int minIdleConnections,
+                                                 Duration maxBorrowWait, Duration leakAfter) {
+        if (instance != null) {
+            return false; // The pool already exists.
+        }
+        maxTotal = maxTotalConnections;
+        maxIdle = maxIdleConnections;
+        minIdle = minIdleConnections;
+        borrowTimeout = maxBorrowWait;
+        leakTimeout = leakAfter;
+        return true;
+    }
+
+    /**
+     * Use another logical database of Redis, e.g. a scratch one for the benchmarks, so the keys of the application
+     * are not touched. It has effect only if called before the creation of the pool.
+     *
+     * @param index The index of the database.
+     * @return True if the database has been changed.
+     */
+    public static synchronized boolean useDatabase(int index) {
+        if (instance != null) {
+            return false; // The pool already exists.
+        }
+        database = index;
+        return true;
+    }
+
+    /**
+     * @return A connection of the pool, it must be closed to give it back.
+     */
+    public Jedis getResource() {
+        final long start = System.nanoTime();
+        try {
+            return this.pool.getResource();
+        } catch (RuntimeException e) {
+            this.borrowFailures.incrementAndGet();
+            throw e;
+        } finally {
+            final long elapsed = System.nanoTime() - start;
+            this.borrows.incrementAndGet();
+            this.totalBorrowNanos.addAndGet(elapsed);
+            this.maxBorrowNanos.accumulateAndGet(elapsed, Math::max);
+        }
+    }
+
+    /**
+     * A connection out of the pool, for the commands that keep it busy for a long time (e.g. SUBSCRIBE),
+     * that would be reclaimed by the leak detection of the pool. It must be closed by the caller.
+     *
+     * @return A new connection to the database of the pool.
+     */
+    public static Jedis newDedicatedConnection() {
+        Jedis jedis = new Jedis(REDIS_HOST, REDIS_PORT, CONNECTION_TIMEOUT_MS);
+        if (database != 0) {
+            jedis.select(database);
+        }
+        return jedis;
+    }
+
+    /**
+     * Close the pool and all its connections.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            if (!instance.pool.isClosed()) {
+                instance.pool.close();
+            }
+            instance = null;
+        }
+    }
+
+    /**
+     * @return The number of connections currently borrowed.
+     */
+    public int getActiveConnections() {
+        return this.pool.getNumActive();
+    }
+
+    /**
+     * @return The number of connections currently idle in the pool.
+     */
+    public int getIdleConnections() {
+        return this.pool.getNumIdle();
+    }
+
+    /**
+     * @return The number of threads waiting for a connection.
+     */
+    public int getWaiters() {
+        return this.pool.getNumWaiters();
+    }
+
+    public long getBorrows() {
+        return this.borrows.get();
+    }
+
+    public long getBorrowFailures() {
+        return this.borrowFailures.get();
+    }
+
+    /**
+     * @return The mean time spent waiting for a connection, in microseconds.
+     */
+    public double getMeanBorrowLatencyMicros() {
+        final long n = this.borrows.get();
+        return n == 0 ? 0 : (this.totalBorrowNanos.get() / 1000.0) / n;
+    }
+
+    /**
+     * @return The maximum time spent waiting for a connection, in microseconds.
+     */
+    public double getMaxBorrowLatencyMicros() {
+        return this.maxBorrowNanos.get() / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "RedisPoolManager{" +
+                "active=" + getActiveConnections() +
+                ", idle=" + getIdleConnections() +
+                ", waiters=" + getWaiters() +
+                ", borrows=" + getBorrows() +
+                ", borrowFailures=" + getBorrowFailures() +
+                ", meanBorrowLatencyMicros=" + getMeanBorrowLatencyMicros() +
+                ", maxBorrowLatencyMicros=" + getMaxBorrowLatencyMicros() +
+                '}';
+    }
+}
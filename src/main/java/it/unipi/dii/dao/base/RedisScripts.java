@@ -0,0 +1,279 @@
+package it.unipi.dii.dao.base;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Library of the Lua scripts used to change the carts and the polls on the Redis side.
+ * Every script runs atomically and in a single round trip, so concurrent writers can't lose each other's updates
+ * and the JVM never does a read-modify-write of the JSON values.
+ * The scripts are loaded once (SCRIPT LOAD) and then executed by their SHA1 (EVALSHA),
+ * if Redis lost its script cache (restart, SCRIPT FLUSH) the script is loaded again transparently.
+ */
+public class RedisScripts {
+
+    public enum Script {
+        /**
+         * Append a bet to the slip, index the cart under the match of the bet and record the activity of the user.
+         * KEYS: hash of the slip, match --> carts index, active users.
+         * ARGV: bet (JSON), username, member of the match --> carts index, TTL, now (ms), expired activity score.
+         * Returns the number of bets of the slip, or -1 if the slip doesn't exist.
+         */
+        CART_ADD_BET("""
+                local bets = redis.call('HGET', KEYS[1], 'bets')
+                if not bets then
+                    return -1
+                end
+                local list = cjson.decode(bets)
+                table.insert(list, cjson.decode(ARGV[1]))
+                redis.call('HSET', KEYS[1], 'bets', cjson.encode(list))
+                redis.call('SADD', KEYS[2], ARGV[3])
+                redis.call('EXPIRE', KEYS[2], ARGV[4])
+                redis.call('ZADD', KEYS[3], 'GT', ARGV[5], ARGV[2])
+                redis.call('ZREMRANGEBYSCORE', KEYS[3], '-inf', ARGV[6])
+                return #list
+                """),
+
+        /**
+         * Remove the first equal bet from the slip (same fields of Bet.equals()) and, if no other bet of the slip
+         * is on the same match, remove the cart from the match --> carts index.
+         * KEYS: hash of the slip, match --> carts index, active users.
+         * ARGV: bet (JSON), username, member of the match --> carts index, now (ms), expired activity score.
+         * Returns the number of remaining bets, or -1 if the slip doesn't exist.
+         */
+        CART_REMOVE_BET("""
+                local bets = redis.call('HGET', KEYS[1], 'bets')
+                if not bets then
+                    return -1
+                end
+                local list = cjson.decode(bets)
+                if #list == 0 then
+                    redis.call('HDEL', KEYS[1], 'bets')
+                    return 0
+                end
+                local bet = cjson.decode(ARGV[1])
+                for i, b in ipairs(list) do
+                    if b.matchID == bet.matchID and b.teamHome == bet.teamHome and b.teamAway == bet.teamAway
+                            and b.chosenMultiplierName == bet.chosenMultiplierName
+                            and b.chosenMultipliervalue == bet.chosenMultipliervalue
+                            and b.competition_id == bet.competition_id then
+                        table.remove(list, i)
+                        break
+                    end
+                end
+                local sameMatch = false
+                for _, b in ipairs(list) do
+                    if b.teamHome == bet.teamHome and b.teamAway == bet.teamAway then
+                        sameMatch = true
+                        break
+                    end
+                end
+                if not sameMatch then
+                    redis.call('SREM', KEYS[2], ARGV[3])
+                end
+                if #list == 0 then
+                    redis.call('HSET', KEYS[1], 'bets', '[]') -- cjson would encode the empty list as an object.
+                else
+                    redis.call('HSET', KEYS[1], 'bets', cjson.encode(list))
+                end
+                redis.call('ZADD', KEYS[3], 'GT', ARGV[4], ARGV[2])
+                redis.call('ZREMRANGEBYSCORE', KEYS[3], '-inf', ARGV[5])
+                return #list
+                """),
+
+        /**
+         * Delete the slip, remove it from the cart of the user and from the match --> carts index of all its matches.
+         * The keys of the match --> carts index are built inside the script (single Redis instance only).
+         * KEYS: hash of the slip, set of the slips of the user.
+         * ARGV: slipID, member of the match --> carts index, prefix of the match --> carts index keys.
+         * Returns 1 if the slip existed, 0 otherwise.
+         */
+        CART_CLEAR("""
+                local bets = redis.call('HGET', KEYS[1], 'bets')
+                if bets then
+                    for _, b in ipairs(cjson.decode(bets)) do
+                        if type(b.teamHome) == 'string' and type(b.teamAway) == 'string' then
+                            redis.call('SREM', ARGV[3] .. b.teamHome .. '|' .. b.teamAway, ARGV[2])
+                        end
+                    end
+                end
+                redis.call('SREM', KEYS[2], ARGV[1])
+                return redis.call('DEL', KEYS[1])
+                """),
+
+        /**
+         * Remove all the bets on a match from the slip and remove the cart from the match --> carts index,
+         * the slip that remains with no bets is deleted and removed from the cart of the user.
+         * KEYS: hash of the slip, set of the slips of the user, match --> carts index.
+         * ARGV: home team, away team, slipID, member of the match --> carts index.
+         * Returns the number of removed bets, or -1 if the slip doesn't exist.
+         */
+        CART_REMOVE_MATCH("""
+                redis.call('SREM', KEYS[3], ARGV[4])
+                local bets = redis.call('HGET', KEYS[1], 'bets')
+                if not bets then
+                    return -1
+                end
+                local list = cjson.decode(bets)
+                local kept = {}
+                for _, b in ipairs(list) do
+                    if not (b.teamHome == ARGV[1] and b.teamAway == ARGV[2]) then
+                        table.insert(kept, b)
+                    end
+                end
+                local removed = #list - #kept
+                if removed == 0 then
+                    return 0
+                end
+                if #kept == 0 then
+                    -- It was the last one.
+                    redis.call('DEL', KEYS[1])
+                    redis.call('SREM', KEYS[2], ARGV[3])
+                else
+                    redis.call('HSET', KEYS[1], 'bets', cjson.encode(kept))
+                end
+                return removed
+                """),
+
+        /**
+         * Renew the TTL of the slip and of the cart of the user and record the activity of the user.
+         * KEYS: hash of the slip, set of the slips of the user, active users.
+         * ARGV: TTL, username, now (ms), expired activity score.
+         * Returns 1 if the slip exists, 0 otherwise.
+         */
+        CART_REFRESH_TTL("""
+                local alive = redis.call('EXPIRE', KEYS[1], ARGV[1])
+                redis.call('EXPIRE', KEYS[2], ARGV[1])
+                if alive == 1 then
+                    redis.call('ZADD', KEYS[3], 'GT', ARGV[3], ARGV[2])
+                end
+                redis.call('ZREMRANGEBYSCORE', KEYS[3], '-inf', ARGV[4])
+                return alive
+                """),
+
+        /**
+         * Vote (or unvote) an option of a poll, the votes never go below zero.
+         * KEYS: options of the poll, key of the poll.
+         * ARGV: caption of the option, 1 to vote or 0 to unvote, TTL.
+         * Returns the new votes of the option, or -1 if the poll doesn't exist.
+         */
+        POLL_VOTE("""
+                local options = redis.call('GET', KEYS[1])
+                if not options then
+                    return -1
+                end
+                local list = cjson.decode(options)
+                if #list == 0 then
+                    redis.call('DEL', KEYS[2])
+                    return 0
+                end
+                local votes = 0
+                for _, op in ipairs(list) do
+                    if op.optionCaption == ARGV[1] then
+                        if ARGV[2] == '1' then
+                            op.optionVotes = op.optionVotes + 1
+                        elseif op.optionVotes > 0 then
+                            op.optionVotes = op.optionVotes - 1
+                        end
+                        votes = op.optionVotes
+                        break
+                    end
+                end
+                redis.call('SET', KEYS[1], cjson.encode(list), 'EX', ARGV[3])
+                return votes
+                """);
+
+        private final String source;
+
+        Script(String source) {
+            this.source = source;
+        }
+
+        public String getSource() {
+            return this.source;
+        }
+    }
+
+    private static final Map<Script, String> shas = new ConcurrentHashMap<>();
+
+    private RedisScripts() {
+    }
+
+    /**
+     * Load all the scripts in the script cache of Redis.
+     *
+     * @param jedis The connection to use.
+     */
+    public static void preload(Jedis jedis) {
+        for (Script script : Script.values()) {
+            shas.put(script, jedis.scriptLoad(script.getSource()));
+        }
+    }
+
+    /**
+     * Execute a script by its SHA1, loading it if it isn't in the script cache of Redis.
+     *
+     * @param jedis  The connection to use.
+     * @param script The script to execute.
+     * @param keys   The keys used by the script.
+     * @param args   The arguments of the script.
+     * @return The value returned by the script (Long for the Lua numbers).
+     */
+    public static Object run(Jedis jedis, Script script, List<String> keys, List<String> args) {
+        String sha = shas.get(script);
+        if (sha == null) {
+            sha = jedis.scriptLoad(script.getSource());
+            shas.put(script, sha);
+        }
+        try {
+            return jedis.evalsha(sha, keys, args);
+        } catch (JedisNoScriptException e) {
+            // The script cache of Redis has been flushed.
+            sha = jedis.scriptLoad(script.getSource());
+            shas.put(script, sha);
+            return jedis.evalsha(sha, keys, args);
+        }
+    }
+
+    /**
+     * Execute a script many times with a single pipelined round trip, every execution is still atomic.
+     * The executions rejected because the script is not in the script cache of Redis are run again one by one.
+     *
+     * @param jedis  The connection to use.
+     * @param script The script to execute.
+     * @param keys   The keys used by every execution.
+     * @param args   The arguments of every execution, in the same order of the keys.
+     * @return The values returned by the executions, in the same order of the keys.
+     */
+    public static List<Object> runPipelined(Jedis jedis, Script script, List<List<String>> keys, List<List<String>> args) {
+        String sha = shas.get(script);
+        if (sha == null) {
+            sha = jedis.scriptLoad(script.getSource());
+            shas.put(script, sha);
+        }
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<Object>> responses = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            responses.add(pipeline.evalsha(sha, keys.get(i), args.get(i)));
+        }
+        pipeline.sync();
+
+        List<Object> results = new ArrayList<>();
+        for (int i = 0; i < responses.size(); i++) {
+            try {
+                results.add(responses.get(i).get());
+            } catch (JedisNoScriptException e) {
+                // The script cache of Redis has been flushed, this execution didn't run.
+                results.add(run(jedis, script, keys.get(i), args.get(i)));
+            }
+        }
+        return results;
+    }
+}
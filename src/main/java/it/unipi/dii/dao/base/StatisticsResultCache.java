@@ -0,0 +1,173 @@
+package it.unipi.dii.dao.base;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static it.unipi.dii.utility.dateTimes.getCurrentInstantString;
+
+/**
+ * Bounded LRU cache of the results of the analytics queries, keyed by (query type, range).
+ * <ul>
+ *     <li>The results of a range entirely in the past don't change when new slips are confirmed, so they are kept
+ *     until they are evicted or a slip of the range is settled (invalidateDay()); the settlements are checked at most
+ *     once every CURRENT_MAX_AGE_MS (settlementCheckDue()).</li>
+ *     <li>The results of a range that includes the current time are dropped when a slip is confirmed by this process
+ *     (slipsChanged()) and, for the slips confirmed by other processes, after a short time.</li>
+ * </ul>
+ */
+public class StatisticsResultCache {
+    private static final int MAX_ENTRIES = 1024;
+    private static final long CURRENT_MAX_AGE_MS = 60 * 1000L;
+
+    private static final StatisticsResultCache INSTANCE = new StatisticsResultCache();
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // Access order.
+    private final AtomicLong slipsVersion = new AtomicLong();
+    private volatile String settledWatermark = getCurrentInstantString(); // Settlements already applied to the cache.
+    private long lastSettlementCheck = 0; // Epoch millis.
+
+    // Counters of the cache.
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private static final class Entry {
+        final String from;
+        final String to;
+        final Object value;
+        final boolean past;
+        final long version;
+        final long loadedAt;
+
+        Entry(String from, String to, Object value, boolean past, long version) {
+            this.from = from;
+            this.to = to;
+            this.value = value;
+            this.past = past;
+            this.version = version;
+            this.loadedAt = System.currentTimeMillis();
+        }
+    }
+
+    private StatisticsResultCache() {
+    }
+
+    /**
+     * @return The single instance of the cache.
+     */
+    public static StatisticsResultCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param type The type of the query.
+     * @param from The begin of the range.
+     * @param to   The end of the range.
+     * @return The cached result, null if it is missing or no more valid.
+     */
+    public synchronized Object get(String type, String from, String to) {
+        final String key = key(type, from, to);
+        Entry e = this.entries.get(key);
+        if (e != null && !e.past && (e.version != this.slipsVersion.get()
+                || System.currentTimeMillis() - e.loadedAt > CURRENT_MAX_AGE_MS)) {
+            this.entries.remove(key);
+            e = null;
+        }
+        if (e == null) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+        this.hits.incrementAndGet();
+        return e.value;
+    }
+
+    /**
+     * Cache the result of a query, the range is in the past if it ends before the current time.
+     */
+    public synchronized void put(String type, String from, String to, Object value) {
+        final boolean past = to.compareTo(getCurrentInstantString()) <= 0;
+        this.entries.put(key(type, from, to), new Entry(from, to, value, past, this.slipsVersion.get()));
+        if (this.entries.size() > MAX_ENTRIES) {
+            Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator();
+            it.next();
+            it.remove(); // The least recently used.
+            this.evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * New slips have been confirmed: the results of the current ranges are no more valid.
+     */
+    public void slipsChanged() {
+        this.slipsVersion.incrementAndGet();
+    }
+
+    /**
+     * Drop the results of the ranges that include a day, e.g. because some of its slips have been settled.
+     *
+     * @param day The day ("yyyy-MM-dd").
+     */
+    public synchronized void invalidateDay(String day) {
+        this.entries.values().removeIf(e -> e.from.substring(0, 10).compareTo(day) <= 0 && e.to.compareTo(day) > 0);
+    }
+
+    public synchronized void invalidateAll() {
+        this.entries.clear();
+    }
+
+    /**
+     * @return True if the settlements have to be checked by the caller now, at most once every CURRENT_MAX_AGE_MS:
+     * a result of the past is then stale for at most the same time of a result of the current time.
+     */
+    public synchronized boolean settlementCheckDue() {
+        final long now = System.currentTimeMillis();
+        if (now - this.lastSettlementCheck < CURRENT_MAX_AGE_MS) {
+            return false;
+        }
+        this.lastSettlementCheck = now;
+        return true;
+    }
+
+    /**
+     * @return The timestamp from which the settlements still have to be applied to the cache.
+     */
+    public String getSettledWatermark() {
+        return this.settledWatermark;
+    }
+
+    public void setSettledWatermark(String settledWatermark) {
+        this.settledWatermark = settledWatermark;
+    }
+
+    private static String key(String type, String from, String to) {
+        return type + "|" + from + "|" + to;
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "StatisticsResultCache{" +
+                "size=" + size() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                '}';
+    }
+}
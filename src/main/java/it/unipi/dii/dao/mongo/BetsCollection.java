@@ -0,0 +1,165 @@
+package it.unipi.dii.dao.mongo;
+
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.InsertManyOptions;
+import it.unipi.dii.model.Bet;
+import it.unipi.dii.model.Slip;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static it.unipi.dii.utility.mongoUtility.createCompoundIndex;
+import static it.unipi.dii.utility.mongoUtility.createPartialIndex;
+
+/**
+ * Optional normalized copy of the bets of the slips, one document for each bet, indexed by (matchID, slipID).
+ * The slips stay the source of truth, the "bets" collection is written alongside them and is used by the
+ * match-lifecycle paths (settlement, postponement, cancellation) to find the slips of a match without
+ * searching inside the betsList arrays.
+ * The collection is enabled by creating it with rebuild() (see generationMainBetsCollection),
+ * every process notices it within a few minutes; if it doesn't exist, the old queries on the slips are used.
+ * A slip whose bets could not be written is marked with betsMissing, and is found with a query on the slips
+ * (partial index) until the next rebuild().
+ */
+public final class BetsCollection {
+    private static final String COLLECTION = "bets";
+    private static final String MISSING_FIELD = "betsMissing"; // Slips whose bets are not in the collection.
+    private static final long CHECK_PERIOD_MS = 5 * 60 * 1000L; // How often the existence of the collection is checked.
+
+    private static volatile boolean enabled = false;
+    private static volatile long checkedAt = 0;
+
+    private BetsCollection() {
+    }
+
+    /**
+     * @param db The database of the slips.
+     * @return True if the bets collection exists and must be kept aligned with the slips.
+     */
+    public static boolean isEnabled(MongoDatabase db) {
+        final long now = System.currentTimeMillis();
+        if (now - checkedAt > CHECK_PERIOD_MS) {
+            try {
+                enabled = db.listCollectionNames().into(new ArrayList<>()).contains(COLLECTION);
+                checkedAt = now;
+            } catch (Exception e) {
+                e.printStackTrace(); // The last known value is used.
+            }
+        }
+        return enabled;
+    }
+
+    /**
+     * Write the bets of a slip just inserted, if they can't be written the slip is marked with betsMissing.
+     *
+     * @return False if neither the bets nor the mark have been written: the slip would be lost by the settlement.
+     */
+    static boolean insertBetsOfSlip(MongoDatabase db, Slip slip) {
+        List<Document> bets = new ArrayList<>();
+        for (Bet b : slip.findBetsList()) {
+            bets.add(new Document("slipID", slip.getSlipID())
+                    .append("matchID", b.getMatchID())
+                    .append("username", slip.getUsername())
+                    .append("chosenMultiplierName", b.getChosenMultiplierName())
+                    .append("chosenMultipliervalue", b.getChosenMultiplierValue())
+                    .append("win", b.getWin())
+                    .append("matchDate", b.getMatchDate()));
+        }
+        if (!bets.isEmpty()) {
+            try {
+                db.getCollection(COLLECTION).insertMany(bets, new InsertManyOptions().ordered(false));
+            } catch (Exception e) {
+                e.printStackTrace();
+                try {
+                    // Some bets are missing: the slip is found among the slips until the next rebuild().
+                    db.getCollection("slips").updateOne(new Document("slipID", slip.getSlipID()),
+                            new Document("$set", new Document(MISSING_FIELD, true)));
+                } catch (Exception e2) {
+                    e2.printStackTrace();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param filter The filter on the bets.
+     * @return The IDs of the slips of the bets that respect the filter, in ascending order.
+     */
+    static List<Integer> findSlipIDs(MongoDatabase db, Document filter) {
+        Set<Integer> slipIDs = new HashSet<>();
+        for (Integer slipID : db.getCollection(COLLECTION)
+                .distinct("slipID", filter, Integer.class)) {
+            slipIDs.add(slipID);
+        }
+        // The slips whose bets are missing, the fields of the filter are the same of the bets of the slips.
+        for (Document d : db.getCollection("slips")
+                .find(new Document(MISSING_FIELD, true).append("betsList", new Document("$elemMatch", filter)))
+                .projection(new Document("_id", 0).append("slipID", 1))) {
+            slipIDs.add(d.getInteger("slipID"));
+        }
+        List<Integer> ret = new ArrayList<>(slipIDs);
+        ret.sort(Integer::compareTo);
+        return ret;
+    }
+
+    /**
+     * Mark as won or lost the non-evaluated bets on the match of a range of slips, like it has been done on the slips.
+     *
+     * @param chosenMultiplierName The filter on the name of the multiplier of the bets to mark.
+     */
+    static void markBets(MongoDatabase db, Integer matchID, int fromSlipID, int toSlipID,
+                         Document chosenMultiplierName, int win) {
+        db.getCollection(COLLECTION).updateMany(
+                new Document("matchID", matchID)
+                        .append("slipID", new Document("$gte", fromSlipID).append("$lte", toSlipID))
+                        .append("win", -1)
+                        .append("chosenMultiplierName", chosenMultiplierName),
+                new Document("$set", new Document("win", win))
+        );
+    }
+
+    static void updateMatchDate(MongoDatabase db, Integer matchID, String newDate) {
+        db.getCollection(COLLECTION).updateMany(
+                new Document("matchID", matchID),
+                new Document("$set", new Document("matchDate", newDate))
+        );
+    }
+
+    static void deleteBets(MongoDatabase db, Document filter) {
+        db.getCollection(COLLECTION).deleteMany(filter);
+    }
+
+    /**
+     * Build again the bets collection from all the slips, it must be run with the applications stopped.
+     * It also enables the collection, if it didn't exist.
+     *
+     * @return The number of bets written.
+     */
+    public static long rebuild(MongoDatabase db) {
+        db.getCollection("slips").aggregate(Arrays.asList(
+                new Document("$unwind", "$betsList"),
+                new Document("$project", new Document("_id", 0)
+                        .append("slipID", 1)
+                        .append("matchID", "$betsList.matchID")
+                        .append("username", 1)
+                        .append("chosenMultiplierName", "$betsList.chosenMultiplierName")
+                        .append("chosenMultipliervalue", "$betsList.chosenMultipliervalue")
+                        .append("win", "$betsList.win")
+                        .append("matchDate", "$betsList.matchDate")),
+                new Document("$out", COLLECTION)
+        )).toCollection();
+        createCompoundIndex(db, COLLECTION, new String[]{"matchID", "slipID"}, new Integer[]{1, 1});
+        // All the bets are written now.
+        createPartialIndex(db, "slips", new Document(MISSING_FIELD, 1), new Document(MISSING_FIELD, true));
+        db.getCollection("slips").updateMany(new Document(MISSING_FIELD, true),
+                new Document("$unset", new Document(MISSING_FIELD, "")));
+        checkedAt = 0;
+        return db.getCollection(COLLECTION).countDocuments();
+    }
+}
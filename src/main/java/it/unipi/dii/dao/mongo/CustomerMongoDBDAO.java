@@ -13,11 +13,8 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
-import static it.unipi.dii.utility.converters.jsonToObjectConverter.convertJsonToObject;
 import static it.unipi.dii.utility.mongoUtility.deleteDocuments;
 import static it.unipi.dii.utility.mongoUtility.insertDocuments;
-import static it.unipi.dii.utility.converters.objectToDocumentConverter.ObjectToDocumentConverter;
-import static it.unipi.dii.utility.converters.objectToJsonStringConverter.convertObjectToJsonString;
 import static it.unipi.dii.utility.generators.randomGeneration.truncateNumber;
 import static it.unipi.dii.utility.securityLibrary.CheckHash;
 import static java.lang.Math.abs;
@@ -34,9 +31,7 @@ public class CustomerMongoDBDAO extends BaseMongoDAO implements CustomerDAO {
             return false; // Info already present in the system.
         } else {
             user.setCredit(0);
-            List<Document> documents = new ArrayList<>();
-            documents.add(Document.parse(convertObjectToJsonString(user)));
-            insertDocuments(this.mongoDB.getCollection("customers"), documents);
+            insertDocuments(this.mongoDB.getCollection("customers", Customer.class), List.of(user));
             return true;
         }
     }
@@ -126,8 +121,8 @@ public class CustomerMongoDBDAO extends BaseMongoDAO implements CustomerDAO {
 
     @Override
     public void replaceCustomer(Document query, Customer newCustomer) {
-        MongoCollection<Document> match_coll = this.mongoDB.getCollection("customers");
-        match_coll.replaceOne(query, ObjectToDocumentConverter(newCustomer));
+        MongoCollection<Customer> match_coll = this.mongoDB.getCollection("customers", Customer.class);
+        match_coll.replaceOne(query, newCustomer);
         
     }
     /**
@@ -147,23 +142,19 @@ public class CustomerMongoDBDAO extends BaseMongoDAO implements CustomerDAO {
      */
     @Override
     public List<Customer> getCustomers(Document query, Document projection) {
-        MongoCollection<Document> customers_coll = this.mongoDB.getCollection("customers");
+        MongoCollection<Customer> customers_coll = this.mongoDB.getCollection("customers", Customer.class);
         List<Customer> s_list = new ArrayList<>();
 
         if(query == null){
-            try (MongoCursor<Document> cursor = customers_coll.find().projection(projection).iterator()) {
+            try (MongoCursor<Customer> cursor = customers_coll.find().projection(projection).iterator()) {
                 while (cursor.hasNext()) {
-                    Document document = cursor.next();
-                    Customer s = convertJsonToObject(document.toJson(), Customer.class);
-                    s_list.add(s);
+                    s_list.add(cursor.next());
                 }
             }
         }else {
-            try (MongoCursor<Document> cursor = customers_coll.find(query).projection(projection).iterator()) {
+            try (MongoCursor<Customer> cursor = customers_coll.find(query).projection(projection).iterator()) {
                 while (cursor.hasNext()) {
-                    Document document = cursor.next();
-                    Customer s = convertJsonToObject(document.toJson(), Customer.class);
-                    s_list.add(s);
+                    s_list.add(cursor.next());
                 }
             }
         }
@@ -1,28 +1,43 @@
 package it.unipi.dii.dao.mongo;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import it.unipi.dii.dao.MatchDAO;
 import it.unipi.dii.dao.base.BaseMongoDAO;
+import it.unipi.dii.dao.base.IdAllocator;
+import it.unipi.dii.dao.base.MatchSnapshot;
+import it.unipi.dii.dao.base.MatchStatusCache;
+import it.unipi.dii.dao.redis.MatchEventsRedisDAO;
 import it.unipi.dii.dao.redis.SlipRedisDAO;
+import it.unipi.dii.model.MarketOutcome;
 import it.unipi.dii.model.Match;
-import it.unipi.dii.model.Slip;
+import it.unipi.dii.utility.sportAPI;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWrapper;
+import org.bson.BsonInt32;
 import org.bson.Document;
 
 import java.io.IOException;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static it.unipi.dii.utility.dateTimes.*;
-import static it.unipi.dii.utility.converters.jsonToDocumentConverter.convertDocumentToJson;
-import static it.unipi.dii.utility.converters.jsonToObjectConverter.convertJsonToObject;
 import static it.unipi.dii.utility.mongoUtility.insertDocuments;
-import static it.unipi.dii.utility.converters.objectToJsonStringConverter.convertObjectToJsonString;
-import static it.unipi.dii.utility.sportAPI.getNewMatchesUpdates;
+import static it.unipi.dii.utility.sportAPI.getNewFixtures;
 
 
 public class MatchMongoDBDAO extends BaseMongoDAO implements MatchDAO {
+    private static final int MATCH_ID_BLOCK_SIZE = 10; // How many matchIDs are reserved with a single query.
+
     /**
      * Insert a new match in the database.
      *
@@ -32,14 +47,101 @@ public class MatchMongoDBDAO extends BaseMongoDAO implements MatchDAO {
     public void addMatch(Match match) {
         if (match.checkMatchValidity()) {
             match.cleanGoals(); // Cleaning some input fields.
-            match.setMatchID(this.getLastID() + 1);
-            MongoCollection<Document> match_coll = this.mongoDB.getCollection("matches");
-            List<Document> documents = new ArrayList<>();
-            documents.add(Document.parse(convertObjectToJsonString(match)));
-            insertDocuments(match_coll, documents);
+            final int matchID = IdAllocator.forSequence("matches", MATCH_ID_BLOCK_SIZE).nextId(this::getLastID);
+            if (matchID == -1) {
+                return;
+            }
+            match.setMatchID(matchID);
+            MongoCollection<Match> match_coll = this.mongoDB.getCollection("matches", Match.class);
+            insertDocuments(match_coll, List.of(match));
+        }
+    }
+
+    /**
+     * Insert the new TIMED matches of a poll with a single unordered bulkWrite of upserts on the natural key
+     * (matchDate, team_home, team_away), protected by a unique index: a match already present is not touched
+     * ($setOnInsert) and two processes inserting the same match can't create a duplicate.
+     * The matches already present are found first with a single query, so a matchID is reserved only for the
+     * missing ones (a match inserted meanwhile by another process leaves a gap). The matches of the list are
+     * not changed.
+     *
+     * @param ml The matches, only the valid TIMED ones are considered.
+     * @return The number of inserted matches.
+     */
+    public int upsertTimedMatches(List<Match> ml) {
+        List<Match> timed = new ArrayList<>();
+        List<Document> keys = new ArrayList<>();
+        for (Match match : ml) {
+            if (Objects.equals(match.getStatus(), "TIMED") && match.checkMatchValidity()) {
+                timed.add(match);
+                keys.add(naturalKey(match));
+            }
+        }
+        if (timed.isEmpty()) {
+            return 0;
+        }
+        Set<Document> present = new HashSet<>();
+        for (Document d : this.mongoDB.getCollection("matches")
+                .find(new Document("$or", keys))
+                .projection(new Document("_id", 0).append("matchDate", 1).append("team_home", 1).append("team_away", 1))) {
+            present.add(new Document("matchDate", d.getString("matchDate"))
+                    .append("team_home", d.getString("team_home"))
+                    .append("team_away", d.getString("team_away")));
+        }
+
+        List<WriteModel<Document>> upserts = new ArrayList<>();
+        IdAllocator ids = IdAllocator.forSequence("matches", MATCH_ID_BLOCK_SIZE);
+        for (Match match : timed) {
+            final Document key = naturalKey(match);
+            if (!present.add(key)) {
+                continue; // Already stored, or twice in the list.
+            }
+            final int matchID = ids.nextId(this::getLastID);
+            if (matchID == -1) {
+                return 0;
+            }
+            BsonDocument onInsert = BsonDocumentWrapper.asBsonDocument(match, this.mongoDB.getCodecRegistry()).clone();
+            onInsert.remove("_id");
+            onInsert.remove("matchDate"); // The fields of the key are taken from the filter.
+            onInsert.remove("team_home");
+            onInsert.remove("team_away");
+            onInsert.put("matchID", new BsonInt32(matchID));
+            // Cleaning some input fields, like Match.cleanGoals().
+            onInsert.put("home_goals", new BsonInt32(match.getHome_goals() == null ? 0 : match.getHome_goals()));
+            onInsert.put("away_goals", new BsonInt32(match.getAway_goals() == null ? 0 : match.getAway_goals()));
+            upserts.add(new UpdateOneModel<>(
+                    key,
+                    new Document("$setOnInsert", onInsert),
+                    new UpdateOptions().upsert(true)
+            ));
+        }
+        if (upserts.isEmpty()) {
+            return 0;
+        }
+        try {
+            return this.mongoDB.getCollection("matches")
+                    .bulkWrite(upserts, new BulkWriteOptions().ordered(false))
+                    .getUpserts().size();
+        } catch (MongoBulkWriteException e) {
+            // A duplicate key means that the match has just been inserted by another process.
+            for (BulkWriteError error : e.getWriteErrors()) {
+                if (error.getCode() != 11000) {
+                    System.out.println("Failed to insert a match: " + error.getMessage());
+                }
+            }
+            return e.getWriteResult().getUpserts().size();
         }
     }
 
+    /**
+     * @return The filter of the match on its natural key (matchDate, team_home, team_away).
+     */
+    private static Document naturalKey(Match match) {
+        return new Document("matchDate", match.getMatchDate())
+                .append("team_home", match.getTeam_home())
+                .append("team_away", match.getTeam_away());
+    }
+
     /**
      * Delete matches from the database depending on the query.
      *
@@ -80,10 +182,16 @@ public class MatchMongoDBDAO extends BaseMongoDAO implements MatchDAO {
                         .append("home_goals", home_goals)
                         .append("away_goals", away_goals)
         );
+        if (Objects.equals(status, "FINISHED")) {
+            // The outcome of all the markets of the match, the settlement of any bet is a bit test on it.
+            update.get("$set", Document.class).append("winningMask", MarketOutcome.winningMask(home_goals, away_goals));
+        }
         this.mongoDB.getCollection("matches").updateOne(filter, update);
     }
 
     /**
+     * Used only to align the matchID counter with the matches collection, new IDs are given by IdAllocator.
+     *
      * @return The biggest value of MatchID from MongoDB.
      */
 
@@ -168,56 +276,147 @@ public class MatchMongoDBDAO extends BaseMongoDAO implements MatchDAO {
 
     /**
      * Get new updates from the internet and update the matches in MongoDB.
+     * Only the fixtures that change the status or the score of their match are applied (see MatchSnapshot).
      */
     public void updateMatches() throws IOException {
-        this.updateMatches(getNewMatchesUpdates()); // Must be called every 60 seconds.
+        updateLeagues(sportAPI.getLeagues());
+    }
+
+    /**
+     * Get new updates of some leagues from the internet and update their matches in MongoDB.
+     *
+     * @param leagues The names of the leagues in the API.
+     */
+    public void updateLeagues(List<String> leagues) throws IOException {
+        MatchSnapshot snapshot = MatchSnapshot.getInstance();
+        List<sportAPI.fixture> transitions = snapshot.transitions(this.mongoDB, getNewFixtures(leagues));
+        List<Match> ml = new ArrayList<>();
+        for (sportAPI.fixture f : transitions) {
+            ml.add(f.getMatch());
+        }
+        final Map<Match, CompletableFuture<SettlementEngine.Report>> settlements = this.applyMatches(ml);
+
+        // The poll doesn't wait for the settlements: a finished match is committed by the snapshot only when its
+        // settlement is complete, until then neither the response of its league nor the watermark of its
+        // competition are committed. A failed settlement is emitted again by the next poll (or the first one after
+        // a restart) and resumed from the journal.
+        List<sportAPI.fixture> applied = new ArrayList<>();
+        Set<String> pendingCompetitions = new HashSet<>();
+        for (sportAPI.fixture f : transitions) {
+            CompletableFuture<SettlementEngine.Report> settlement = settlements.get(f.getMatch());
+            if (settlement == null) {
+                applied.add(f);
+                continue;
+            }
+            pendingCompetitions.add(f.getMatch().getCompetition_id());
+            snapshot.commitWhenDone(f, settlement.handle((report, e) -> {
+                if (e != null) {
+                    e.printStackTrace();
+                    return false;
+                }
+                return report == null || report.isComplete(); // Its partitions not DONE are resumed by the next settlement.
+            }));
+        }
+        List<String> committed = new ArrayList<>();
+        for (String league : leagues) {
+            final String competition = sportAPI.competitionOf(league);
+            if (!pendingCompetitions.contains(competition) && !snapshot.isSettling(competition)) {
+                committed.add(league);
+            }
+        }
+        snapshot.commit(this.mongoDB, applied, pendingCompetitions);
+        sportAPI.commitResponses(committed); // Applied: the next requests can be conditional.
+    }
+
+    /**
+     * For each competition, the instant from which its matches can change: the current instant if a match is
+     * IN_PLAY or PAUSED, otherwise the kick-off of its next TIMED match (a TIMED match kicked off less than
+     * 3 hours ago counts, since the API could be late to set it IN_PLAY).
+     *
+     * @return The instants, keyed by competition_id, the competitions without next matches are missing.
+     */
+    public Map<String, Instant> getNextActivity() {
+        final String now = getCurrentInstantString();
+        List<Document> pipeline = Arrays.asList(
+                new Document("$match",
+                        new Document("status", new Document("$in", Arrays.asList("IN_PLAY", "PAUSED", "TIMED")))
+                                .append("$or", Arrays.asList(
+                                        new Document("status", new Document("$ne", "TIMED")),
+                                        new Document("matchDate", new Document("$gte", getCurrentInstant().minusSeconds(3 * 60 * 60).toString()))
+                                ))),
+                new Document("$group",
+                        new Document("_id", "$competition_id")
+                                .append("nextActivity", new Document("$min",
+                                        new Document("$cond", Arrays.asList(
+                                                new Document("$eq", Arrays.asList("$status", "TIMED")),
+                                                "$matchDate",
+                                                now
+                                        )))))
+        );
+        Map<String, Instant> ret = new HashMap<>();
+        for (Document d : this.mongoDB.getCollection("matches").aggregate(pipeline)) {
+            if (d.getString("_id") != null && d.getString("nextActivity") != null) {
+                ret.put(d.getString("_id"), Instant.parse(d.getString("nextActivity")));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Given an update list, applies the list to the MongoDB match collection and waits for the settlements
+     * of the finished matches.
+     * @param ml The updates list.
+     * @return The FINISHED matches of the list whose settlement has not been completed, they must be applied again.
+     * @throws IOException Type of thrown exception.
+     */
+
+    public List<Match> updateMatches(List<Match> ml) throws IOException {
+        List<Match> unsettled = new ArrayList<>();
+        for (Map.Entry<Match, CompletableFuture<SettlementEngine.Report>> s : applyMatches(ml).entrySet()) {
+            try {
+                SettlementEngine.Report report = s.getValue().join();
+                if (report != null) {
+                    System.out.println(report);
+                    if (!report.isComplete()) {
+                        unsettled.add(s.getKey()); // Its partitions not DONE are resumed by the next settlement.
+                    }
+                }
+            } catch (CompletionException e) {
+                e.printStackTrace();
+                unsettled.add(s.getKey());
+            }
+        }
+        return unsettled;
     }
 
     /**
      * Given an update list, applies the list to the MongoDB match collection.
+     * The finished matches are settled in background, the method doesn't wait for their settlements.
      * @param ml The updates list.
+     * @return The settlements started, keyed by their FINISHED match of the list.
      * @throws IOException Type of thrown exception.
      */
 
-    public void updateMatches(List<Match> ml) throws IOException {
+    public Map<Match, CompletableFuture<SettlementEngine.Report>> applyMatches(List<Match> ml) throws IOException {
         final int size = ml.size();
+        // The settlements run in background, so they don't delay the updates of the other matches.
+        Map<Match, CompletableFuture<SettlementEngine.Report>> settlements = new LinkedHashMap<>();
         if (size > 0) {
             SlipMongoDBDAO sDAO = new SlipMongoDBDAO();
             sDAO.openConnection();
+            SlipRedisDAO slipRedisDAO = new SlipRedisDAO();
+            List<Document> events = new ArrayList<>(); // Published to the GUIs at the end of the update.
+
+            // All the new matches are inserted with a single round trip.
+            upsertTimedMatches(ml);
 
             for (int i = 0; i < size; i++) {
                 if (Objects.equals(ml.get(i).getStatus(), "TIMED")) {
-                    // The match must be inserted in MongoDB.
-                    if (matchAlreadyPresent(ml.get(i)) == -1) {
-                        // If the match is not already present in the database.
-                        addMatch(ml.get(i));
-                    }
+                    continue; // Already inserted, if it was not present.
                 } else if (Objects.equals(ml.get(i).getStatus(), "CANCELED")) {
                     //This match must be removed from all non-confirmed slips in Redis
-                    // Make the Redis query.
-                    SlipRedisDAO slipRedisDAO = new SlipRedisDAO();
-                    List<String> usernameList = slipRedisDAO.getAllUsernames(); // Taking all usernames from Redis.
-
-                    // Take in a big slip list all the slip of users in redis
-                    for (String username : usernameList) {
-                        List<Slip> slipList = slipRedisDAO.getListFromUser(username);
-                        for (Slip slip : slipList) {
-                            if (slip.getSlipID() != null) {
-                                // Check where match appears in the bet list of the slip.
-                                for (int j = 0; j < slip.findBetsList().size(); j++) {
-                                    if (Objects.equals(slip.findBetsList().get(j).getTeamAway(), ml.get(i).getTeam_away()) && Objects.equals(slip.findBetsList().get(j).getTeamHome(), ml.get(i).getTeam_home())) {
-                                        if (slip.findBetsList().size() > 1) {
-                                            slipRedisDAO.deleteBetFromSlip(username, slip.getSlipID(), slip.findBetsList().get(j));
-                                        } else {
-                                            // If it's the last one.
-                                            slipRedisDAO.delete_Slip(username, slip.getSlipID());
-                                        }
-
-                                    }
-                                }
-                            }
-                        }
-                    }
+                    // Only the carts that contain this match are touched.
+                    slipRedisDAO.removeMatchFromCarts(ml.get(i).getTeam_home(), ml.get(i).getTeam_away());
 
                     // The match must be canceled from MongoDB.
                     Integer id = matchAlreadyPresent(ml.get(i));
@@ -225,6 +424,7 @@ public class MatchMongoDBDAO extends BaseMongoDAO implements MatchDAO {
                         // There is a match with those information.
                         sDAO.removeAllBetsOfMatch(id); // And we must remove all bets of this match.
                         removeMatch(getAndCondition(ml.get(i), "date")); // And delete the match.
+                        events.add(MatchEventsRedisDAO.event(id, "CANCELED", null, null));
                     }
                 } else if (Objects.equals(ml.get(i).getStatus(), "POSTPONED")) {
                     // The match has been postponed.
@@ -235,32 +435,11 @@ public class MatchMongoDBDAO extends BaseMongoDAO implements MatchDAO {
                     final Integer index = nearestMatch(ml.get(i), mlist);
                     updateMatchDate(mlist.get(index).getMatchID(), ml.get(i).getMatchDate());
                     sDAO.updateBetsMatchPostponed(mlist.get(index).getMatchID(), ml.get(i).getMatchDate());
+                    events.add(MatchEventsRedisDAO.event(mlist.get(index).getMatchID(), "POSTPONED", null, null));
 
 
-                    // Make the Redis query.
-                    SlipRedisDAO slipRedisDAO = new SlipRedisDAO();
-                    List<String> usernameList = slipRedisDAO.getAllUsernames(); // Taking all usernames from Redis.
-
-                    // Take in a big slip list all the slip of users in redis
-                    for (String username : usernameList) {
-                        List<Slip> slipList = slipRedisDAO.getListFromUser(username);
-                        for (Slip slip : slipList) {
-                            if (slip.getSlipID() != null) {
-                                // Check where match appears in the bet list of the slip.
-                                for (int j = 0; j < slip.findBetsList().size(); j++) {
-                                    if (Objects.equals(slip.findBetsList().get(j).getTeamAway(), ml.get(i).getTeam_away()) && Objects.equals(slip.findBetsList().get(j).getTeamHome(), ml.get(i).getTeam_home())) {
-                                        if (slip.findBetsList().size() > 1) {
-                                            slipRedisDAO.deleteBetFromSlip(username, slip.getSlipID(), slip.findBetsList().get(j));
-                                        } else {
-                                            // If it's the last one.
-                                            slipRedisDAO.delete_Slip(username, slip.getSlipID());
-                                        }
-
-                                    }
-                                }
-                            }
-                        }
-                    }
+                    // Only the carts that contain this match are touched.
+                    slipRedisDAO.removeMatchFromCarts(ml.get(i).getTeam_home(), ml.get(i).getTeam_away());
 
 
                 } else if (Objects.equals(ml.get(i).getStatus(), "FINISHED")) {
@@ -268,7 +447,8 @@ public class MatchMongoDBDAO extends BaseMongoDAO implements MatchDAO {
                     final Integer id = getID(ml.get(i));
                     updateMatchStatusAndResult(id, "FINISHED", ml.get(i).getHome_goals(), ml.get(i).getAway_goals());
                     if (id >= 0) {
-                        sDAO.checkSlipsWhenMatchEnds(id);
+                        settlements.put(ml.get(i), SettlementEngine.settleMatchAsync(id));
+                        events.add(MatchEventsRedisDAO.event(id, "FINISHED", ml.get(i).getHome_goals(), ml.get(i).getAway_goals()));
                     }
                 } else if (Objects.equals(ml.get(i).getStatus(), "IN_PLAY") || Objects.equals(ml.get(i).getStatus(), "PAUSED")) {
                     // Update of the match In MongoDB, because the match is started, but is not finished yet
@@ -288,30 +468,8 @@ public class MatchMongoDBDAO extends BaseMongoDAO implements MatchDAO {
 
                             if (Objects.equals(m.getStatus(), "TIMED")) {
                                 // If it was timed I have to delete all non-confirmed slips in redis for consistency issues.
-                                // Make the Redis query.
-                                SlipRedisDAO slipRedisDAO = new SlipRedisDAO();
-                                List<String> usernameList = slipRedisDAO.getAllUsernames(); // Taking all usernames from Redis.
-
-                                // Take in a big slip list all the slip of users in redis
-                                for (String username : usernameList) {
-                                    List<Slip> slipList = slipRedisDAO.getListFromUser(username);
-                                    for (Slip slip : slipList) {
-                                        if (slip.getSlipID() != null) {
-                                            // Check where match appears in the bet list of the slip.
-                                            for (int j = 0; j < slip.findBetsList().size(); j++) {
-                                                if (Objects.equals(slip.findBetsList().get(j).getTeamAway(), ml.get(i).getTeam_away()) && Objects.equals(slip.findBetsList().get(j).getTeamHome(), ml.get(i).getTeam_home())) {
-                                                    if (slip.findBetsList().size() > 1) {
-                                                        slipRedisDAO.deleteBetFromSlip(username, slip.getSlipID(), slip.findBetsList().get(j));
-                                                    } else {
-                                                        // If it's the last one.
-                                                        slipRedisDAO.delete_Slip(username, slip.getSlipID());
-                                                    }
-
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
+                                // Only the carts that contain this match are touched.
+                                slipRedisDAO.removeMatchFromCarts(ml.get(i).getTeam_home(), ml.get(i).getTeam_away());
 
                             }
 
@@ -321,10 +479,20 @@ public class MatchMongoDBDAO extends BaseMongoDAO implements MatchDAO {
 
                     final Integer id = getID(ml.get(i));
                     updateMatchStatusAndResult(id, ml.get(i).getStatus(), ml.get(i).getHome_goals(), ml.get(i).getAway_goals());
+                    if (id >= 0) {
+                        events.add(MatchEventsRedisDAO.event(id, ml.get(i).getStatus(), ml.get(i).getHome_goals(), ml.get(i).getAway_goals()));
+                    }
                 }
             }
             sDAO.closeConnection();
+            try {
+                new MatchEventsRedisDAO().publish(events);
+            } catch (Exception e) {
+                e.printStackTrace(); // The GUIs will show the changes at their next rebuild.
+            }
+            MatchStatusCache.getInstance().refresh(this.mongoDB); // The statuses in the cache follow the updates.
         }
+        return settlements;
     }
 
     /**
@@ -389,12 +557,11 @@ public class MatchMongoDBDAO extends BaseMongoDAO implements MatchDAO {
 
     @Override
     public List<Match> getMatches(Document query, Document projection) {
-        MongoCollection<Document> match_coll = this.mongoDB.getCollection("matches");
+        MongoCollection<Match> match_coll = this.mongoDB.getCollection("matches", Match.class);
         List<Match> s_list = new ArrayList<>();
-        try (MongoCursor<Document> cursor = match_coll.find(query).projection(projection).iterator()) {
+        try (MongoCursor<Match> cursor = match_coll.find(query).projection(projection).iterator()) {
             while (cursor.hasNext()) {
-                Document document = cursor.next();
-                s_list.add(convertJsonToObject(convertDocumentToJson(document), Match.class));
+                s_list.add(cursor.next()); // Decoded straight from BSON.
             }
         }
         return s_list;
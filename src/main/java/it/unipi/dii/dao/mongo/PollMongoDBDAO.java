@@ -5,6 +5,7 @@ import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import it.unipi.dii.dao.PollDAO;
 import it.unipi.dii.dao.base.BaseMongoDAO;
+import it.unipi.dii.dao.base.IdAllocator;
 import it.unipi.dii.model.Poll;
 import it.unipi.dii.model.pollOption;
 import org.bson.Document;
@@ -15,30 +16,30 @@ import java.util.List;
 import java.util.Objects;
 
 import static it.unipi.dii.utility.dateTimes.getCurrentDate;
-import static it.unipi.dii.utility.converters.jsonToObjectConverter.convertJsonToObject;
 import static it.unipi.dii.utility.mongoUtility.deleteDocuments;
 import static it.unipi.dii.utility.mongoUtility.insertDocuments;
-import static it.unipi.dii.utility.converters.objectToDocumentConverter.ObjectToDocumentConverter;
-import static it.unipi.dii.utility.converters.objectToJsonStringConverter.convertObjectToJsonString;
 
 public class PollMongoDBDAO extends BaseMongoDAO implements PollDAO {
+    private static final int POLL_ID_BLOCK_SIZE = 1; // Polls are rare, no need to reserve more IDs.
+
     /**
      * Add a new poll in the database.
      * @param poll The poll to add.
      */
     @Override
     public void addPoll(Poll poll) {
-        poll.setPollID(this.getLastID() + 1);
-        String jsonString = convertObjectToJsonString(poll);
-        MongoCollection<Document> poll_coll = this.mongoDB.getCollection("polls");
-
-        List<Document> documents = new ArrayList<>();
-        documents.add(Document.parse(jsonString));
-        insertDocuments(poll_coll , documents);
+        final int pollID = IdAllocator.forSequence("polls", POLL_ID_BLOCK_SIZE).nextId(this::getLastID);
+        if (pollID == -1) {
+            return;
+        }
+        poll.setPollID(pollID);
+        MongoCollection<Poll> poll_coll = this.mongoDB.getCollection("polls", Poll.class);
+        insertDocuments(poll_coll , List.of(poll));
         
     }
 
     /**
+     * Used only to align the pollID counter with the polls collection, new IDs are given by IdAllocator.
      *
      * @return The biggest value of pollID from MongoDB.
      */
@@ -69,8 +70,8 @@ public class PollMongoDBDAO extends BaseMongoDAO implements PollDAO {
      */
     @Override
     public Integer replacePoll(Document query ,Poll newPoll) {
-        MongoCollection<Document> poll_coll = this.mongoDB.getCollection("polls");
-        poll_coll.replaceOne( query, ObjectToDocumentConverter(newPoll));
+        MongoCollection<Poll> poll_coll = this.mongoDB.getCollection("polls", Poll.class);
+        poll_coll.replaceOne( query, newPoll);
         
         return newPoll.getPollID();
     }
@@ -113,13 +114,11 @@ public class PollMongoDBDAO extends BaseMongoDAO implements PollDAO {
 
     @Override
     public List<Poll> getPolls(Document query, Document projection) {
-        MongoCollection<Document> poll_coll = this.mongoDB.getCollection("polls");
+        MongoCollection<Poll> poll_coll = this.mongoDB.getCollection("polls", Poll.class);
         List<Poll> s_list = new ArrayList<>();
-        try (MongoCursor<Document> cursor = poll_coll.find(query).projection(projection).iterator()) {
+        try (MongoCursor<Poll> cursor = poll_coll.find(query).projection(projection).iterator()) {
             while (cursor.hasNext()) {
-                Document document = cursor.next();
-                Poll s = convertJsonToObject(document.toJson() , Poll.class);
-                s_list.add(s);
+                s_list.add(cursor.next());
             }
         }
         
@@ -0,0 +1,739 @@
+package it.unipi.dii.dao.mongo;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.UpdateResult;
+import it.unipi.dii.dao.base.BaseMongoDAO;
+import it.unipi.dii.dao.redis.LiveStatsRedisDAO;
+import it.unipi.dii.model.MarketOutcome;
+import it.unipi.dii.model.Match;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static it.unipi.dii.utility.dateTimes.getCurrentInstantString;
+import static it.unipi.dii.utility.generators.randomGeneration.truncateNumber;
+
+/**
+ * Settlement of the slips when a match ends, done on the server side with a constant number of round trips.
+ * The slips with a bet on the match are split by slipID range into partitions, settled in parallel by a pool of workers:
+ * <ol>
+ *     <li>The outcome of every market of the match is evaluated once, as the winning mask of its score.</li>
+ *     <li>The partitions are read from (or planned and written to) the "settlements" journal, keyed by matchID and partition.</li>
+ *     <li>The bets of a partition are marked as won or lost with a pipeline updateMany, that also keeps the
+ *     settlement state of the slips (openLegs, runningMultiplier, lost) from the legs marked: a lost leg closes the slip at once.</li>
+ *     <li>The slips with no more open legs are closed (win, amount) from their running multiplier, without reading their bets.</li>
+ *     <li>The winning slips are claimed by the partition and the winners are credited with one unordered bulkWrite of $inc.</li>
+ * </ol>
+ * The slips closed by the settlement get settledAt, so their analytics buckets are computed again,
+ * and the payouts are subtracted from the live analytics in Redis (LiveStatsRedisDAO).
+ * Only the bets still not evaluated (win = -1) are touched and a partition marked as DONE in the journal is skipped,
+ * so a rerun after a crash completes the settlement without crediting any payout twice.
+ * The partitions left not DONE by a failure are resumed by resumeMatch(), or by resumePending() for all the matches.
+ * The payments after the cancellation of a match are journaled in the same way (closeAfterCancellation()).
+ */
+public class SettlementEngine extends BaseMongoDAO {
+    private static final int MAX_AMOUNT = 3000; // Same cap of Slip.setAmount().
+    private static final int PARTITIONS = Runtime.getRuntime().availableProcessors();
+    private static final int MIN_SLIPS_PER_PARTITION = 500;
+    private static final String CANCELLATION = "cancellation"; // Type of the journal entries of the canceled matches.
+
+    private static final ExecutorService WORKERS = Executors.newFixedThreadPool(PARTITIONS, daemon("settlement-worker"));
+    private static final ExecutorService COORDINATOR = Executors.newSingleThreadExecutor(daemon("settlement-coordinator"));
+
+    /**
+     * Result of the settlement of a match.
+     */
+    public static class Report {
+        private final Integer matchID;
+        private int partitions = 0;
+        private int slipsSettled = 0;
+        private long slipsWithBetWon = 0;
+        private long slipsWithBetLost = 0;
+        private int winningSlips = 0;
+        private int customersCredited = 0;
+        private double creditedAmount = 0;
+        private int failedPartitions = 0;
+        private long elapsedNanos = 0;
+
+        public Report(Integer matchID) {
+            this.matchID = matchID;
+        }
+
+        public Integer getMatchID() {
+            return this.matchID;
+        }
+
+        public int getPartitions() {
+            return this.partitions;
+        }
+
+        public int getSlipsSettled() {
+            return this.slipsSettled;
+        }
+
+        public long getSlipsWithBetWon() {
+            return this.slipsWithBetWon;
+        }
+
+        public long getSlipsWithBetLost() {
+            return this.slipsWithBetLost;
+        }
+
+        public int getWinningSlips() {
+            return this.winningSlips;
+        }
+
+        public int getCustomersCredited() {
+            return this.customersCredited;
+        }
+
+        public double getCreditedAmount() {
+            return this.creditedAmount;
+        }
+
+        public int getFailedPartitions() {
+            return this.failedPartitions;
+        }
+
+        /**
+         * @return True if all the partitions of the match have been settled, false if some of them must be settled again.
+         */
+        public boolean isComplete() {
+            return this.failedPartitions == 0;
+        }
+
+        public double getElapsedMillis() {
+            return this.elapsedNanos / 1_000_000.0;
+        }
+
+        public double getSlipsPerSecond() {
+            return this.elapsedNanos == 0 ? 0 : this.slipsSettled / (this.elapsedNanos / 1_000_000_000.0);
+        }
+
+        private void add(Report other) {
+            this.partitions += other.partitions;
+            this.slipsSettled += other.slipsSettled;
+            this.slipsWithBetWon += other.slipsWithBetWon;
+            this.slipsWithBetLost += other.slipsWithBetLost;
+            this.winningSlips += other.winningSlips;
+            this.customersCredited += other.customersCredited;
+            this.creditedAmount += other.creditedAmount;
+            this.failedPartitions += other.failedPartitions;
+        }
+
+        @Override
+        public String toString() {
+            return "Settlement{" +
+                    "matchID=" + this.matchID +
+                    ", partitions=" + this.partitions +
+                    ", slipsSettled=" + this.slipsSettled +
+                    ", slipsWithBetWon=" + this.slipsWithBetWon +
+                    ", slipsWithBetLost=" + this.slipsWithBetLost +
+                    ", winningSlips=" + this.winningSlips +
+                    ", customersCredited=" + this.customersCredited +
+                    ", creditedAmount=" + truncateNumber(this.creditedAmount, 2) +
+                    ", failedPartitions=" + this.failedPartitions +
+                    ", elapsedMillis=" + getElapsedMillis() +
+                    ", slipsPerSecond=" + (long) getSlipsPerSecond() +
+                    '}';
+        }
+    }
+
+    /**
+     * Settle all the slips with a bet on the finished match, the partitions of the slips are settled in parallel.
+     *
+     * @param matchID The finished match, its result must be already stored in MongoDB.
+     * @return The report of the settlement, null if the match doesn't exist.
+     * The settlement is not complete if a partition has failed (Report.isComplete()): it stays in the journal,
+     * not DONE, and it must be settled again.
+     */
+    public Report settleMatch(Integer matchID) {
+        return settle(matchID, true);
+    }
+
+    /**
+     * Resume the settlement of a match from the journal: only its partitions not DONE are settled again,
+     * no new partition is planned.
+     *
+     * @param matchID The match, its result must be already stored in MongoDB.
+     * @return The report of the partitions resumed, null if the match doesn't exist.
+     */
+    public Report resumeMatch(Integer matchID) {
+        return settle(matchID, false);
+    }
+
+    /**
+     * Resume the settlements of all the matches with a partition not DONE in the journal,
+     * so the recovery of a failed settlement doesn't depend on the ingestion applying its match again,
+     * and the payments of the cancellations not DONE (closeAfterCancellation()).
+     * The customers are also released from the tokens of the partitions DONE (see creditCustomers()).
+     *
+     * @return The reports of the resumed matches.
+     */
+    public List<Report> resumePending() {
+        MongoCollection<Document> journal = this.mongoDB.getCollection("settlements");
+        List<Report> reports = new ArrayList<>();
+        for (Integer matchID : journal.distinct("matchID", partitionsOf(null).append("state", new Document("$ne", "DONE")), Integer.class)) {
+            try {
+                Report report = resumeMatch(matchID);
+                if (report != null) {
+                    reports.add(report);
+                }
+            } catch (Exception e) {
+                e.printStackTrace(); // The other matches are resumed, this one at the next sweep.
+            }
+        }
+        for (Document cancellation : journal.find(new Document("type", CANCELLATION).append("state", new Document("$ne", "DONE")))) {
+            try {
+                Report report = closeCanceled(cancellation);
+                if (report != null) {
+                    reports.add(report);
+                }
+            } catch (Exception e) {
+                e.printStackTrace(); // Resumed at the next sweep.
+            }
+        }
+        for (Document d : journal.find(new Document("state", "DONE").append("released", new Document("$ne", true)))
+                .projection(new Document("_id", 1))) {
+            releaseCustomers(d.getString("_id"));
+        }
+        return reports;
+    }
+
+    /**
+     * Resume in background the settlements of resumePending(), one at a time with the other settlements.
+     */
+    public static CompletableFuture<List<Report>> resumePendingAsync() {
+        return CompletableFuture.supplyAsync(() -> {
+            SettlementEngine engine = new SettlementEngine();
+            engine.openConnection();
+            try {
+                return engine.resumePending();
+            } finally {
+                engine.closeConnection();
+            }
+        }, COORDINATOR);
+    }
+
+    /**
+     * @param plan True to plan the slips to settle not covered by the journal, false to resume only the journal.
+     */
+    private Report settle(Integer matchID, boolean plan) {
+        final long start = System.nanoTime();
+        Match match = this.mongoDB.getCollection("matches", Match.class)
+                .find(new Document("matchID", matchID))
+                .first(); // The match is read only once.
+        if (match == null) {
+            return null;
+        }
+        Report report = new Report(matchID);
+
+        // Outcome of every market of the match.
+        final int winningMask = match.computeWinningMask();
+        List<String> winning = new ArrayList<>();
+        for (MarketOutcome m : MarketOutcome.values()) {
+            if (m.wins(winningMask)) {
+                winning.add(m.getCaption());
+            }
+        }
+
+        List<Future<Report>> partitions = new ArrayList<>();
+        for (Document partition : plan ? planPartitions(matchID) : journaledPartitions(matchID)) {
+            partitions.add(WORKERS.submit(() -> settlePartition(matchID, winning, partition)));
+        }
+        for (Future<Report> f : partitions) {
+            try {
+                report.add(f.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                e.printStackTrace();
+                report.failedPartitions++;
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+                report.failedPartitions++; // Not DONE in the journal, the caller must settle the match again.
+            }
+        }
+
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    /**
+     * Settle the finished match in background, the settlements of the matches are executed one at a time.
+     *
+     * @param matchID The finished match, its result must be already stored in MongoDB.
+     * @return The report of the settlement, null if the match doesn't exist; it completes exceptionally
+     * if the settlement could not be planned, and it is not complete (Report.isComplete()) if a partition has failed.
+     */
+    public static CompletableFuture<Report> settleMatchAsync(Integer matchID) {
+        return CompletableFuture.supplyAsync(() -> {
+            SettlementEngine engine = new SettlementEngine();
+            engine.openConnection();
+            try {
+                return engine.settleMatch(matchID);
+            } finally {
+                engine.closeConnection();
+            }
+        }, COORDINATOR);
+    }
+
+    /**
+     * Read the partitions of the match from the journal, the slips with a bet to settle that are not covered
+     * by any partition (e.g. at the first run) are split by slipID range into new partitions.
+     *
+     * @return The partitions not settled yet.
+     */
+    private List<Document> planPartitions(Integer matchID) {
+        MongoCollection<Document> journal = this.mongoDB.getCollection("settlements");
+        final List<Document> planned = journal.find(partitionsOf(matchID)).into(new ArrayList<>());
+
+        // The slips with a non-evaluated bet on the match, in slipID order.
+        List<Integer> pending = new ArrayList<>();
+        if (BetsCollection.isEnabled(this.mongoDB)) {
+            pending = BetsCollection.findSlipIDs(this.mongoDB, pendingBet(matchID));
+        } else {
+            for (Document d : this.mongoDB.getCollection("slips")
+                    .find(new Document("betsList", new Document("$elemMatch", pendingBet(matchID))))
+                    .projection(new Document("_id", 0).append("slipID", 1))
+                    .sort(new Document("slipID", 1))) {
+                pending.add(d.getInteger("slipID"));
+            }
+        }
+        List<Integer> uncovered = new ArrayList<>();
+        for (Integer slipID : pending) {
+            if (planned.stream().noneMatch(p -> p.getInteger("fromSlipID") <= slipID && slipID <= p.getInteger("toSlipID"))) {
+                uncovered.add(slipID);
+            }
+        }
+
+        if (!uncovered.isEmpty()) {
+            final int count = Math.max(1, Math.min(PARTITIONS, uncovered.size() / MIN_SLIPS_PER_PARTITION));
+            final int size = (uncovered.size() + count - 1) / count;
+            List<Document> created = new ArrayList<>();
+            for (int i = 0; i * size < uncovered.size(); i++) {
+                final int partition = planned.size() + i;
+                created.add(new Document("_id", matchID + ":" + partition)
+                        .append("matchID", matchID)
+                        .append("partition", partition)
+                        .append("fromSlipID", uncovered.get(i * size))
+                        .append("toSlipID", uncovered.get(Math.min(uncovered.size(), (i + 1) * size) - 1))
+                        .append("state", "PENDING")
+                        .append("createdAt", getCurrentInstantString()));
+            }
+            try {
+                journal.insertMany(created, new InsertManyOptions().ordered(false));
+            } catch (MongoBulkWriteException e) {
+                // Another run has planned the same partitions, its plan is used.
+            }
+            planned.clear();
+            journal.find(partitionsOf(matchID)).into(planned);
+        }
+
+        planned.removeIf(p -> Objects.equals(p.getString("state"), "DONE"));
+        return planned;
+    }
+
+    /**
+     * @return The partitions of the match in the journal not settled yet.
+     */
+    private List<Document> journaledPartitions(Integer matchID) {
+        return this.mongoDB.getCollection("settlements")
+                .find(partitionsOf(matchID).append("state", new Document("$ne", "DONE")))
+                .into(new ArrayList<>());
+    }
+
+    /**
+     * @param matchID The match, null for all the matches.
+     * @return The filter of the partitions in the journal, without the entries of the cancellations.
+     */
+    private static Document partitionsOf(Integer matchID) {
+        Document filter = new Document("type", new Document("$exists", false));
+        return matchID == null ? filter : filter.append("matchID", matchID);
+    }
+
+    /**
+     * Settle the slips of a partition. Every step can be repeated after a crash:
+     * only the non-evaluated bets are marked, a winning slip is claimed by a single partition (paidBy),
+     * and a customer is credited at most once for each partition (creditedSettlements, until the partition is DONE).
+     */
+    private Report settlePartition(Integer matchID, List<String> winning, Document partition) {
+        final String token = partition.getString("_id");
+        Report report = new Report(matchID);
+        report.partitions = 1;
+        MongoCollection<Document> slips = this.mongoDB.getCollection("slips");
+        MongoCollection<Document> journal = this.mongoDB.getCollection("settlements");
+
+        report.slipsSettled = (int) slips.countDocuments(rangeFilter(partition)
+                .append("betsList", new Document("$elemMatch", pendingBet(matchID))));
+
+        // Close the legs of the slips with the settlement state, then the slips with no more open legs.
+        final long[] legs = closeLegs(slips, stateFilter(partition, true), matchID, winning);
+        report.slipsWithBetLost = legs[0];
+        report.slipsWithBetWon = legs[1];
+        closeSlips(slips, rangeFilter(partition));
+
+        // The slips stored before the settlement state are recomputed from all their bets.
+        report.slipsWithBetWon += markBets(slips, stateFilter(partition, false), matchID, new Document("$in", winning), 1);
+        report.slipsWithBetLost += markBets(slips, stateFilter(partition, false), matchID, new Document("$nin", winning), 0);
+        updateSlipsState(slips, stateFilter(partition, false).append("betsList.matchID", matchID));
+        if (BetsCollection.isEnabled(this.mongoDB)) {
+            // The same outcomes on the bets collection.
+            BetsCollection.markBets(this.mongoDB, matchID, partition.getInteger("fromSlipID"),
+                    partition.getInteger("toSlipID"), new Document("$in", winning), 1);
+            BetsCollection.markBets(this.mongoDB, matchID, partition.getInteger("fromSlipID"),
+                    partition.getInteger("toSlipID"), new Document("$nin", winning), 0);
+        }
+
+        // Claim the winning slips not paid yet, then credit the winners.
+        slips.updateMany(
+                rangeFilter(partition)
+                        .append("betsList.matchID", matchID)
+                        .append("win", 1)
+                        .append("paidBy", new Document("$exists", false)),
+                new Document("$set", new Document("paidBy", token))
+        );
+        Map<String, Double> credits = new HashMap<>();
+        Map<String, Double> payouts = new HashMap<>(); // For each confirmation hour.
+        List<Document> journalCredits = new ArrayList<>();
+        readClaimed(slips, rangeFilter(partition).append("paidBy", token), credits, payouts, report);
+        credits.forEach((username, amount) -> journalCredits.add(new Document("username", username).append("amount", amount)));
+        if (!Objects.equals(partition.getString("state"), "CREDITING")) {
+            // Payouts out of the live analytics, only the first time the partition gets here.
+            new LiveStatsRedisDAO().recordPayouts(payouts);
+        }
+        journal.updateOne(new Document("_id", token), new Document("$set", new Document("state", "CREDITING")
+                .append("credits", journalCredits)));
+        creditCustomers(credits, token, report);
+
+        journal.updateOne(new Document("_id", token), new Document("$set", new Document("state", "DONE")
+                .append("completedAt", getCurrentInstantString())
+                .append("slipsSettled", report.slipsSettled)
+                .append("winningSlips", report.winningSlips)
+                .append("creditedAmount", truncateNumber(report.creditedAmount, 2))));
+        releaseCustomers(token);
+        return report;
+    }
+
+    /**
+     * Journal the cancellation of a match before its bets are removed from the slips,
+     * so the payments of closeAfterCancellation() can be finished by resumePending() after a crash.
+     *
+     * @param matchID The canceled match.
+     * @param slipIDs The slips that have an open leg on the match.
+     */
+    public void journalCancellation(Integer matchID, List<Integer> slipIDs) {
+        this.mongoDB.getCollection("settlements").updateOne(
+                new Document("_id", matchID + ":canceled"),
+                new Document("$setOnInsert", new Document("matchID", matchID)
+                        .append("type", CANCELLATION)
+                        .append("state", "PENDING")
+                        .append("createdAt", getCurrentInstantString()))
+                        .append("$addToSet", new Document("slipIDs", new Document("$each", slipIDs))),
+                new UpdateOptions().upsert(true)
+        );
+    }
+
+    /**
+     * Close the slips of a canceled match left without open legs by the removal of its bets, and pay the winning ones.
+     * The customers are credited once for each canceled match (token "matchID:canceled"), the steps are journaled
+     * like the ones of a partition (PENDING, CREDITING with the credits, DONE).
+     *
+     * @param matchID The canceled match, journaled by journalCancellation().
+     * @return The report of the payments, null if the cancellation is not journaled.
+     */
+    public Report closeAfterCancellation(Integer matchID) {
+        Document cancellation = this.mongoDB.getCollection("settlements")
+                .find(new Document("_id", matchID + ":canceled"))
+                .first();
+        return cancellation == null ? null : closeCanceled(cancellation);
+    }
+
+    /**
+     * @return The report of the payments, null if the bets of the match are still on the slips
+     * (the cancellation will be applied again).
+     */
+    private Report closeCanceled(Document cancellation) {
+        final String token = cancellation.getString("_id");
+        final Integer matchID = cancellation.getInteger("matchID");
+        Report report = new Report(matchID);
+        if (Objects.equals(cancellation.getString("state"), "DONE")) {
+            return report; // The cancellation is not repeated.
+        }
+        MongoCollection<Document> slips = this.mongoDB.getCollection("slips");
+        MongoCollection<Document> journal = this.mongoDB.getCollection("settlements");
+        Document filter = new Document("slipID", new Document("$in", cancellation.getList("slipIDs", Integer.class)));
+        if (slips.countDocuments(new Document(filter).append("betsList.matchID", matchID)) > 0) {
+            return null; // Crashed before the removal of the bets.
+        }
+
+        closeSlips(slips, new Document(filter).append("betsList.0", new Document("$exists", true)));
+        slips.updateMany(
+                new Document(filter).append("win", 1).append("paidBy", new Document("$exists", false)),
+                new Document("$set", new Document("paidBy", token))
+        );
+        Map<String, Double> credits = new HashMap<>();
+        Map<String, Double> payouts = new HashMap<>();
+        List<Document> journalCredits = new ArrayList<>();
+        readClaimed(slips, new Document(filter).append("paidBy", token), credits, payouts, report);
+        credits.forEach((username, amount) -> journalCredits.add(new Document("username", username).append("amount", amount)));
+        if (!Objects.equals(cancellation.getString("state"), "CREDITING")) {
+            new LiveStatsRedisDAO().recordPayouts(payouts);
+        }
+        journal.updateOne(new Document("_id", token), new Document("$set", new Document("state", "CREDITING")
+                .append("credits", journalCredits)));
+        creditCustomers(credits, token, report);
+
+        journal.updateOne(new Document("_id", token), new Document("$set", new Document("state", "DONE")
+                .append("completedAt", getCurrentInstantString())
+                .append("winningSlips", report.winningSlips)
+                .append("creditedAmount", truncateNumber(report.creditedAmount, 2))));
+        releaseCustomers(token);
+        return report;
+    }
+
+    /**
+     * Read the amounts of the winning slips claimed by a settlement.
+     *
+     * @param credits The amounts for each customer.
+     * @param payouts The amounts for each confirmation hour.
+     */
+    private static void readClaimed(MongoCollection<Document> slips, Document filter, Map<String, Double> credits,
+                                    Map<String, Double> payouts, Report report) {
+        for (Document d : slips.find(filter)
+                .projection(new Document("_id", 0).append("username", 1).append("amount", 1).append("confirmationDate", 1))) {
+            final double amount = d.get("amount", Number.class).doubleValue();
+            credits.merge(d.getString("username"), amount, Double::sum);
+            if (d.getString("confirmationDate") != null) {
+                payouts.merge(d.getString("confirmationDate").substring(0, 13), amount, Double::sum);
+            }
+            report.winningSlips++;
+        }
+    }
+
+    /**
+     * @return The number of slips with at least one bet marked.
+     */
+    private static long markBets(MongoCollection<Document> slips, Document filter, Integer matchID,
+                                 Document chosenMultiplierName, int win) {
+        Document betFilter = new Document("matchID", matchID)
+                .append("win", -1)
+                .append("chosenMultiplierName", chosenMultiplierName);
+        UpdateResult r = slips.updateMany(
+                filter.append("betsList", new Document("$elemMatch", betFilter)),
+                new Document("$set", new Document("betsList.$[b].win", win)),
+                new UpdateOptions().arrayFilters(List.of(
+                        new Document("b.matchID", matchID)
+                                .append("b.win", -1)
+                                .append("b.chosenMultiplierName", chosenMultiplierName)
+                ))
+        );
+        return r.getModifiedCount();
+    }
+
+    /**
+     * Mark the open legs of the slips on the match with a single pipeline update, computed from the legs actually
+     * marked (a slip can have more legs on the same match): openLegs is decreased by their number, the running
+     * multiplier is multiplied by the multipliers of the won ones, and a lost leg makes the slip lost at once.
+     *
+     * @return The number of slips with a leg lost and the number of slips with a leg won.
+     */
+    private static long[] closeLegs(MongoCollection<Document> slips, Document filter, Integer matchID, List<String> winning) {
+        final long[] counts = new long[]{
+                slips.countDocuments(new Document(filter).append("betsList", new Document("$elemMatch",
+                        pendingBet(matchID).append("chosenMultiplierName", new Document("$nin", winning))))),
+                slips.countDocuments(new Document(filter).append("betsList", new Document("$elemMatch",
+                        pendingBet(matchID).append("chosenMultiplierName", new Document("$in", winning)))))
+        };
+        if (counts[0] + counts[1] == 0) {
+            return counts;
+        }
+
+        Document pending = new Document("$and", Arrays.asList(
+                new Document("$eq", Arrays.asList("$$this.matchID", matchID)),
+                new Document("$eq", Arrays.asList("$$this.win", -1))));
+        Document isWon = new Document("$in", Arrays.asList("$$this.chosenMultiplierName", winning));
+        Document anyLost = new Document("$gt", Arrays.asList(new Document("$size", "$_lostLegs"), 0));
+        List<Document> pipeline = Arrays.asList(
+                new Document("$set", new Document()
+                        .append("_wonLegs", new Document("$filter", new Document("input", "$betsList")
+                                .append("cond", new Document("$and", Arrays.asList(pending, isWon)))))
+                        .append("_lostLegs", new Document("$filter", new Document("input", "$betsList")
+                                .append("cond", new Document("$and", Arrays.asList(pending, new Document("$not", List.of(isWon)))))))),
+                new Document("$set", new Document()
+                        .append("betsList", new Document("$map", new Document("input", "$betsList")
+                                .append("in", new Document("$cond", Arrays.asList(pending,
+                                        new Document("$mergeObjects", Arrays.asList("$$this",
+                                                new Document("win", new Document("$cond", Arrays.asList(isWon, 1, 0))))),
+                                        "$$this")))))
+                        .append("openLegs", new Document("$subtract", Arrays.asList("$openLegs",
+                                new Document("$add", Arrays.asList(new Document("$size", "$_wonLegs"), new Document("$size", "$_lostLegs"))))))
+                        .append("runningMultiplier", new Document("$multiply", Arrays.asList("$runningMultiplier",
+                                new Document("$reduce", new Document("input", "$_wonLegs")
+                                        .append("initialValue", 1.0)
+                                        .append("in", new Document("$multiply", Arrays.asList("$$value", "$$this.chosenMultipliervalue")))))))
+                        .append("lost", new Document("$or", Arrays.asList("$lost", anyLost)))
+                        .append("win", new Document("$cond", Arrays.asList(anyLost, 0, "$win")))
+                        .append("amount", new Document("$cond", Arrays.asList(anyLost, 0.0, "$amount")))
+                        .append("settledAt", new Document("$cond", Arrays.asList(anyLost, getCurrentInstantString(), "$settledAt")))),
+                new Document("$unset", Arrays.asList("_wonLegs", "_lostLegs"))
+        );
+        slips.updateMany(filter.append("betsList", new Document("$elemMatch", pendingBet(matchID))), pipeline);
+        return counts;
+    }
+
+    /**
+     * Close as won the open slips with no more open legs, the amount is betAmount times the running multiplier,
+     * truncated and capped like in SlipMongoDBDAO.checkIfSlipWin().
+     */
+    private static void closeSlips(MongoCollection<Document> slips, Document filter) {
+        slips.updateMany(
+                filter.append("lost", false).append("win", -1).append("openLegs", 0),
+                List.of(new Document("$set", new Document("win", 1)
+                        .append("settledAt", getCurrentInstantString())
+                        .append("amount", new Document("$min", Arrays.asList(MAX_AMOUNT,
+                                new Document("$trunc", Arrays.asList(
+                                        new Document("$multiply", Arrays.asList("$betAmount", "$runningMultiplier")), 2)))))))
+        );
+    }
+
+    /**
+     * @param withState True for the slips that carry the settlement state (openLegs, runningMultiplier, lost).
+     */
+    private static Document stateFilter(Document partition, boolean withState) {
+        return rangeFilter(partition).append("openLegs", new Document("$exists", withState));
+    }
+
+    private static Document pendingBet(Integer matchID) {
+        return new Document("matchID", matchID).append("win", -1);
+    }
+
+    private static Document rangeFilter(Document partition) {
+        return new Document("slipID", new Document("$gte", partition.getInteger("fromSlipID"))
+                .append("$lte", partition.getInteger("toSlipID")));
+    }
+
+    /**
+     * Recompute, on the server side, win and amount of the slips from the results of their bets,
+     * with the same rules of SlipMongoDBDAO.checkIfSlipWin():
+     * a lost bet makes the slip lost (amount 0), a non-evaluated bet leaves it open (-1),
+     * otherwise the slip is won; the amount is betAmount times the won multipliers, truncated and capped.
+     * The settlement state is written too, so the next settlements of the slips are incremental.
+     *
+     * @param slips  The slips collection.
+     * @param filter The slips to update.
+     */
+    static void updateSlipsState(MongoCollection<Document> slips, Document filter) {
+        List<Document> pipeline = Arrays.asList(
+                new Document("$set", settlementState()),
+                new Document("$set", new Document()
+                        .append("settledAt", getCurrentInstantString())
+                        .append("win", new Document("$cond", Arrays.asList("$lost", 0,
+                                new Document("$cond", Arrays.asList(new Document("$gt", Arrays.asList("$openLegs", 0)), -1, 1)))))
+                        .append("amount", new Document("$cond", Arrays.asList("$lost", 0.0,
+                                new Document("$min", Arrays.asList(MAX_AMOUNT,
+                                        new Document("$trunc", Arrays.asList(
+                                                new Document("$multiply", Arrays.asList("$betAmount", "$runningMultiplier")), 2))))))))
+        );
+        slips.updateMany(filter, pipeline);
+    }
+
+    /**
+     * Write the settlement state on the slips stored before it, without changing their win and amount.
+     *
+     * @return The number of updated slips.
+     */
+    public long initSlipsState() {
+        UpdateResult r = this.mongoDB.getCollection("slips").updateMany(
+                new Document("openLegs", new Document("$exists", false)),
+                List.of(new Document("$set", settlementState()))
+        );
+        return r.getModifiedCount();
+    }
+
+    /**
+     * @return The settlement state (openLegs, runningMultiplier, lost) computed from all the bets of a slip.
+     */
+    private static Document settlementState() {
+        Document openLegs = new Document("$size", new Document("$filter", new Document("input", "$betsList")
+                .append("cond", new Document("$eq", Arrays.asList("$$this.win", -1)))));
+        Document product = new Document("$reduce", new Document("input", "$betsList")
+                .append("initialValue", 1.0)
+                .append("in", new Document("$cond", Arrays.asList(
+                        new Document("$eq", Arrays.asList("$$this.win", 1)),
+                        new Document("$multiply", Arrays.asList("$$value", "$$this.chosenMultipliervalue")),
+                        "$$value"))));
+        Document lost = new Document("$anyElementTrue", List.of(new Document("$map",
+                new Document("input", "$betsList").append("in", new Document("$eq", Arrays.asList("$$this.win", 0))))));
+        return new Document("openLegs", openLegs).append("runningMultiplier", product).append("lost", lost);
+    }
+
+    /**
+     * Credit all the winners with a single unordered bulkWrite, a customer that has already received
+     * the credits of the partition is skipped: the token of the partition stays in creditedSettlements
+     * until the partition is DONE in the journal (releaseCustomers()), so a resumed partition is never credited twice,
+     * whenever it is resumed, and the array holds only the partitions still in progress.
+     */
+    private void creditCustomers(Map<String, Double> credits, String token, Report report) {
+        List<WriteModel<Document>> updates = new ArrayList<>();
+        for (Map.Entry<String, Double> e : credits.entrySet()) {
+            final double howMuch = truncateNumber(e.getValue(), 2);
+            if (howMuch > 0) {
+                updates.add(new UpdateOneModel<>(
+                        new Document("username", e.getKey())
+                                .append("creditedSettlements", new Document("$ne", token)),
+                        new Document("$inc", new Document("credit", howMuch))
+                                .append("$push", new Document("creditedSettlements", token))
+                ));
+                report.creditedAmount += howMuch;
+            }
+        }
+        if (!updates.isEmpty()) {
+            this.mongoDB.getCollection("customers").bulkWrite(updates, new BulkWriteOptions().ordered(false));
+            report.customersCredited = updates.size();
+        }
+    }
+
+    /**
+     * Remove the token of a settled partition from its customers, then mark it as released in the journal.
+     * The partition must be DONE: it is never credited again, so its token is not needed anymore.
+     */
+    private void releaseCustomers(String token) {
+        try {
+            this.mongoDB.getCollection("customers").updateMany(
+                    new Document("creditedSettlements", token),
+                    new Document("$pull", new Document("creditedSettlements", token))
+            );
+            this.mongoDB.getCollection("settlements").updateOne(
+                    new Document("_id", token), new Document("$set", new Document("released", true)));
+        } catch (Exception e) {
+            e.printStackTrace(); // Released by the next resumePending().
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -8,6 +8,8 @@ import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.model.Updates;
 import it.unipi.dii.dao.SlipDAO;
 import it.unipi.dii.dao.base.BaseMongoDAO;
+import it.unipi.dii.dao.base.IdAllocator;
+import it.unipi.dii.dao.base.StatisticsResultCache;
 import it.unipi.dii.model.Bet;
 import it.unipi.dii.model.Slip;
 import org.bson.Document;
@@ -18,13 +20,12 @@ import java.util.List;
 import java.util.Objects;
 
 import static it.unipi.dii.utility.dateTimes.*;
-import static it.unipi.dii.utility.converters.jsonToDocumentConverter.convertJsonToDocument;
-import static it.unipi.dii.utility.converters.jsonToObjectConverter.convertJsonToObject;
 import static it.unipi.dii.utility.generators.randomGeneration.*;
 import static it.unipi.dii.utility.mongoUtility.*;
-import static it.unipi.dii.utility.converters.objectToJsonStringConverter.convertObjectToJsonString;
 
 public class SlipMongoDBDAO extends BaseMongoDAO implements SlipDAO {
+    private static final int SLIP_ID_BLOCK_SIZE = 20; // How many slipIDs are reserved with a single query.
+
     /**
      * Adds a new slip in MongoDB.
      * This function fails if the slip is not valid.
@@ -34,11 +35,19 @@ public class SlipMongoDBDAO extends BaseMongoDAO implements SlipDAO {
     @Override
     public Integer addSlip(Slip slip) {
         if (slip.checkSlipValidity()) {
-            slip.setSlipID(this.getLastID() + 1);
-            List<Document> documents = new ArrayList<>();
-            documents.add(Document.parse(convertObjectToJsonString(slip)));
-            boolean x = insertDocuments(this.mongoDB.getCollection("slips"), documents);
+            final int slipID = IdAllocator.forSequence("slips", SLIP_ID_BLOCK_SIZE).nextId(this::getLastID);
+            if (slipID == -1) {
+                return -1;
+            }
+            slip.setSlipID(slipID);
+            boolean x = insertDocuments(this.mongoDB.getCollection("slips", Slip.class), List.of(slip));
             if (x) {
+                if (BetsCollection.isEnabled(this.mongoDB) && !BetsCollection.insertBetsOfSlip(this.mongoDB, slip)) {
+                    // The settlement wouldn't find the slip: the confirmation fails.
+                    removeSlip(new Document("slipID", slip.getSlipID()));
+                    return -1;
+                }
+                StatisticsResultCache.getInstance().slipsChanged(); // The cached analytics of the current period.
                 return slip.getSlipID();
             } else {
                 return -1;
@@ -50,6 +59,8 @@ public class SlipMongoDBDAO extends BaseMongoDAO implements SlipDAO {
     }
 
     /**
+     * Used only to align the slipID counter with the slips collection, new IDs are given by IdAllocator.
+     *
      * @return The biggest value of slipID from MongoDB.
      */
     public int getLastID() {
@@ -92,10 +103,19 @@ public class SlipMongoDBDAO extends BaseMongoDAO implements SlipDAO {
      */
     @Override
     public void removeSlip(Document query) {
+        if (BetsCollection.isEnabled(this.mongoDB)) {
+            List<Integer> slipIDs = new ArrayList<>();
+            for (Document d : this.mongoDB.getCollection("slips").find(query)
+                    .projection(new Document("_id", 0).append("slipID", 1))) {
+                slipIDs.add(d.getInteger("slipID"));
+            }
+            BetsCollection.deleteBets(this.mongoDB, new Document("slipID", new Document("$in", slipIDs)));
+        }
         deleteDocuments(
                 this.mongoDB.getCollection("slips"),
                 query
         );
+        StatisticsResultCache.getInstance().invalidateAll(); // Also past periods can change.
     }
 
     /**
@@ -114,8 +134,10 @@ public class SlipMongoDBDAO extends BaseMongoDAO implements SlipDAO {
 
     /**
      * Remove all the bets in the database related to the target match.
-     * This function make two write queries,
-     * the first is the update one, the second is used to delete all the slips with no bets.
+     * This function make three write queries on the slips with a bet on the match,
+     * the first two are the update ones (the first one also removes the open legs from openLegs), the third is used to
+     * delete all the slips with no bets. The slips left with no open legs are then closed and paid by the SettlementEngine.
+     * With the bets collection, the slips are found among the bets of the match only.
      *
      * @param matchID ID of the target match.
      */
@@ -123,94 +145,89 @@ public class SlipMongoDBDAO extends BaseMongoDAO implements SlipDAO {
     public void removeAllBetsOfMatch(Integer matchID) {
         if (matchID >= 0) {
             MongoCollection<Document> slips_coll = this.mongoDB.getCollection("slips");
-            // Update the slips with a bet on the target match.
+            final boolean betsCollection = BetsCollection.isEnabled(this.mongoDB);
+            Document filter = new Document("betsList.matchID", matchID);
+            Document emptySlips = new Document("betsList", new Document("$size", 0));
+            if (betsCollection) {
+                List<Integer> slipIDs = BetsCollection.findSlipIDs(this.mongoDB, new Document("matchID", matchID));
+                filter = new Document("slipID", new Document("$in", slipIDs));
+                emptySlips.append("slipID", new Document("$in", slipIDs));
+            }
+            // The removed bets were open legs of the slip (a slip can have more legs on the same match).
+            Document openLegsFilter = new Document(filter)
+                    .append("betsList", new Document("$elemMatch", new Document("matchID", matchID).append("win", -1)))
+                    .append("openLegs", new Document("$exists", true));
+            List<Integer> openSlipIDs = new ArrayList<>();
+            for (Document d : slips_coll.find(openLegsFilter).projection(new Document("_id", 0).append("slipID", 1))) {
+                openSlipIDs.add(d.getInteger("slipID"));
+            }
+            SettlementEngine engine = new SettlementEngine();
+            if (!openSlipIDs.isEmpty()) {
+                // Journaled before the bets are removed: the payments are finished by resumePending() after a crash.
+                engine.openConnection();
+                try {
+                    engine.journalCancellation(matchID, openSlipIDs);
+                } finally {
+                    engine.closeConnection();
+                }
+            }
+            Document isOpenLeg = new Document("$and", Arrays.asList(
+                    new Document("$eq", Arrays.asList("$$this.matchID", matchID)),
+                    new Document("$eq", Arrays.asList("$$this.win", -1))));
             slips_coll.updateMany(
-                    new Document(),
-                    Updates.pull("betsList", Filters.eq("matchID", matchID))
+                    openLegsFilter,
+                    List.of(new Document("$set", new Document()
+                            .append("openLegs", new Document("$subtract", Arrays.asList("$openLegs",
+                                    new Document("$size", new Document("$filter", new Document("input", "$betsList")
+                                            .append("cond", isOpenLeg))))))
+                            .append("betsList", new Document("$filter", new Document("input", "$betsList")
+                                    .append("cond", new Document("$ne", Arrays.asList("$$this.matchID", matchID)))))
+                            .append("settledAt", getCurrentInstantString())))
+            );
+            // Update the slips with a bet on the target match (settledAt: their analytics are computed again).
+            slips_coll.updateMany(
+                    filter,
+                    Updates.combine(
+                            Updates.pull("betsList", Filters.eq("matchID", matchID)),
+                            Updates.set("settledAt", getCurrentInstantString())
+                    )
             );
             // Delete all the slips with no bets.
-            slips_coll.deleteMany(Filters.size("betsList", 0));
-        }
-    }
-
-    /**
-     * Check if a bet has a successful result or not.
-     *
-     * @param slip    The slip to be checked.
-     * @param matchID The match related to the bet.
-     * @param mb      MatchMongoDBDAO Object.
-     * @param cb      CustomerMongoDBDAO Object.
-     */
-
-    private void checkBetWin(Slip slip, Integer matchID, MatchMongoDBDAO mb, CustomerMongoDBDAO cb) {
-        int betListSize = slip.betsList.size();
-        for (int i = 0; i < betListSize; i++) {
-            if (Objects.equals(matchID, slip.betsList.get(i).getMatchID())) {
-                slip.betsList.get(i).setWin(
-                        mb.getMatch(matchID)
-                                .checkMultiplierWin(
-                                        slip.betsList.get(i).getChosenMultiplierName()
-                                )
-                );
-                int winSlip = checkIfSlipWin(slip);
-                if (winSlip == 0 || winSlip == 1 || winSlip == 2) {
-                    if (winSlip == 2) {
-                        winSlip = 0;
-                    }
-                    slip.setWin(winSlip);
-                    slip.setAmount(truncateNumber(slip.getAmount(), 3));
-                } else {
-                    slip.setWin(winSlip);
-                }
-                substituteSlip(slip.getSlipID(), slip);
-                if (winSlip == 1) {
-                    cb.redeem(slip.getUsername(), slip.getAmount());
+            slips_coll.deleteMany(emptySlips);
+            if (!openSlipIDs.isEmpty()) {
+                // The slips whose remaining legs are all settled are closed now, the winners are paid.
+                engine.openConnection();
+                try {
+                    engine.closeAfterCancellation(matchID);
+                } finally {
+                    engine.closeConnection();
                 }
-                return;
             }
+            if (betsCollection) {
+                BetsCollection.deleteBets(this.mongoDB, new Document("matchID", matchID));
+            }
+            StatisticsResultCache.getInstance().invalidateAll(); // Also past periods can change.
         }
     }
 
-    /**
-     * Substitute the slip with slipID = slipID with the input slip.
-     *
-     * @param slipID The id of slip to be substituted.
-     * @param slip   The new slip.
-     */
-
-    private void substituteSlip(Integer slipID, Slip slip) {
-        this.mongoDB.getCollection("slips").replaceOne(
-                new Document("slipID", slipID),
-                convertJsonToDocument(convertObjectToJsonString(slip))
-        );
-    }
-
     /**
      * This function is called when the target match is finished.
-     * This function loop all the slips in the database, and check if they have a bet related to the target match.
-     * If so, the bet will be evaluated.
+     * All the slips with a bet related to the target match are settled on the server side by the SettlementEngine,
+     * with a constant number of round trips whatever the number of slips; the partitions of the slips are settled in parallel.
+     * The periodic match updater uses SettlementEngine.settleMatchAsync() instead, to not wait for each settlement.
      *
      * @param matchID The target match.
      */
 
     public void checkSlipsWhenMatchEnds(Integer matchID) {
         if (matchID >= 0) {
-            List<Slip> sl = getSlips(
-                    new Document("betsList", new Document("$elemMatch", new Document("matchID", matchID))),
-                    new Document("_id", 0)
-            );
-
-            CustomerMongoDBDAO cs = new CustomerMongoDBDAO();
-            MatchMongoDBDAO mb = new MatchMongoDBDAO();
-            cs.openConnection();
-            mb.openConnection();
-
-            for (Slip slip : sl) {
-                checkBetWin(slip, matchID, mb, cs);
+            SettlementEngine engine = new SettlementEngine();
+            engine.openConnection();
+            SettlementEngine.Report report = engine.settleMatch(matchID);
+            engine.closeConnection();
+            if (report != null) {
+                System.out.println(report);
             }
-
-            cs.closeConnection();
-            mb.closeConnection();
         }
     }
 
@@ -221,6 +238,12 @@ public class SlipMongoDBDAO extends BaseMongoDAO implements SlipDAO {
      */
     public void updateBetsMatchPostponed(Integer matchID, String newDate) {
         Document filter = new Document("betsList.matchID", matchID);
+        if (BetsCollection.isEnabled(this.mongoDB)) {
+            // Only the slips with a bet on the match.
+            filter = new Document("slipID", new Document("$in",
+                    BetsCollection.findSlipIDs(this.mongoDB, new Document("matchID", matchID))));
+            BetsCollection.updateMatchDate(this.mongoDB, matchID, newDate);
+        }
         Document update = new Document("$set", new Document("betsList.$[elem].matchDate", newDate));
         UpdateOptions options = new UpdateOptions().arrayFilters(
                 List.of(
@@ -241,20 +264,9 @@ public class SlipMongoDBDAO extends BaseMongoDAO implements SlipDAO {
     @Override
     public List<Slip> getSlips(Document query, Document projection) {
         List<Slip> s_list = new ArrayList<>();
-        try (MongoCursor<Document> cursor = this.mongoDB.getCollection("slips").find(query).projection(projection).iterator()) {
+        try (MongoCursor<Slip> cursor = this.mongoDB.getCollection("slips", Slip.class).find(query).projection(projection).iterator()) {
             while (cursor.hasNext()) {
-                Document document = cursor.next();
-                Slip s = convertJsonToObject(document.toJson(), Slip.class);
-                // Take the competition_id, the home teams, the away team, the match date and the result (win)
-                // from each bet in the Slip contained in document and set them in Slip s
-                for (int i = 0; i < Objects.requireNonNull(s).betsList.size(); i++) {
-                    s.betsList.get(i).setCompetition_id(document.getList("betsList", Document.class).get(i).getString("competition_id"));
-                    s.betsList.get(i).setTeamHome(document.getList("betsList", Document.class).get(i).getString("teamHome"));
-                    s.betsList.get(i).setTeamAway(document.getList("betsList", Document.class).get(i).getString("teamAway"));
-                    s.betsList.get(i).setMatchDate(document.getList("betsList", Document.class).get(i).getString("matchDate"));
-                    s.betsList.get(i).setWin(document.getList("betsList", Document.class).get(i).getInteger("win"));
-                }
-                s_list.add(s);
+                s_list.add(cursor.next()); // The codec decodes also all the fields of the bets.
             }
         } catch (NullPointerException e) {
             return null;
@@ -335,6 +347,11 @@ public class SlipMongoDBDAO extends BaseMongoDAO implements SlipDAO {
                 UnsupportedOperationException("Not supported in MongoDB implementation");
     }
 
+    public int removeMatchFromCarts(String teamHome, String teamAway) {
+        throw new
+                UnsupportedOperationException("Not supported in MongoDB implementation");
+    }
+
     public String slipBetsKeysNS(String username, Integer slipID) {
         throw new
                 UnsupportedOperationException("Not supported in MongoDB implementation");
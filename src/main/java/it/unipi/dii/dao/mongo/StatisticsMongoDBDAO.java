@@ -1,82 +1,178 @@
 package it.unipi.dii.dao.mongo;
+import com.mongodb.MongoCommandException;
 import com.mongodb.client.AggregateIterable;
-import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.UpdateOptions;
 import it.unipi.dii.dao.StatisticsDAO;
 import it.unipi.dii.dao.base.BaseMongoDAO;
+import it.unipi.dii.dao.base.StatisticsResultCache;
 import org.bson.BsonNull;
 import org.bson.Document;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import static it.unipi.dii.utility.dateTimes.getCurrentInstantString;
 import static it.unipi.dii.utility.generators.randomGeneration.truncateNumber;
 
 public class StatisticsMongoDBDAO extends BaseMongoDAO implements StatisticsDAO {
+    // Query types of the result cache.
+    private static final String DAY_BUCKET = "day bucket";
+    private static final String RANGE_BUCKET = "range bucket";
+    private static final String SETTLED_WATERMARK_ID = "state:settled"; // State document of the buckets, it has no granularity.
 
+    // Deadline (epoch millis) of the analytics job running on the current thread, 0 if there is none.
+    private static final ThreadLocal<Long> DEADLINE = ThreadLocal.withInitial(() -> 0L);
+    // Comment of the queries of the analytics job running on the current thread, null if there is none.
+    private static final ThreadLocal<String> COMMENT = new ThreadLocal<>();
+    private static final String COMMENT_PREFIX = "analytics:";
+
+    /**
+     * Bound all the queries executed by the current thread: they are stopped by the server (maxTimeMS)
+     * when the deadline is reached.
+     *
+     * @param deadlineMillis The deadline as epoch millis, 0 to remove it.
+     */
+    public static void setDeadline(long deadlineMillis) {
+        DEADLINE.set(deadlineMillis);
+    }
+
+    /**
+     * @return The maxTimeMS of the next query of the current thread, 0 if it has no limit.
+     */
+    private static long maxTimeMS() {
+        final long deadline = DEADLINE.get();
+        if (deadline == 0) {
+            return 0;
+        }
+        return Math.max(1, deadline - System.currentTimeMillis());
+    }
+
+    /**
+     * Tag all the queries executed by the current thread with a comment, so the work of an analytics run
+     * can be read from the profiler (examined()).
+     *
+     * @param run The name of the run, null to remove the tag.
+     * @return The comment of the queries, null if the tag has been removed.
+     */
+    public static String setComment(String run) {
+        COMMENT.set(run == null ? null : COMMENT_PREFIX + run);
+        return COMMENT.get();
+    }
+
+    private AggregateIterable<Document> aggregate(String collection, List<Document> pipeline) {
+        AggregateIterable<Document> it = this.mongoDB.getCollection(collection).aggregate(pipeline)
+                .maxTime(maxTimeMS(), TimeUnit.MILLISECONDS);
+        return COMMENT.get() == null ? it : it.comment(COMMENT.get());
+    }
+
+    /**
+     * Profile only the queries tagged by setComment() (profiler filter), the other queries are not slowed down.
+     * It replaces the profiling settings of the database.
+     *
+     * @return True if the profiler has been configured, false if it is not available (e.g. not allowed to the user).
+     */
+    public boolean profileAnalytics() {
+        Document tagged = new Document("$regex", "^" + COMMENT_PREFIX);
+        try {
+            this.mongoDB.runCommand(new Document("profile", 1)
+                    .append("filter", new Document("$or", Arrays.asList(
+                            new Document("command.comment", tagged),
+                            new Document("originatingCommand.comment", tagged))))); // The getMore of the cursors.
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * @param comment The comment of the queries of a run.
+     * @return The index keys and the documents examined by the queries of the run, read from the profiler.
+     */
+    public long[] examined(String comment) {
+        List<Document> pipeline = Arrays.asList(
+                new Document("$match", new Document("$or", Arrays.asList(
+                        new Document("command.comment", comment),
+                        new Document("originatingCommand.comment", comment)))),
+                new Document("$group", new Document("_id", null)
+                        .append("keys", new Document("$sum", "$keysExamined"))
+                        .append("docs", new Document("$sum", "$docsExamined"))));
+        Document d = this.mongoDB.getCollection("system.profile").aggregate(pipeline).first();
+        return d == null ? new long[2] : new long[]{
+                d.get("keys", Number.class).longValue(),
+                d.get("docs", Number.class).longValue()};
+    }
+
+    /**
+     * The result is composed from the cached buckets of the days of the period (see summarize()).
+     *
+     * @param dateFrom    The begin of the period (confirmation date of the slips).
+     * @param dateTo      The end of the period.
+     * @param howManyShow How many teams to return.
+     * @return The most bet teams of the period, in descending order of bets.
+     */
     @Override
     public List<String> showUsersFavouriteTeams(String dateFrom, String dateTo, int howManyShow) {
+        List<Map.Entry<String, Long>> sorted = new ArrayList<>();
+        for (Document t : summarize(dateFrom, dateTo).getList("teams", Document.class)) {
+            sorted.add(Map.entry(t.getString("_id"), t.getLong("howMany")));
+        }
+        sorted.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        List<String> doc = new ArrayList<>();
+        for (int i = 0; i < sorted.size() && i < howManyShow; i++) {
+            doc.add(sorted.get(i).getKey());
+        }
+        return doc;
+    }
 
-        List<Document> PipelineHome = Arrays.asList(new Document("$match",
-                        new Document("confirmationDate",
-                                new Document("$gt", dateFrom)
-                                        .append("$lt", dateTo))),
-                new Document("$unwind",
-                        new Document("path", "$betsList")),
-                new Document("$project",
-                        new Document("comp", "$betsList.teamHome")
-                                .append("slip", "$slipID")
-                                .append("_id", 0L)),
-                new Document("$group",
-                        new Document("_id", "$comp")
-                                .append("howMany",
-                                        new Document("$sum", 1L))),
-                new Document("$sort",
-                        new Document("howMany", -1L)));
+    /**
+     * The result is composed from the cached buckets of the days of the period (see summarize()).
+     */
+    @Override
+    public double showFinancialResults(String dateFrom, String dateTo) {
+        return truncateNumber(summarize(dateFrom, dateTo).getDouble("financial"), 2);
+    }
 
-        List<Document> PipelineAway = Arrays.asList(new Document("$match",
+    /**
+     * A single aggregation: every bet emits both its teams, that are counted, sorted and limited on the server.
+     *
+     * @param dateFrom    The begin of the period (confirmation date of the slips).
+     * @param dateTo      The end of the period.
+     * @param howManyShow How many teams to return.
+     * @return The most bet teams of the period, in descending order of bets.
+     */
+    public List<String> computeUsersFavouriteTeams(String dateFrom, String dateTo, int howManyShow) {
+        List<Document> pipeline = Arrays.asList(new Document("$match",
                         new Document("confirmationDate",
                                 new Document("$gt", dateFrom)
                                         .append("$lt", dateTo))),
                 new Document("$unwind",
                         new Document("path", "$betsList")),
                 new Document("$project",
-                        new Document("comp", "$betsList.teamAway")
-                                .append("slip", "$slipID")
+                        new Document("team", Arrays.asList("$betsList.teamHome", "$betsList.teamAway"))
                                 .append("_id", 0L)),
+                new Document("$unwind",
+                        new Document("path", "$team")),
                 new Document("$group",
-                        new Document("_id", "$comp")
+                        new Document("_id", "$team")
                                 .append("howMany",
                                         new Document("$sum", 1L))),
                 new Document("$sort",
-                        new Document("howMany", -1L)));
-
-
-        MongoCollection<Document> slips_coll = this.mongoDB.getCollection("slips");
-        AggregateIterable<Document> docHome = slips_coll.aggregate(PipelineHome);
-        AggregateIterable<Document> docAway = slips_coll.aggregate(PipelineAway);
+                        new Document("howMany", -1L)
+                                .append("_id", 1L)), // Same order for the teams with the same number of bets.
+                new Document("$limit", (long) howManyShow));
 
         List<String> doc = new ArrayList<>();
-        int counter = 0;
-
-        for (Document document : docHome) {
-            long howManyValue = document.getLong("howMany");
-
-            for (Document documentA : docAway) {
-
-                if (Objects.equals(document.getString("_id"), documentA.getString("_id"))) {
-                    howManyValue = howManyValue + document.getLong("howMany");
-                }
-            }
-            document.put("howMany", howManyValue);
-            doc.add(document.getString("_id"));
-            counter++;
-
-            if (counter == howManyShow) {
-                break;
-            }
+        for (Document document : aggregate("slips", pipeline)) {
+            doc.add(document.getString("_id")); // Retrieve the teams' names.
         }
-
         return doc;
     }
-    @Override
-    public double showFinancialResults(String dateFrom, String dateTo) {
+
+    /**
+     * A single aggregation on the slips of the period, without the cache.
+     */
+    public double computeFinancialResults(String dateFrom, String dateTo) {
         List<Document> pipeline = Arrays.asList(new Document("$match",
                         new Document("confirmationDate",
                                 new Document("$gt", dateFrom)
@@ -93,7 +189,7 @@ public class StatisticsMongoDBDAO extends BaseMongoDAO implements StatisticsDAO
                 new Document("$project",
                         new Document("_id", 0L)));
 
-        AggregateIterable<Document> docs = this.mongoDB.getCollection("slips").aggregate(pipeline);
+        AggregateIterable<Document> docs = aggregate("slips", pipeline);
         try {
             return truncateNumber(Objects.requireNonNull(docs.first()).getDouble("totalDifference"), 2);
         }catch(NullPointerException e){
@@ -120,7 +216,7 @@ public class StatisticsMongoDBDAO extends BaseMongoDAO implements StatisticsDAO
                         new Document("howMany", -1L)),
                 new Document("$limit", 10L));
 
-        AggregateIterable<Document> docHome = this.mongoDB.getCollection("polls").aggregate(pipeline);
+        AggregateIterable<Document> docHome = aggregate("polls", pipeline);
         List<String> doc = new ArrayList<>();
 
         for (Document document : docHome) {
@@ -149,7 +245,7 @@ public class StatisticsMongoDBDAO extends BaseMongoDAO implements StatisticsDAO
                         new Document("howMany", -1L)),
                 new Document("$limit", 10L));
 
-        AggregateIterable<Document> docHome = this.mongoDB.getCollection("polls").aggregate(pipeline);
+        AggregateIterable<Document> docHome = aggregate("polls", pipeline);
         List<String> doc = new ArrayList<>();
 
         for (Document document : docHome) {
@@ -181,9 +277,313 @@ public class StatisticsMongoDBDAO extends BaseMongoDAO implements StatisticsDAO
                         new Document("_id", "$_id.comp")
                                 .append("HowMany",
                                         new Document("$avg", "$cont"))));
-        return this.mongoDB.getCollection("slips").aggregate(Pipeline);
+        return aggregate("slips", Pipeline);
+    }
+
+    /**
+     * Aggregate the slips confirmed in [start, end) in a single bucket: the financial result, the bets for each team
+     * and the bets and slips for each championship. All the values are additive, so a period is the sum of its buckets.
+     */
+    private static List<Document> bucketPipeline(String start, String end) {
+        return new ArrayList<>(Arrays.asList(new Document("$match",
+                        new Document("confirmationDate",
+                                new Document("$gte", start)
+                                        .append("$lt", end))),
+                new Document("$facet", new Document()
+                        .append("financial", List.of(
+                                new Document("$group",
+                                        new Document("_id", new BsonNull())
+                                                .append("value",
+                                                        new Document("$sum", new Document("$subtract", Arrays.asList("$betAmount", "$amount")))))))
+                        .append("teams", Arrays.asList(
+                                new Document("$unwind", new Document("path", "$betsList")),
+                                new Document("$project",
+                                        new Document("team", Arrays.asList("$betsList.teamHome", "$betsList.teamAway"))
+                                                .append("_id", 0L)),
+                                new Document("$unwind", new Document("path", "$team")),
+                                new Document("$group",
+                                        new Document("_id", "$team")
+                                                .append("howMany", new Document("$sum", 1L)))))
+                        .append("championships", Arrays.asList(
+                                new Document("$unwind", new Document("path", "$betsList")),
+                                new Document("$group",
+                                        new Document("_id",
+                                                new Document("comp", "$betsList.competition_id")
+                                                        .append("slip", "$slipID"))
+                                                .append("cont", new Document("$sum", 1L))),
+                                new Document("$group",
+                                        new Document("_id", "$_id.comp")
+                                                .append("bets", new Document("$sum", "$cont"))
+                                                .append("slips", new Document("$sum", 1L)))))),
+                new Document("$project",
+                        new Document("financial",
+                                new Document("$ifNull", Arrays.asList(new Document("$arrayElemAt", Arrays.asList("$financial.value", 0)), 0.0)))
+                                .append("teams", 1L)
+                                .append("championships", 1L))));
+    }
+
+    /**
+     * Compute the bucket of the slips confirmed in [start, end) and write it in analytics_buckets, replacing the old one.
+     *
+     * @param granularity The type of the bucket ("day" or "hour").
+     */
+    public void mergeBucket(String granularity, String start, String end) {
+        List<Document> pipeline = bucketPipeline(start, end);
+        pipeline.add(new Document("$set",
+                new Document("_id", granularity + ":" + start)
+                        .append("granularity", granularity)
+                        .append("start", start)
+                        .append("end", end)
+                        .append("computationTimestamp", getCurrentInstantString())));
+        pipeline.add(new Document("$merge",
+                new Document("into", "analytics_buckets")
+                        .append("on", "_id")
+                        .append("whenMatched", "replace")
+                        .append("whenNotMatched", "insert")));
+        try {
+            aggregate("slips", pipeline).toCollection();
+        } catch (MongoCommandException e) {
+            if (e.getErrorCode() != 11000) {
+                throw e;
+            }
+            // The same bucket has just been inserted by another analytics job.
+        }
+    }
+
+    /**
+     * @return The bucket of the slips confirmed in [start, end), computed without storing it.
+     */
+    public Document computeBucket(String start, String end) {
+        return aggregate("slips", bucketPipeline(start, end)).first();
+    }
+
+    /**
+     * @return The stored buckets of the target type with start in [from, to).
+     */
+    public List<Document> getBuckets(String granularity, String from, String to) {
+        return this.mongoDB.getCollection("analytics_buckets")
+                .find(new Document("granularity", granularity)
+                        .append("start", new Document("$gte", from).append("$lt", to)))
+                .maxTime(maxTimeMS(), TimeUnit.MILLISECONDS)
+                .comment(COMMENT.get())
+                .into(new ArrayList<>());
+    }
+
+    /**
+     * @param since The target timestamp.
+     * @return The confirmation hours ("yyyy-MM-ddTHH") of the slips settled after the target timestamp,
+     * their buckets have to be computed again.
+     */
+    public List<String> findSettledHours(String since) {
+        List<Document> pipeline = Arrays.asList(new Document("$match",
+                        new Document("settledAt", new Document("$gte", since))),
+                new Document("$group",
+                        new Document("_id", new Document("$substrCP", Arrays.asList("$confirmationDate", 0, 13)))));
+        List<String> hours = new ArrayList<>();
+        for (Document document : aggregate("slips", pipeline)) {
+            hours.add(document.getString("_id"));
+        }
+        return hours;
+    }
+
+    /**
+     * @param defaultValue The watermark to return if none has been stored yet (e.g. at the first run).
+     * @return The settledAt up to which the settled slips have already been applied to the stored buckets.
+     */
+    public String getSettledWatermark(String defaultValue) {
+        Document state = this.mongoDB.getCollection("analytics_buckets")
+                .find(new Document("_id", SETTLED_WATERMARK_ID))
+                .maxTime(maxTimeMS(), TimeUnit.MILLISECONDS)
+                .comment(COMMENT.get())
+                .first();
+        if (state == null || state.getString("settledWatermark") == null) {
+            return defaultValue;
+        }
+        return state.getString("settledWatermark");
+    }
+
+    /**
+     * Store the settledAt up to which the settled slips have been applied to the stored buckets.
+     * The watermark never goes back, even if an older run finishes after a newer one.
+     */
+    public void setSettledWatermark(String watermark) {
+        this.mongoDB.getCollection("analytics_buckets").updateOne(
+                new Document("_id", SETTLED_WATERMARK_ID),
+                new Document("$max", new Document("settledWatermark", watermark)),
+                new UpdateOptions().upsert(true));
+    }
+
+    /**
+     * The bucket (financial, teams, championships) of the slips confirmed in [dateFrom, dateTo), composed from
+     * the cached results: the whole days of the period are read from the cache or computed together with a single
+     * aggregation, the partial days at the borders are computed with computeBucket().
+     * The days with slips settled since the last check (at most one a minute) are dropped from the cache before.
+     */
+    public Document summarize(String dateFrom, String dateTo) {
+        StatisticsResultCache cache = StatisticsResultCache.getInstance();
+        applySettlements(cache);
+
+        List<Document> parts = new ArrayList<>();
+        final String firstDay = dateFrom.length() == 10 ? dateFrom : nextDay(dateFrom.substring(0, 10));
+        final String lastDay = dateTo.substring(0, 10); // End of the whole days.
+        if (firstDay.compareTo(lastDay) >= 0) {
+            parts.add(cachedBucket(cache, dateFrom, dateTo));
+        } else {
+            if (dateFrom.compareTo(firstDay) < 0) {
+                parts.add(cachedBucket(cache, dateFrom, firstDay));
+            }
+            List<String> missing = new ArrayList<>();
+            for (String day = firstDay; day.compareTo(lastDay) < 0; day = nextDay(day)) {
+                Document d = (Document) cache.get(DAY_BUCKET, day, nextDay(day));
+                if (d == null) {
+                    missing.add(day);
+                } else {
+                    parts.add(d);
+                }
+            }
+            if (!missing.isEmpty()) {
+                Map<String, Document> computed = computeDayBuckets(missing.get(0), nextDay(missing.get(missing.size() - 1)));
+                for (String day : missing) {
+                    Document d = computed.getOrDefault(day, emptyBucket());
+                    cache.put(DAY_BUCKET, day, nextDay(day), d);
+                    parts.add(d);
+                }
+            }
+            if (lastDay.compareTo(dateTo) < 0) {
+                parts.add(cachedBucket(cache, lastDay, dateTo));
+            }
+        }
+        return mergeBuckets(parts);
+    }
+
+    private Document cachedBucket(StatisticsResultCache cache, String start, String end) {
+        Document d = (Document) cache.get(RANGE_BUCKET, start, end);
+        if (d == null) {
+            d = computeBucket(start, end);
+            if (d == null) {
+                d = emptyBucket();
+            }
+            cache.put(RANGE_BUCKET, start, end, d);
+        }
+        return d;
+    }
+
+    /**
+     * Drop from the cache the days with slips settled since the last check, if a check is due.
+     */
+    private void applySettlements(StatisticsResultCache cache) {
+        if (!cache.settlementCheckDue()) {
+            return; // Checked less than a minute ago, the cache is queried without touching the slips.
+        }
+        final String now = getCurrentInstantString();
+        // One minute of margin for the clocks of the other processes.
+        final String since = Instant.parse(cache.getSettledWatermark()).minusSeconds(60).toString();
+        for (String hour : findSettledHours(since)) {
+            if (hour != null) {
+                cache.invalidateDay(hour.substring(0, 10));
+            }
+        }
+        cache.setSettledWatermark(now);
+    }
+
+    /**
+     * A bucket for each day with slips in [fromDay, toDay), with a single aggregation.
+     *
+     * @return The buckets keyed by day ("yyyy-MM-dd").
+     */
+    private Map<String, Document> computeDayBuckets(String fromDay, String toDay) {
+        List<Document> pipeline = Arrays.asList(new Document("$match",
+                        new Document("confirmationDate",
+                                new Document("$gte", fromDay)
+                                        .append("$lt", toDay))),
+                new Document("$set",
+                        new Document("day", new Document("$substrCP", Arrays.asList("$confirmationDate", 0, 10)))),
+                new Document("$facet", new Document()
+                        .append("financial", List.of(
+                                new Document("$group",
+                                        new Document("_id", "$day")
+                                                .append("value",
+                                                        new Document("$sum", new Document("$subtract", Arrays.asList("$betAmount", "$amount")))))))
+                        .append("teams", Arrays.asList(
+                                new Document("$unwind", new Document("path", "$betsList")),
+                                new Document("$project",
+                                        new Document("day", 1L)
+                                                .append("team", Arrays.asList("$betsList.teamHome", "$betsList.teamAway"))
+                                                .append("_id", 0L)),
+                                new Document("$unwind", new Document("path", "$team")),
+                                new Document("$group",
+                                        new Document("_id", new Document("day", "$day").append("team", "$team"))
+                                                .append("howMany", new Document("$sum", 1L)))))
+                        .append("championships", Arrays.asList(
+                                new Document("$unwind", new Document("path", "$betsList")),
+                                new Document("$group",
+                                        new Document("_id",
+                                                new Document("day", "$day")
+                                                        .append("comp", "$betsList.competition_id")
+                                                        .append("slip", "$slipID"))
+                                                .append("cont", new Document("$sum", 1L))),
+                                new Document("$group",
+                                        new Document("_id", new Document("day", "$_id.day").append("comp", "$_id.comp"))
+                                                .append("bets", new Document("$sum", "$cont"))
+                                                .append("slips", new Document("$sum", 1L)))))));
+
+        Map<String, Document> buckets = new HashMap<>();
+        Document result = aggregate("slips", pipeline).first();
+        if (result == null) {
+            return buckets;
+        }
+        for (Document f : result.getList("financial", Document.class)) {
+            buckets.computeIfAbsent(f.getString("_id"), k -> emptyBucket())
+                    .put("financial", f.get("value", Number.class).doubleValue());
+        }
+        for (Document t : result.getList("teams", Document.class)) {
+            Document id = t.get("_id", Document.class);
+            buckets.computeIfAbsent(id.getString("day"), k -> emptyBucket()).getList("teams", Document.class)
+                    .add(new Document("_id", id.getString("team")).append("howMany", t.get("howMany", Number.class).longValue()));
+        }
+        for (Document c : result.getList("championships", Document.class)) {
+            Document id = c.get("_id", Document.class);
+            buckets.computeIfAbsent(id.getString("day"), k -> emptyBucket()).getList("championships", Document.class)
+                    .add(new Document("_id", id.getString("comp"))
+                            .append("bets", c.get("bets", Number.class).longValue())
+                            .append("slips", c.get("slips", Number.class).longValue()));
+        }
+        return buckets;
     }
 
+    /**
+     * @return The sum of the buckets: they are additive, so the result is the bucket of the union of their periods.
+     */
+    private static Document mergeBuckets(List<Document> buckets) {
+        double financial = 0;
+        Map<String, Long> teams = new HashMap<>();
+        Map<String, long[]> championships = new HashMap<>(); // {bets, slips}
+        for (Document b : buckets) {
+            financial += b.get("financial", Number.class).doubleValue();
+            for (Document t : b.getList("teams", Document.class)) {
+                teams.merge(t.getString("_id"), t.get("howMany", Number.class).longValue(), Long::sum);
+            }
+            for (Document c : b.getList("championships", Document.class)) {
+                long[] value = championships.computeIfAbsent(c.getString("_id"), k -> new long[2]);
+                value[0] += c.get("bets", Number.class).longValue();
+                value[1] += c.get("slips", Number.class).longValue();
+            }
+        }
+        Document merged = emptyBucket().append("financial", financial);
+        teams.forEach((team, howMany) -> merged.getList("teams", Document.class)
+                .add(new Document("_id", team).append("howMany", howMany)));
+        championships.forEach((comp, value) -> merged.getList("championships", Document.class)
+                .add(new Document("_id", comp).append("bets", value[0]).append("slips", value[1])));
+        return merged;
+    }
 
+    private static Document emptyBucket() {
+        return new Document("financial", 0.0)
+                .append("teams", new ArrayList<Document>())
+                .append("championships", new ArrayList<Document>());
+    }
 
+    private static String nextDay(String day) {
+        return LocalDate.parse(day).plusDays(1).toString();
+    }
 }
@@ -0,0 +1,233 @@
+package it.unipi.dii.dao.redis;
+
+import it.unipi.dii.dao.base.BaseRedisDAO;
+import it.unipi.dii.model.Bet;
+import it.unipi.dii.model.Slip;
+import org.bson.Document;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static it.unipi.dii.utility.dateTimes.getCurrentInstant;
+
+/**
+ * Live counters of the analytics, one Redis hash for each confirmation hour of the slips, with the same
+ * additive values of the hour buckets of MongoDB (see analyticsBuckets):
+ * the confirmation of a slip adds its bet amount and its bets, the settlement subtracts the payouts.
+ * The periodic analytics overwrite the hashes with the buckets computed on MongoDB (reconciliation),
+ * so a lost or repeated delta lasts at most until the next run.
+ */
+public class LiveStatsRedisDAO extends BaseRedisDAO {
+
+    //EXAMPLE OF KEY OF AN HOUR:
+    //  BeansBetstats:2024-03-18T15 = {financial: "125.5", "team:Inter": "4", "bets:IT1": "6", "slips:IT1": "3"}
+    //  BeansBetstats:complete:2024-03 = "1" (all the hours of the month have been reconciled at least once)
+
+    public static final String APP_NS = "BeansBet";
+    private static final String NS = "stats"; //namespace
+    private static final int EXPIRATION_IN_SEC = 40 * 86400; // A month plus some margin.
+
+    private static final String FINANCIAL_FIELD = "financial";
+    private static final String TEAM_PREFIX = "team:";
+    private static final String BETS_PREFIX = "bets:";
+    private static final String SLIPS_PREFIX = "slips:";
+
+    public String hourKeyNS(String hour) {
+        return APP_NS + NS + ":" + hour;
+    }
+
+    public String completeKeyNS(String month) {
+        return APP_NS + NS + ":complete:" + month;
+    }
+
+    /**
+     * Add the stake and the bets of a confirmed slip to the hash of its confirmation hour.
+     */
+    public void recordConfirmedSlip(Slip slip) {
+        final String key = hourKeyNS(slip.getConfirmationDate().substring(0, 13));
+        Map<String, Long> bets = new HashMap<>();
+        for (Bet b : slip.findBetsList()) {
+            bets.merge(TEAM_PREFIX + b.getTeamHome(), 1L, Long::sum);
+            bets.merge(TEAM_PREFIX + b.getTeamAway(), 1L, Long::sum);
+            bets.merge(BETS_PREFIX + b.getCompetitionId(), 1L, Long::sum);
+        }
+        try (Jedis jedis = getConnection()) {
+            Pipeline p = jedis.pipelined();
+            p.hincrByFloat(key, FINANCIAL_FIELD, slip.getBetAmount());
+            for (Map.Entry<String, Long> e : bets.entrySet()) {
+                p.hincrBy(key, e.getKey(), e.getValue());
+                if (e.getKey().startsWith(BETS_PREFIX)) {
+                    p.hincrBy(key, SLIPS_PREFIX + e.getKey().substring(BETS_PREFIX.length()), 1);
+                }
+            }
+            p.expire(key, EXPIRATION_IN_SEC);
+            p.sync();
+        } catch (Exception e) {
+            e.printStackTrace(); // The counters are fixed by the next reconciliation.
+        }
+    }
+
+    /**
+     * Subtract the payouts from the hashes of the confirmation hours of the winning slips.
+     *
+     * @param payouts The paid amount for each confirmation hour ("yyyy-MM-ddTHH").
+     */
+    public void recordPayouts(Map<String, Double> payouts) {
+        if (payouts.isEmpty()) {
+            return;
+        }
+        try (Jedis jedis = getConnection()) {
+            Pipeline p = jedis.pipelined();
+            for (Map.Entry<String, Double> e : payouts.entrySet()) {
+                p.hincrByFloat(hourKeyNS(e.getKey()), FINANCIAL_FIELD, -e.getValue());
+                p.expire(hourKeyNS(e.getKey()), EXPIRATION_IN_SEC);
+            }
+            p.sync();
+        } catch (Exception e) {
+            e.printStackTrace(); // The counters are fixed by the next reconciliation.
+        }
+    }
+
+    /**
+     * Replace the hash of an hour with a bucket computed on MongoDB.
+     *
+     * @param hour   The hour ("yyyy-MM-ddTHH").
+     * @param bucket The bucket of the slips confirmed in the hour, null if there are none.
+     */
+    public void replaceHour(String hour, Document bucket) {
+        Map<String, String> fields = new HashMap<>();
+        fields.put(FINANCIAL_FIELD, "0");
+        if (bucket != null) {
+            fields.put(FINANCIAL_FIELD, String.valueOf(bucket.get(FINANCIAL_FIELD, Number.class).doubleValue()));
+            for (Document t : bucket.getList("teams", Document.class)) {
+                fields.put(TEAM_PREFIX + t.getString("_id"), String.valueOf(t.get("howMany", Number.class).longValue()));
+            }
+            for (Document c : bucket.getList("championships", Document.class)) {
+                fields.put(BETS_PREFIX + c.getString("_id"), String.valueOf(c.get("bets", Number.class).longValue()));
+                fields.put(SLIPS_PREFIX + c.getString("_id"), String.valueOf(c.get("slips", Number.class).longValue()));
+            }
+        }
+        final String key = hourKeyNS(hour);
+        try (Jedis jedis = getConnection()) {
+            Transaction t = jedis.multi();
+            t.del(key);
+            t.hset(key, fields);
+            t.expire(key, EXPIRATION_IN_SEC);
+            t.exec();
+        }
+    }
+
+    /**
+     * @return The hours of the current month ("yyyy-MM-ddTHH") without a hash, up to the current one.
+     */
+    public List<String> findMissingHours() {
+        List<String> hours = monthHours();
+        List<String> missing = new ArrayList<>();
+        try (Jedis jedis = getConnection()) {
+            Pipeline p = jedis.pipelined();
+            List<Response<Boolean>> exists = new ArrayList<>();
+            for (String hour : hours) {
+                exists.add(p.exists(hourKeyNS(hour)));
+            }
+            p.sync();
+            for (int i = 0; i < hours.size(); i++) {
+                if (!exists.get(i).get()) {
+                    missing.add(hours.get(i));
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Mark the current month as complete: every hour has been written by a reconciliation at least once.
+     */
+    public void setMonthComplete() {
+        try (Jedis jedis = getConnection()) {
+            jedis.setex(completeKeyNS(getCurrentInstant().toString().substring(0, 7)), EXPIRATION_IN_SEC, "1");
+        }
+    }
+
+    /**
+     * Read the hashes of all the hours of the current month with a single pipeline.
+     *
+     * @return The hashes as buckets (financial, teams, championships), in the same shape of analytics_buckets,
+     * or null if the month has not been reconciled yet or Redis is not available.
+     */
+    public List<Document> readMonth() {
+        List<String> hours = monthHours();
+        try (Jedis jedis = getConnection()) {
+            Pipeline p = jedis.pipelined();
+            Response<String> complete = p.get(completeKeyNS(getCurrentInstant().toString().substring(0, 7)));
+            List<Response<Map<String, String>>> hashes = new ArrayList<>();
+            for (String hour : hours) {
+                hashes.add(p.hgetAll(hourKeyNS(hour)));
+            }
+            p.sync();
+            if (complete.get() == null) {
+                return null;
+            }
+            List<Document> buckets = new ArrayList<>();
+            for (Response<Map<String, String>> hash : hashes) {
+                if (!hash.get().isEmpty()) {
+                    buckets.add(toBucket(hash.get()));
+                }
+            }
+            return buckets;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static Document toBucket(Map<String, String> hash) {
+        double financial = 0;
+        List<Document> teams = new ArrayList<>();
+        Set<String> championships = new HashSet<>();
+        for (Map.Entry<String, String> e : hash.entrySet()) {
+            if (e.getKey().equals(FINANCIAL_FIELD)) {
+                financial = Double.parseDouble(e.getValue());
+            } else if (e.getKey().startsWith(TEAM_PREFIX)) {
+                teams.add(new Document("_id", e.getKey().substring(TEAM_PREFIX.length()))
+                        .append("howMany", Long.parseLong(e.getValue())));
+            } else if (e.getKey().startsWith(BETS_PREFIX)) {
+                championships.add(e.getKey().substring(BETS_PREFIX.length()));
+            }
+        }
+        List<Document> champs = new ArrayList<>();
+        for (String c : championships) {
+            champs.add(new Document("_id", c)
+                    .append("bets", Long.parseLong(hash.get(BETS_PREFIX + c)))
+                    .append("slips", Long.parseLong(hash.getOrDefault(SLIPS_PREFIX + c, "1"))));
+        }
+        return new Document(FINANCIAL_FIELD, financial)
+                .append("teams", teams)
+                .append("championships", champs);
+    }
+
+    /**
+     * @return The hours from the first of the current month to the current hour, included.
+     */
+    private static List<String> monthHours() {
+        final Instant currentHour = getCurrentInstant().truncatedTo(ChronoUnit.HOURS);
+        Instant hour = LocalDate.parse(currentHour.toString().substring(0, 10)).withDayOfMonth(1)
+                .atStartOfDay(ZoneOffset.UTC).toInstant();
+        List<String> hours = new ArrayList<>();
+        for (; !hour.isAfter(currentHour); hour = hour.plus(1, ChronoUnit.HOURS)) {
+            hours.add(hour.toString().substring(0, 13));
+        }
+        return hours;
+    }
+}
@@ -0,0 +1,87 @@
+package it.unipi.dii.dao.redis;
+
+import it.unipi.dii.dao.base.BaseRedisDAO;
+import it.unipi.dii.dao.base.RedisPoolManager;
+import org.bson.Document;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Bus of the changes of state of the matches, on a Redis Pub/Sub channel: the periodic updates publish an event
+ * for every match they change, the GUIs receive it and patch only the cell of that match.
+ * The events are not stored: a GUI not connected when an event is published sees the change at its next rebuild.
+ */
+public class MatchEventsRedisDAO extends BaseRedisDAO {
+
+    //EXAMPLE OF EVENT:
+    //  BeansBetmatches:events <- {"matchID": 1024, "status": "IN_PLAY", "home_goals": 1, "away_goals": 0}
+
+    public static final String APP_NS = "BeansBet";
+    private static final String NS = "matches"; //namespace
+
+    public String channelNS() {
+        return APP_NS + NS + ":events";
+    }
+
+    /**
+     * @return The event of the new state of a match.
+     */
+    public static Document event(Integer matchID, String status, Integer homeGoals, Integer awayGoals) {
+        return new Document("matchID", matchID)
+                .append("status", status)
+                .append("home_goals", homeGoals)
+                .append("away_goals", awayGoals);
+    }
+
+    /**
+     * Publish the events of an update with a single round trip.
+     */
+    public void publish(List<Document> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        try (Jedis jedis = getConnection()) {
+            Pipeline p = jedis.pipelined();
+            for (Document e : events) {
+                p.publish(channelNS(), e.toJson());
+            }
+            p.sync();
+        }
+    }
+
+    /**
+     * Receive the events until the connection is closed or unsubscribe() is called on the subscription.
+     * It blocks the calling thread, on a dedicated connection: a connection of the pool would be reclaimed as leaked.
+     *
+     * @param subscription The subscription, it receives the events in the format of event().
+     */
+    public void subscribe(subscription subscription) {
+        try (Jedis jedis = RedisPoolManager.newDedicatedConnection()) {
+            jedis.subscribe(subscription, channelNS());
+        }
+    }
+
+    /**
+     * Subscription to the events, it can be ended from another thread with unsubscribe().
+     */
+    public static class subscription extends JedisPubSub {
+        private final Consumer<Document> listener;
+
+        public subscription(Consumer<Document> listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+            try {
+                this.listener.accept(Document.parse(message));
+            } catch (Exception e) {
+                e.printStackTrace(); // A wrong event doesn't end the subscription.
+            }
+        }
+    }
+}
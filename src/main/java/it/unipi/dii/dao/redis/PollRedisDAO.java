@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import it.unipi.dii.dao.PollDAO;
 import it.unipi.dii.dao.base.BaseRedisDAO;
+import it.unipi.dii.dao.base.RedisScripts;
 import it.unipi.dii.dao.mongo.PollMongoDBDAO;
 import it.unipi.dii.model.Poll;
 import it.unipi.dii.model.pollOption;
@@ -16,6 +17,7 @@ import java.io.IOException;
 import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -152,9 +154,10 @@ public class PollRedisDAO extends BaseRedisDAO implements PollDAO {
 
     public void refreshTTL(String username) {
         //it retrieves all the IDs associated with the username
-        Jedis jedis = getConnection();
-        String ids = APP_NS + ":pollcookie:" + username;
-        jedis.expire(ids, EXPIRATION_IN_SEC_COOKIE);
+        try (Jedis jedis = getConnection()) {
+            String ids = APP_NS + ":pollcookie:" + username;
+            jedis.expire(ids, EXPIRATION_IN_SEC_COOKIE);
+        }
     }
 
     public static String writeToJsonFileOptions(List<pollOption> optionList) {
@@ -243,26 +246,11 @@ public class PollRedisDAO extends BaseRedisDAO implements PollDAO {
         jedis.close();
     }
     public void updatePollOptionVotes (Integer pollID, pollOption option, boolean inc) {
+        // The vote is counted on the Redis side, so concurrent votes are never lost.
         try (Jedis jedis = getConnection()) {
-            String jsonStr = jedis.get(optionsKeysNS(pollID));
-            List<pollOption> optionList= fromJsonToOptionList(jsonStr);
-            if (!optionList.isEmpty()) {
-                for (pollOption op : optionList) {
-                    if (op.getOptionCaption().equals(option.getOptionCaption())) {
-                        if (inc)
-                            op.voteOption();
-                        else if(op.getOptionVotes() > 0)
-                            op.unvoteOption();
-                        break;
-                    }
-                }
-                jedis.set(optionsKeysNS(pollID), writeToJsonFileOptions(optionList));
-                jedis.expire(optionsKeysNS(pollID), EXPIRATION_IN_SEC);
-            } else {
-                jedis.del(pollIDRealKeysNS(pollID));
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            RedisScripts.run(jedis, RedisScripts.Script.POLL_VOTE,
+                    Arrays.asList(optionsKeysNS(pollID), pollIDRealKeysNS(pollID)),
+                    Arrays.asList(option.getOptionCaption(), inc ? "1" : "0", String.valueOf(EXPIRATION_IN_SEC)));
         }
     }
     public void addPollToMongoDB(Poll poll) {
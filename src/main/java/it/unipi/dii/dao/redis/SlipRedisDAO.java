@@ -5,18 +5,24 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import com.mongodb.client.MongoCollection;
 import it.unipi.dii.dao.SlipDAO;
-import it.unipi.dii.dao.base.BaseMongoDAO;
 import it.unipi.dii.dao.base.BaseRedisDAO;
+import it.unipi.dii.dao.base.MatchStatusCache;
+import it.unipi.dii.dao.base.RedisScripts;
 import it.unipi.dii.dao.mongo.SlipMongoDBDAO;
 import it.unipi.dii.model.Bet;
 import it.unipi.dii.model.Slip;
 import org.bson.Document;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.params.ZAddParams;
 import redis.clients.jedis.resps.ScanResult;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import static it.unipi.dii.utility.dateTimes.getCurrentInstantString;
 
@@ -25,13 +31,37 @@ public class SlipRedisDAO extends BaseRedisDAO implements SlipDAO {
     public static final String APP_NS = "BeansBet";
     public static final int EXPIRATION_IN_SEC = 10800; //temporary slips are alive only for one day
     private static final String NS = "cust"; //namespace
-
-    //EXAMPLE OF KEY FOR A SPECIFIC SLIP OF A SPECIFIC USER:
-    //  BeansBetcust:niccolo:slip:3:betAmount = 100
-    //  BeansBetcust:niccolo:slip:3:creation_date= "2021-10-10"
-    //  BeansBetcust:niccolo:slip:3:options=
-    //"[{\"competition_id\":\"null\",\"matchID\":0,\"teamHome\":\"West Ham United FC\",\"teamAway\":\"Brentford FC\",
-    // \"chosenMultiplierName\":\"Over1/5\"\"chosenMultipliervalue\":2.2,\"matchDate\":\"2024-02-26T20:00:00Z\",\"win\":-1}]"
+    private static final String MATCH_NS = "matchcarts"; //namespace of the match --> carts index
+    private static final String ACTIVE_NS = "activecarts"; //namespace of the index of the users with a cart
+    private static final int USERNAMES_CHUNK_SIZE = 500;
+
+    // Latency of the confirmation of the slips.
+    private static final AtomicLong confirmations = new AtomicLong();
+    private static final AtomicLong totalConfirmationNanos = new AtomicLong();
+    private static final AtomicLong maxConfirmationNanos = new AtomicLong();
+
+    // Fields of the hash of a slip.
+    private static final String BETS_FIELD = "bets";
+    private static final String BET_AMOUNT_FIELD = "betAmount";
+    private static final String CREATION_DATE_FIELD = "creation_date";
+
+    //EXAMPLE OF KEYS FOR THE SLIPS OF A SPECIFIC USER:
+    //  BeansBetcust:niccolo = {"3", "4"} (set of the IDs of the slips in the cart of the user)
+    //  BeansBetcust:niccolo:3 = hash {
+    //      betAmount: 100
+    //      creation_date: "2021-10-10"
+    //      bets: "[{\"competition_id\":\"null\",\"matchID\":0,\"teamHome\":\"West Ham United FC\",\"teamAway\":\"Brentford FC\",
+    //             \"chosenMultiplierName\":\"Over1/5\"\"chosenMultipliervalue\":2.2,\"matchDate\":\"2024-02-26T20:00:00Z\",\"win\":-1}]"
+    //  }
+
+    //EXAMPLE OF KEY OF THE INDEX OF THE CARTS THAT CONTAIN A MATCH (set of "username:slipID"):
+    //  BeansBetmatchcarts:West Ham United FC|Brentford FC = {"niccolo:3", "user:1"}
+
+    //EXAMPLE OF KEY OF THE INDEX OF THE USERS WITH A CART (sorted set scored by the last activity, in milliseconds):
+    //  BeansBetactivecarts = {"niccolo": 1708977600000, "user": 1708977900000}
+
+    //LEGACY LAYOUT (three string keys for each slip), read only by migrateLegacySlips():
+    //  BeansBetcust:niccolo:3:betAmount, BeansBetcust:niccolo:3:creation_date, BeansBetcust:niccolo:3:bets
 
     @Override
     public String slipBetsKeysNS(String username, Integer slipID) {
@@ -57,10 +87,49 @@ public class SlipRedisDAO extends BaseRedisDAO implements SlipDAO {
         return APP_NS + NS + ":" + username + ":" + slipID + ":";
     }
 
+    /**
+     * @return The key of the hash that contains the slip.
+     */
+    public String slipHashKeysNS(String username, Integer slipID) {
+        return APP_NS + NS + ":" + username + ":" + slipID;
+    }
+
+    /**
+     * @return The key of the set of the IDs of the slips in the cart of the user.
+     */
+    public String userSlipsKeysNS(String username) {
+        return APP_NS + NS + ":" + username;
+    }
+
+    /**
+     * The bets in the cart do not have the matchID yet, so the match is identified by its teams.
+     *
+     * @param teamHome The home team of the match.
+     * @param teamAway The away team of the match.
+     * @return The key of the set of the carts that contain a bet on the match.
+     */
+    public String matchCartsKeysNS(String teamHome, String teamAway) {
+        return APP_NS + MATCH_NS + ":" + teamHome + "|" + teamAway;
+    }
+
+    /**
+     * @return The key of the sorted set of the users with a cart, scored by their last activity.
+     */
+    public String activeUsersKeyNS() {
+        return APP_NS + ACTIVE_NS;
+    }
+
+    /**
+     * @return The member of the match --> carts index that represents the slip.
+     */
+    private static String cartMember(String username, Integer slipID) {
+        return username + ":" + slipID;
+    }
+
 
     @Override
     public void persist(Slip slip) { //renew the expiration time of a specific slip
-        try (Jedis jedis = getConnection()) {
+        try {
             create_Slip(slip);
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -69,18 +138,16 @@ public class SlipRedisDAO extends BaseRedisDAO implements SlipDAO {
 
     @Override
     public Slip load(String username, Integer slipID , double betAmount) { // get a specific slip
-        String SlipKey = slipBetsKeysNS(username, slipID);
-        String key = slipcreationDateKeysNS(username, slipID);
         try (Jedis jedis = getConnection()) {
-            String data = jedis.get(SlipKey); // Get the bet by using the key.
-            if (data != null) {
+            Map<String, String> hash = jedis.hgetAll(slipHashKeysNS(username, slipID)); // Get the whole slip.
+            if (hash.get(BETS_FIELD) != null) {
                 Slip slip = new Slip();
                 slip.setSlipID(slipID);
-                slip.setCreationDate(jedis.get(key));
+                slip.setCreationDate(hash.get(CREATION_DATE_FIELD));
                 slip.setBetAmount(betAmount);
                 slip.setConfirmationDate(getCurrentInstantString());
                 slip.setUsername(username);
-                slip.setBetsList(fromJsonToBetList(data));
+                slip.setBetsList(fromJsonToBetList(hash.get(BETS_FIELD)));
 
                 return slip;
             }
@@ -90,50 +157,96 @@ public class SlipRedisDAO extends BaseRedisDAO implements SlipDAO {
         return null;
     }
 
+    /**
+     * @return The usernames of all the users with a non-expired cart.
+     */
     public List<String> getAllUsernames() {
-        Jedis jedis = getConnection();
-        Set<String> keys = jedis.keys(APP_NS + NS + ":*");
         List<String> usernames = new ArrayList<>();
-        for (String key : keys) {
-            String[] keyParts = key.split(":");
-            String username = keyParts[1];
-            if (!usernames.contains(username)) {usernames.add(username);}
-        }
+        forEachActiveUsernames(USERNAMES_CHUNK_SIZE, usernames::addAll);
         return usernames;
     }
-    //it returns a list of slips from a username
+
+    /**
+     * Stream the users with a non-expired cart, from the least recently active, in chunks.
+     * Every chunk is a range read on the sorted set of the active users, so Redis is never blocked by a keyspace walk.
+     *
+     * @param chunkSize How many usernames are read with a single round trip.
+     * @param consumer  Function called on every chunk of usernames.
+     */
+    public void forEachActiveUsernames(int chunkSize, Consumer<List<String>> consumer) {
+        try (Jedis jedis = getConnection()) {
+            jedis.zremrangeByScore(activeUsersKeyNS(), Double.NEGATIVE_INFINITY, expiredActivityScore()); // Trim the expired carts.
+            int offset = 0;
+            List<String> chunk;
+            do {
+                chunk = jedis.zrange(activeUsersKeyNS(), offset, offset + chunkSize - 1);
+                if (!chunk.isEmpty()) {
+                    consumer.accept(chunk);
+                }
+                offset += chunkSize;
+            } while (chunk.size() == chunkSize);
+        }
+    }
+
+    /**
+     * Record the activity of the user on the cart and trim the users whose carts are expired.
+     *
+     * @param pipeline         The pipeline in which the commands are queued.
+     * @param username         The owner of the cart.
+     * @param lastActivityTime The time of the activity, in milliseconds.
+     */
+    private void touchActiveUser(Pipeline pipeline, String username, long lastActivityTime) {
+        pipeline.zadd(activeUsersKeyNS(), lastActivityTime, username, ZAddParams.zAddParams().gt()); // Never move back the activity.
+        pipeline.zremrangeByScore(activeUsersKeyNS(), Double.NEGATIVE_INFINITY, expiredActivityScore());
+    }
+
+    /**
+     * @return The score under which the carts are surely expired.
+     */
+    private static double expiredActivityScore() {
+        return System.currentTimeMillis() - EXPIRATION_IN_SEC * 1000L;
+    }
+
+    /**
+     * The whole cart is read with two round trips, whatever the number of slips:
+     * one for the set of the IDs of the slips and one (pipelined) for all the hashes.
+     *
+     * @param username The owner of the cart.
+     * @return The slips in the cart of the user, ordered by slipID.
+     */
     public List<Slip> getListFromUser(String username) throws IOException {
-        Jedis jedis = getConnection();
-        String keyPattern = UsernameKeysNS(username) + "*";
-        List<Slip> slipList = new ArrayList<>();
-        ScanParams scanParams = new ScanParams().match(keyPattern);
-
-        String cursor = ScanParams.SCAN_POINTER_START;
-
-        Set<String> uniqueIds = new HashSet<>();
-        do {
-            ScanResult<String> scanResult = jedis.scan(cursor, scanParams);
-
-            for (String key : scanResult.getResult()) {
-                String[] keyParts = key.split(":");
-                if (keyParts.length >= 4) {
-                    String slipId = keyParts[2];
-                    uniqueIds.add(slipId);
+        try (Jedis jedis = getConnection()) {
+            List<String> slipIDs = new ArrayList<>(jedis.smembers(userSlipsKeysNS(username)));
+            List<Slip> slipList = new ArrayList<>();
+            if (slipIDs.isEmpty()) {
+                return slipList;
+            }
+
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<Map<String, String>>> responses = new ArrayList<>();
+            for (String slipId : slipIDs) {
+                responses.add(pipeline.hgetAll(slipHashKeysNS(username, Integer.parseInt(slipId))));
+            }
+            pipeline.sync();
+
+            List<String> expired = new ArrayList<>();
+            for (int i = 0; i < slipIDs.size(); i++) {
+                Map<String, String> hash = responses.get(i).get();
+                if (hash == null || hash.get(BETS_FIELD) == null) {
+                    expired.add(slipIDs.get(i)); // The slip is expired, but its ID is still in the set.
+                    continue;
                 }
+                Slip slip = new Slip(username, null, hash.get(CREATION_DATE_FIELD), Double.parseDouble(hash.get(BET_AMOUNT_FIELD)));
+                slip.setSlipID(Integer.parseInt(slipIDs.get(i)));
+                slip.setBetsList(fromJsonToBetList(hash.get(BETS_FIELD)));
+                slipList.add(slip);
             }
-            cursor = scanResult.getCursor();
-        } while (!cursor.equals("0"));
-
-        for (String slipId : uniqueIds) {
-            String bets = jedis.get(slipBetsKeysNS(username, Integer.parseInt(slipId)));
-            String betAmount = jedis.get(slipbetAmountKeysNS(username, Integer.parseInt(slipId)));
-            String creationDate = jedis.get(slipcreationDateKeysNS(username, Integer.parseInt(slipId)));
-            Slip slip = new Slip(username, null, creationDate, Double.parseDouble(betAmount));
-            slip.setSlipID(Integer.parseInt(slipId));
-            slip.setBetsList(fromJsonToBetList(bets));
-            slipList.add(slip);
+            if (!expired.isEmpty()) {
+                jedis.srem(userSlipsKeysNS(username), expired.toArray(new String[0]));
+            }
+            slipList.sort(Comparator.comparing(Slip::getSlipID));
+            return slipList;
         }
-        return  slipList;
     }
 
     //creation of a slip in Redis
@@ -141,84 +254,89 @@ public class SlipRedisDAO extends BaseRedisDAO implements SlipDAO {
     public int create_Slip(Slip slip) {
 
         Bet bet = slip.findBetsList().get(0);
-        BaseMongoDAO baseMongoDAO = new BaseMongoDAO();
-        baseMongoDAO.openConnection();
-        MongoCollection<Document> matchesCollection = baseMongoDAO.mongoDB.getCollection("matches");
-        Document query = new Document("team_away", bet.getTeamAway())
-                .append("team_home", bet.getTeamHome());
-        Document sort = new Document("matchDate", -1); //descending order
-        Document result = matchesCollection.find(query).sort(sort).first();
-        if(Objects.equals(result.getString("status"), "IN_PLAY")){
+        // The status is read from the in-memory cache, MongoDB is queried only on a miss.
+        if(Objects.equals(MatchStatusCache.getInstance().getStatus(bet.getTeamHome(), bet.getTeamAway()), "IN_PLAY")){
             return 1;
         }
-        //keys creation
+
         String username = slip.getUsername();
-        String SlipKeyBets = slipBetsKeysNS(username, slip.getSlipID());
-        String SlipKeybetamount = slipbetAmountKeysNS(username, slip.getSlipID());
-        String SlipKeycreationdate = slipcreationDateKeysNS(username, slip.getSlipID());
-        double betAmount = slip.getBetAmount();
+        Map<String, String> hash = new HashMap<>();
+        hash.put(BET_AMOUNT_FIELD, String.valueOf(slip.getBetAmount()));
+        hash.put(CREATION_DATE_FIELD, slip.getCreationDate());
+        hash.put(BETS_FIELD, writeToJsonFileBets(slip.findBetsList()));
 
+        // A single round trip.
         try (Jedis jedis = getConnection()) {
-            jedis.set(slipbetAmountKeysNS(username, slip.getSlipID()), String.valueOf(betAmount));
-            jedis.set(SlipKeycreationdate, slip.getCreationDate());
-            jedis.set(SlipKeyBets, writeToJsonFileBets(slip.findBetsList()));
-            jedis.expire(SlipKeybetamount, EXPIRATION_IN_SEC);
-            jedis.expire(SlipKeycreationdate, EXPIRATION_IN_SEC);
-            jedis.expire(SlipKeyBets, EXPIRATION_IN_SEC);
+            Pipeline pipeline = jedis.pipelined();
+            writeSlip(pipeline, username, slip.getSlipID(), hash);
+            touchActiveUser(pipeline, username, System.currentTimeMillis());
+            for (Bet b : slip.findBetsList()) {
+                indexCart(pipeline, username, slip.getSlipID(), b);
+            }
+            pipeline.sync();
         }
         return 0;
     }
 
+    /**
+     * Write the hash of the slip and add its ID to the cart of the user, both with a fresh TTL.
+     */
+    private void writeSlip(Pipeline pipeline, String username, Integer slipID, Map<String, String> hash) {
+        String key = slipHashKeysNS(username, slipID);
+        pipeline.hset(key, hash);
+        pipeline.expire(key, EXPIRATION_IN_SEC);
+        pipeline.sadd(userSlipsKeysNS(username), slipID.toString());
+        pipeline.expire(userSlipsKeysNS(username), EXPIRATION_IN_SEC);
+    }
+
+    /**
+     * Add the slip to the set of the carts that contain the match of the bet.
+     * The set lives at least as the last cart added to it.
+     */
+    private void indexCart(Pipeline pipeline, String username, Integer slipID, Bet bet) {
+        String key = matchCartsKeysNS(bet.getTeamHome(), bet.getTeamAway());
+        pipeline.sadd(key, cartMember(username, slipID));
+        pipeline.expire(key, EXPIRATION_IN_SEC);
+    }
+
 
     @Override
     public void refreshTTL(String userID, String slipID) {
-        //it retrieves all the IDs associated with the username
-        Jedis jedis = getConnection();
-        Set<String> ids = jedis.keys("BeansBetcust:" + userID + slipID+  ":*");
-
-        // Set the new TTL for each ID
-        for (String id : ids) {
-            jedis.expire(id , EXPIRATION_IN_SEC);
-            jedis.expire(id , EXPIRATION_IN_SEC);
-            jedis.expire(id , EXPIRATION_IN_SEC);
+        try (Jedis jedis = getConnection()) {
+            RedisScripts.run(jedis, RedisScripts.Script.CART_REFRESH_TTL,
+                    Arrays.asList(slipHashKeysNS(userID, Integer.parseInt(slipID)), userSlipsKeysNS(userID), activeUsersKeyNS()),
+                    Arrays.asList(String.valueOf(EXPIRATION_IN_SEC), userID,
+                            String.valueOf(System.currentTimeMillis()), String.valueOf(expiredActivityScore())));
         }
     }
 
     @Override
     public void delete_Slip(String username, Integer slipID) {  //delete slip from redis
-        String slipkey = "BeansBetcust:"+username+":"+ slipID;
-        String SlipKeyBets= slipBetsKeysNS(username, slipID);
-        String SlipKeybetamount = slipbetAmountKeysNS(username, slipID);
-        String SlipKeycreationdate = slipcreationDateKeysNS(username, slipID);
-        Jedis jedis = getConnection();
-        jedis.del(SlipKeybetamount);
-        jedis.del(SlipKeyBets);
-        jedis.del(SlipKeycreationdate);
-        jedis.del(slipkey);
-
+        try (Jedis jedis = getConnection()) {
+            // The slip is removed also from the match --> carts index.
+            RedisScripts.run(jedis, RedisScripts.Script.CART_CLEAR,
+                    Arrays.asList(slipHashKeysNS(username, slipID), userSlipsKeysNS(username)),
+                    Arrays.asList(slipID.toString(), cartMember(username, slipID), APP_NS + MATCH_NS + ":"));
+        }
     }
 
     @Override
     public int addBetToSlip(String username, Integer slipID, Bet bet) {
 
-        BaseMongoDAO baseMongoDAO = new BaseMongoDAO();
-        baseMongoDAO.openConnection();
-        MongoCollection<Document> matchesCollection = baseMongoDAO.mongoDB.getCollection("matches");
-        Document query = new Document("team_away", bet.getTeamAway())
-                .append("team_home", bet.getTeamHome());
-        Document sort = new Document("matchDate", -1); // descending order
-        Document result = matchesCollection.find(query).sort(sort).first();
-        if(Objects.equals(result.getString("status"), "IN_PLAY")){
+        // The status is read from the in-memory cache, MongoDB is queried only on a miss.
+        if(Objects.equals(MatchStatusCache.getInstance().getStatus(bet.getTeamHome(), bet.getTeamAway()), "IN_PLAY")){
             return 1;
         }
 
+        // The bet is appended on the Redis side, atomically and with one round trip.
         try(Jedis jedis = getConnection()) {
-            String jsonStr = jedis.get(slipBetsKeysNS(username, slipID));
-            List<Bet> betList = fromJsonToBetList(jsonStr);
-            betList.add(bet);
-            jedis.set(slipBetsKeysNS(username, slipID), writeToJsonFileBets(betList));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            Long bets = (Long) RedisScripts.run(jedis, RedisScripts.Script.CART_ADD_BET,
+                    Arrays.asList(slipHashKeysNS(username, slipID), matchCartsKeysNS(bet.getTeamHome(), bet.getTeamAway()), activeUsersKeyNS()),
+                    Arrays.asList(writeToJsonFileBet(bet), username, cartMember(username, slipID), String.valueOf(EXPIRATION_IN_SEC),
+                            String.valueOf(System.currentTimeMillis()), String.valueOf(expiredActivityScore())));
+            if (bets == -1) {
+                return -1; // The slip is expired.
+            }
         }
         return 0;
 
@@ -226,40 +344,169 @@ public class SlipRedisDAO extends BaseRedisDAO implements SlipDAO {
 
     @Override
     public void deleteBetFromSlip(String username, Integer slipID, Bet bet) {
+        // The bet is removed on the Redis side, atomically and with one round trip.
+        try (Jedis jedis = getConnection()) {
+            RedisScripts.run(jedis, RedisScripts.Script.CART_REMOVE_BET,
+                    Arrays.asList(slipHashKeysNS(username, slipID), matchCartsKeysNS(bet.getTeamHome(), bet.getTeamAway()), activeUsersKeyNS()),
+                    Arrays.asList(writeToJsonFileBet(bet), username, cartMember(username, slipID),
+                            String.valueOf(System.currentTimeMillis()), String.valueOf(expiredActivityScore())));
+        }
+    }
+
+
+    /**
+     * Remove the target match from all the non-confirmed slips in Redis,
+     * the slips that remain with no bets are deleted.
+     * Only the carts in the match --> carts index are touched: every cart is changed atomically on the Redis side
+     * (CART_REMOVE_MATCH) and all of them with one pipelined round trip. Only the processed carts are removed
+     * from the index, so a cart indexed in the meantime is invalidated by the next call.
+     *
+     * @param teamHome The home team of the match.
+     * @param teamAway The away team of the match.
+     * @return The number of carts that have been changed.
+     */
+    @Override
+    public int removeMatchFromCarts(String teamHome, String teamAway) {
+        String indexKey = matchCartsKeysNS(teamHome, teamAway);
         try (Jedis jedis = getConnection()) {
-            String jsonStr = jedis.get(slipBetsKeysNS(username, slipID));
-            List<Bet> betList = fromJsonToBetList(jsonStr);
-            if (!betList.isEmpty()) {
-                betList.remove(bet);
-                jedis.set(slipBetsKeysNS(username, slipID), writeToJsonFileBets(betList));
-            } else {
-                jedis.del(slipBetsKeysNS(username, slipID));
+            List<String> members = new ArrayList<>(jedis.smembers(indexKey));
+            if (members.isEmpty()) {
+                return 0;
             }
+
+            List<List<String>> keys = new ArrayList<>();
+            List<List<String>> args = new ArrayList<>();
+            for (String member : members) {
+                String[] parts = member.split(":");
+                String username = parts[0];
+                Integer slipID = Integer.parseInt(parts[1]);
+                keys.add(Arrays.asList(slipHashKeysNS(username, slipID), userSlipsKeysNS(username), indexKey));
+                args.add(Arrays.asList(teamHome, teamAway, slipID.toString(), member));
+            }
+
+            int changed = 0;
+            for (Object removed : RedisScripts.runPipelined(jedis, RedisScripts.Script.CART_REMOVE_MATCH, keys, args)) {
+                if ((Long) removed > 0) {
+                    changed++; // -1 if the cart is already expired or confirmed.
+                }
+            }
+            return changed;
+        }
+    }
+
+    /**
+     * Move all the slips stored with the legacy layout (three string keys for each slip)
+     * to the hash layout, keeping their remaining TTL, and delete the legacy keys.
+     * It is safe to run it while the application is working and to run it more than once.
+     *
+     * @return The number of migrated slips.
+     */
+    public int migrateLegacySlips() {
+        int migrated = 0;
+        try (Jedis jedis = getConnection()) {
+            ScanParams scanParams = new ScanParams().match(APP_NS + NS + ":*:bets").count(500);
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                ScanResult<String> scanResult = jedis.scan(cursor, scanParams);
+                List<String> keys = scanResult.getResult();
+                cursor = scanResult.getCursor();
+                if (keys.isEmpty()) {
+                    continue;
+                }
+
+                // Read the legacy slips of this page with one round trip.
+                Pipeline readPipeline = jedis.pipelined();
+                List<List<Response<?>>> responses = new ArrayList<>();
+                for (String key : keys) {
+                    String[] keyParts = key.split(":");
+                    String username = keyParts[1];
+                    Integer slipID = Integer.parseInt(keyParts[2]);
+                    responses.add(Arrays.asList(
+                            readPipeline.get(slipBetsKeysNS(username, slipID)),
+                            readPipeline.get(slipbetAmountKeysNS(username, slipID)),
+                            readPipeline.get(slipcreationDateKeysNS(username, slipID)),
+                            readPipeline.ttl(slipBetsKeysNS(username, slipID))
+                    ));
+                }
+                readPipeline.sync();
+
+                // Write them in the new layout with another round trip.
+                Pipeline writePipeline = jedis.pipelined();
+                for (int i = 0; i < keys.size(); i++) {
+                    String[] keyParts = keys.get(i).split(":");
+                    String username = keyParts[1];
+                    Integer slipID = Integer.parseInt(keyParts[2]);
+                    String bets = (String) responses.get(i).get(0).get();
+                    String betAmount = (String) responses.get(i).get(1).get();
+                    String creationDate = (String) responses.get(i).get(2).get();
+                    long ttl = (Long) responses.get(i).get(3).get();
+
+                    if (bets != null && betAmount != null && creationDate != null) {
+                        Map<String, String> hash = new HashMap<>();
+                        hash.put(BETS_FIELD, bets);
+                        hash.put(BET_AMOUNT_FIELD, betAmount);
+                        hash.put(CREATION_DATE_FIELD, creationDate);
+                        writeSlip(writePipeline, username, slipID, hash); // With a fresh EXPIRATION_IN_SEC.
+                        if (ttl > 0) {
+                            writePipeline.expire(slipHashKeysNS(username, slipID), ttl);
+                            // The last activity is deduced from the remaining TTL.
+                            touchActiveUser(writePipeline, username,
+                                    System.currentTimeMillis() - (EXPIRATION_IN_SEC - ttl) * 1000L);
+                        } else {
+                            // A legacy slip without expiry (TTL -1) is active now, it keeps the fresh expiry.
+                            touchActiveUser(writePipeline, username, System.currentTimeMillis());
+                        }
+                        for (Bet bet : fromJsonToBetList(bets)) {
+                            indexCart(writePipeline, username, slipID, bet);
+                        }
+                        migrated++;
+                    }
+                    writePipeline.del(
+                            slipBetsKeysNS(username, slipID),
+                            slipbetAmountKeysNS(username, slipID),
+                            slipcreationDateKeysNS(username, slipID)
+                    );
+                }
+                writePipeline.sync();
+            } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        return migrated;
     }
 
-
     @Override
     public boolean sendConfirmedSlipToMongo(String username, Integer slipID , double betAmount) {
-        SlipMongoDBDAO slipMongoDBDAO = new SlipMongoDBDAO();
-        slipMongoDBDAO.openConnection();
-        Slip slip = load(username, slipID , betAmount);
+        final long start = System.nanoTime();
+        try {
+            return confirmSlip(username, slipID, betAmount);
+        } finally {
+            final long elapsed = System.nanoTime() - start;
+            confirmations.incrementAndGet();
+            totalConfirmationNanos.addAndGet(elapsed);
+            maxConfirmationNanos.accumulateAndGet(elapsed, Math::max);
+        }
+    }
 
+    private boolean confirmSlip(String username, Integer slipID , double betAmount) {
+        Slip slip = load(username, slipID , betAmount);
+        if (slip == null) {
+            return false; // The slip is expired.
+        }
         slip.setBetsWinToMinus1(); // Initialize the slip.
 
-        //for that takes single bet from slip and modifies each matchID of that bet
-        for (Bet bet : slip.findBetsList()) {
-
-            BaseMongoDAO baseMongoDAO = new BaseMongoDAO();
-            baseMongoDAO.openConnection();
-            MongoCollection<Document> matchesCollection = baseMongoDAO.mongoDB.getCollection("matches");
+        SlipMongoDBDAO slipMongoDBDAO = new SlipMongoDBDAO();
+        slipMongoDBDAO.openConnection();
 
-            Document query = new Document("team_away", bet.getTeamAway())
-                    .append("team_home", bet.getTeamHome());
-            Document sort = new Document("matchDate", -1); // descending order
-            Document result = matchesCollection.find(query).sort(sort).first();
+        // All the matches of the slip are resolved with a single query, whatever the number of bets.
+        Map<String, Document> matches = findLastMatches(slipMongoDBDAO.mongoDB.getCollection("matches"), slip.findBetsList());
+        for (Bet bet : slip.findBetsList()) {
+            Document result = matches.get(bet.getTeamHome() + "|" + bet.getTeamAway());
+            if (result == null) {
+                // The match doesn't exist anymore (e.g. it has been canceled).
+                slipMongoDBDAO.closeConnection();
+                return false;
+            }
             bet.setMatchID(result.getInteger("matchID"));
             bet.setCompetition_id(result.getString("competition_id"));
         }
@@ -273,9 +520,77 @@ public class SlipRedisDAO extends BaseRedisDAO implements SlipDAO {
         }
         slipMongoDBDAO.closeConnection();
         delete_Slip(username, slipID); // Delete the slip from Redis.
+        new LiveStatsRedisDAO().recordConfirmedSlip(slip); // Stake and bets in the live analytics.
         return true;
     }
 
+    /**
+     * For every couple of teams of the bets, find the most recent match between them.
+     *
+     * @param matchesCollection The matches collection.
+     * @param bets              The bets of the slip.
+     * @return The matches (matchID, competition_id) keyed by "team_home|team_away".
+     */
+    private static Map<String, Document> findLastMatches(MongoCollection<Document> matchesCollection, List<Bet> bets) {
+        List<Document> teams = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (Bet bet : bets) {
+            if (seen.add(bet.getTeamHome() + "|" + bet.getTeamAway())) {
+                teams.add(new Document("team_home", bet.getTeamHome()).append("team_away", bet.getTeamAway()));
+            }
+        }
+
+        Map<String, Document> matches = new HashMap<>();
+        if (teams.isEmpty()) {
+            return matches;
+        }
+        List<Document> pipeline = Arrays.asList(
+                new Document("$match", new Document("$or", teams)),
+                new Document("$sort", new Document("matchDate", -1)), // descending order
+                new Document("$group", new Document("_id",
+                        new Document("team_home", "$team_home").append("team_away", "$team_away"))
+                        .append("matchID", new Document("$first", "$matchID"))
+                        .append("competition_id", new Document("$first", "$competition_id")))
+        );
+        for (Document d : matchesCollection.aggregate(pipeline)) {
+            Document id = d.get("_id", Document.class);
+            matches.put(id.getString("team_home") + "|" + id.getString("team_away"), d);
+        }
+        return matches;
+    }
+
+    /**
+     * @return How many slips have been confirmed (or have failed the confirmation).
+     */
+    public static long getConfirmations() {
+        return confirmations.get();
+    }
+
+    /**
+     * @return The mean latency of the confirmation of a slip, in milliseconds.
+     */
+    public static double getMeanConfirmationLatencyMillis() {
+        final long n = confirmations.get();
+        return n == 0 ? 0 : (totalConfirmationNanos.get() / 1_000_000.0) / n;
+    }
+
+    /**
+     * @return The maximum latency of the confirmation of a slip, in milliseconds.
+     */
+    public static double getMaxConfirmationLatencyMillis() {
+        return maxConfirmationNanos.get() / 1_000_000.0;
+    }
+
+
+    public static String writeToJsonFileBet(Bet bet) {
+        try {
+            ObjectMapper objectMapper = new ObjectMapper();
+            return objectMapper.writeValueAsString(bet);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
 
     public static String writeToJsonFileBets(List<Bet> betList) {
 
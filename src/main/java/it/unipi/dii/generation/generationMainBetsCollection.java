@@ -0,0 +1,23 @@
+package it.unipi.dii.generation;
+
+import it.unipi.dii.dao.mongo.BetsCollection;
+import it.unipi.dii.dao.mongo.SlipMongoDBDAO;
+
+import static it.unipi.dii.utility.mongoUtility.deactivateMongoDBNotifications;
+
+// ONE-SHOT CREATION (OR REBUILD) OF THE NORMALIZED BETS COLLECTION FROM THE SLIPS.
+// Once the collection exists, the applications keep it aligned with the slips; run it with the applications stopped.
+public class generationMainBetsCollection {
+    public static void main(String[] args) {
+        deactivateMongoDBNotifications();
+
+        SlipMongoDBDAO ss = new SlipMongoDBDAO();
+        ss.openConnection();
+
+        System.out.println("Start the generation of the bets collection.");
+        long bets = BetsCollection.rebuild(ss.mongoDB);
+        System.out.println("Generation of the bets collection ended, " + bets + " bets written.");
+
+        ss.closeConnection();
+    }
+}
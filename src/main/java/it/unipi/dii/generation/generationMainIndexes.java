@@ -1,5 +1,7 @@
 package it.unipi.dii.generation;
+import com.mongodb.MongoCommandException;
 import it.unipi.dii.dao.mongo.MatchMongoDBDAO;
+import org.bson.Document;
 
 import static it.unipi.dii.utility.mongoUtility.*;
 
@@ -15,9 +17,36 @@ public class generationMainIndexes {
         // Slips indexes.
         createIndex(ms.mongoDB , "slips" , "username" , 1); // Good index.
         createIndex(ms.mongoDB , "slips" , "betsList.matchID" , -1); // Good index.
+        createIndex(ms.mongoDB , "slips" , "slipID" , 1); // Used by the slipID ranges of the settlement partitions.
+        // Only the open slips (not lost and not evaluated yet), used to close the slips with no open legs.
+        createPartialIndex(ms.mongoDB, "slips", new Document("openLegs", 1).append("slipID", 1),
+                new Document("lost", false).append("win", -1));
+
+        createIndex(ms.mongoDB , "slips" , "confirmationDate" , 1); // Used by the analytics buckets.
+        createIndex(ms.mongoDB , "slips" , "settledAt" , 1); // Used to compute again the buckets of the settled slips.
+
+        // Analytics buckets index.
+        createCompoundIndex(ms.mongoDB, "analytics_buckets", new String[]{"granularity", "start"}, new Integer[]{1, 1});
+
+        // Analytics runs index (last runs of a job).
+        createCompoundIndex(ms.mongoDB, "analytics_runs", new String[]{"job", "startedAt"}, new Integer[]{1, -1});
+
+        // Match update runs index (last runs of the scheduler).
+        createIndex(ms.mongoDB, "update_runs", "startedAt", -1);
+
+        // Settlements journal index.
+        createIndex(ms.mongoDB , "settlements" , "matchID" , 1);
+        createIndex(ms.mongoDB , "settlements" , "state" , 1); // Used to resume the partitions not DONE.
+        createIndex(ms.mongoDB , "customers" , "creditedSettlements" , 1); // Used to release the settled partitions.
 
         // Matches indexes.
         createIndex(ms.mongoDB , "matches" , "status" , 1); // Good Index
+        try {
+            // Natural key of a match, the ingestion of the matches is an upsert on it.
+            createUniqueIndex(ms.mongoDB, "matches", new Document("matchDate", 1).append("team_home", 1).append("team_away", 1));
+        } catch (MongoCommandException e) {
+            System.out.println("Unique index of the matches not created, there are duplicated matches: " + e.getErrorMessage());
+        }
 
         System.out.println("Generation of the indexes ended.");
 
@@ -72,6 +72,9 @@ public class generationMainMongoDBDataset {
         dropCollection(cl.mongoDB, "matches");
         dropCollection(cl.mongoDB, "polls");
         dropCollection(cl.mongoDB, "analytics");
+        dropCollection(cl.mongoDB, "analytics_buckets"); // Written again by the periodic analytics.
+        dropCollection(cl.mongoDB, "bets"); // Created again by generationMainBetsCollection, if needed.
+        dropCollection(cl.mongoDB, "ingestion_state"); // The new matches are ingested from scratch.
 
         // Create again the collection
         createCollection(cl.mongoDB, "admins");
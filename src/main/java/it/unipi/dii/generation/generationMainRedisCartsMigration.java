@@ -0,0 +1,16 @@
+package it.unipi.dii.generation;
+
+import it.unipi.dii.dao.redis.SlipRedisDAO;
+
+// ONE-SHOT MIGRATION OF THE REDIS CARTS FROM THE OLD LAYOUT (three keys for each slip) TO THE HASH LAYOUT.
+public class generationMainRedisCartsMigration {
+    public static void main(String[] args) {
+        SlipRedisDAO slipRedisDAO = new SlipRedisDAO();
+
+        System.out.println("Start the migration of the carts.");
+        int migrated = slipRedisDAO.migrateLegacySlips();
+        System.out.println("Migration of the carts ended, " + migrated + " slips migrated.");
+
+        SlipRedisDAO.closePool();
+    }
+}
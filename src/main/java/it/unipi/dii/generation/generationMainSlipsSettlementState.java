@@ -0,0 +1,22 @@
+package it.unipi.dii.generation;
+
+import it.unipi.dii.dao.mongo.SettlementEngine;
+
+import static it.unipi.dii.utility.mongoUtility.deactivateMongoDBNotifications;
+
+// ONE-SHOT MIGRATION OF THE SLIPS STORED BEFORE THE SETTLEMENT STATE (openLegs, runningMultiplier, lost).
+// Not mandatory: the settlement writes the state of an old slip the first time one of its matches ends.
+public class generationMainSlipsSettlementState {
+    public static void main(String[] args) {
+        deactivateMongoDBNotifications();
+
+        SettlementEngine engine = new SettlementEngine();
+        engine.openConnection();
+
+        System.out.println("Start the migration of the slips.");
+        long migrated = engine.initSlipsState();
+        System.out.println("Migration of the slips ended, " + migrated + " slips migrated.");
+
+        engine.closeConnection();
+    }
+}
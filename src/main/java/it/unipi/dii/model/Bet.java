@@ -13,11 +13,13 @@ public class Bet {
     private String competition_id;
     private String matchDate;
     private Integer win;
+    private Integer market; // Ordinal of the MarketOutcome of the chosen multiplier.
 
     public Bet(Integer matchID, double chosenMultiplierValue , String chosenMultiplierName , String matchDate) {
         this.matchID = matchID;
         this.chosenMultiplierValue = chosenMultiplierValue;
         this.chosenMultiplierName = chosenMultiplierName;
+        this.market = marketOf(chosenMultiplierName);
         this.matchDate = matchDate;
         this.win = -1;
     }
@@ -113,6 +115,32 @@ public class Bet {
     }
     public void setChosenMultiplierName(String chosenMultiplierName) {
         this.chosenMultiplierName = chosenMultiplierName;
+        this.market = marketOf(chosenMultiplierName);
+    }
+
+    /**
+     * @return The ordinal of the MarketOutcome of a multiplier name, null if it is unknown.
+     */
+    private static Integer marketOf(String chosenMultiplierName) {
+        MarketOutcome m = MarketOutcome.fromCaption(chosenMultiplierName);
+        return m == null ? null : m.ordinal();
+    }
+
+    @JsonProperty("market")
+    public Integer getMarket() {
+        return this.market;
+    }
+
+    public void setMarket(Integer market) {
+        this.market = market;
+    }
+
+    /**
+     * @param winningMask The mask of the winning markets of the match of the bet (see MarketOutcome).
+     * @return True if the bet is won, false if it is lost or its market does not exist.
+     */
+    public boolean checkWin(int winningMask) {
+        return this.market != null && (winningMask & (1 << this.market)) != 0;
     }
     public void setWin(Integer win){
         this.win = win;
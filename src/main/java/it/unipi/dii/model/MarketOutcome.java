@@ -0,0 +1,101 @@
+package it.unipi.dii.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The 23 supported markets (multipliers) of a match.
+ * The ordinal of a market is also the index of its multiplier in Match.multipliers and its bit in the winning mask:
+ * the final score of a match yields a single 32-bit mask of the winning markets,
+ * so the evaluation of any bet on that match is a bit test.
+ */
+public enum MarketOutcome {
+    HOME_WIN("1", (h, a) -> h > a),
+    AWAY_WIN("2", (h, a) -> h < a),
+    DRAW("X", (h, a) -> h == a),
+    HOME_WIN_OR_DRAW("1X", (h, a) -> h >= a),
+    AWAY_WIN_OR_DRAW("X2", (h, a) -> h <= a),
+    NO_DRAW("12", (h, a) -> h != a),
+    HOME_WIN_BOTH_SCORE("1G", (h, a) -> h > a && a > 0),
+    AWAY_WIN_BOTH_SCORE("2G", (h, a) -> h < a && h > 0),
+    BOTH_SCORE("GG", (h, a) -> a > 0 && h > 0),
+    DRAW_BOTH_SCORE("XG", (h, a) -> h == a && h > 0),
+    NO_GOAL("NG", (h, a) -> h == 0 && a == 0),
+    OVER_0_5("Over0/5", (h, a) -> h + a > 0),
+    OVER_1_5("Over1/5", (h, a) -> h + a > 1),
+    OVER_2_5("Over2/5", (h, a) -> h + a > 2),
+    OVER_3_5("Over3/5", (h, a) -> h + a > 3),
+    OVER_4_5("Over4/5", (h, a) -> h + a > 4),
+    OVER_5_5("Over5/5", (h, a) -> h + a > 5),
+    UNDER_0_5("Under0/5", (h, a) -> h + a == 0),
+    UNDER_1_5("Under1/5", (h, a) -> h + a < 2),
+    UNDER_2_5("Under2/5", (h, a) -> h + a < 3),
+    UNDER_3_5("Under3/5", (h, a) -> h + a < 4),
+    UNDER_4_5("Under4/5", (h, a) -> h + a < 5),
+    UNDER_5_5("Under5/5", (h, a) -> h + a < 6);
+
+    /**
+     * Condition of the market on the final score.
+     */
+    private interface ScoreCondition {
+        boolean test(int homeGoals, int awayGoals);
+    }
+
+    private static final Map<String, MarketOutcome> byCaption = new HashMap<>();
+
+    static {
+        for (MarketOutcome m : values()) {
+            byCaption.put(m.caption, m);
+        }
+    }
+
+    private final String caption;
+    private final ScoreCondition condition;
+
+    MarketOutcome(String caption, ScoreCondition condition) {
+        this.caption = caption;
+        this.condition = condition;
+    }
+
+    /**
+     * @return The caption of the market (the name of the multiplier, e.g. "Over2/5").
+     */
+    public String getCaption() {
+        return this.caption;
+    }
+
+    /**
+     * @param caption The name of the multiplier.
+     * @return The related market, or null if the caption does not exist.
+     */
+    public static MarketOutcome fromCaption(String caption) {
+        return caption == null ? null : byCaption.get(caption);
+    }
+
+    /**
+     * @param homeGoals The final goals of the home team.
+     * @param awayGoals The final goals of the away team.
+     * @return The mask of the winning markets, the bit i is set if the market with ordinal i wins.
+     */
+    public static int winningMask(int homeGoals, int awayGoals) {
+        int mask = 0;
+        for (MarketOutcome m : values()) {
+            if (m.condition.test(homeGoals, awayGoals)) {
+                mask |= m.bit();
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * @param winningMask The mask of the winning markets of a match.
+     * @return True if this market is a winning one.
+     */
+    public boolean wins(int winningMask) {
+        return (winningMask & bit()) != 0;
+    }
+
+    private int bit() {
+        return 1 << this.ordinal();
+    }
+}
@@ -163,6 +163,26 @@ public class Match {
      * false otherwise or in the case that the multiplier caption does not exist.
      */
     public boolean checkMultiplierWin(String multiplierName) {
+        MarketOutcome market = MarketOutcome.fromCaption(multiplierName);
+        return market != null && market.wins(computeWinningMask());
+    }
+
+    /**
+     * @return The mask of the winning markets of the match with the current score (see MarketOutcome).
+     */
+    public int computeWinningMask() {
+        this.cleanGoals();
+        return MarketOutcome.winningMask(this.home_goals, this.away_goals);
+    }
+
+    /**
+     * The evaluation of a multiplier used before the winning mask, kept only for the comparison in
+     * testing/marketEvaluationBenchmark.
+     *
+     * @param multiplierName The caption of the multiplier to check.
+     * @return True if the multiplier condition are met by the match.
+     */
+    public boolean checkMultiplierWinWithSwitch(String multiplierName) {
         this.cleanGoals();
         boolean res = false;
         switch (multiplierName) {
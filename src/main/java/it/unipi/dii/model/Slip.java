@@ -158,6 +158,44 @@ public class Slip {
         return total;
     }
 
+    /**
+     * @return The number of bets of the slip not evaluated yet.
+     */
+    public int countOpenLegs() {
+        int open = 0;
+        for (Bet bet : this.betsList) {
+            if (bet.getWin() == -1) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    /**
+     * @return The product of the multipliers of the bets already won.
+     */
+    public double computeRunningMultiplier() {
+        double total = 1;
+        for (Bet bet : this.betsList) {
+            if (bet.getWin() == 1) {
+                total = total * bet.getChosenMultiplierValue();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return True if at least one bet of the slip is lost.
+     */
+    public boolean checkLost() {
+        for (Bet bet : this.betsList) {
+            if (bet.getWin() == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Set the win field to -1 to all the bets of the slip and to the slip.
      * Moreover, it set amount to 0.
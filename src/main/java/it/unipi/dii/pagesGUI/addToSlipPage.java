@@ -259,10 +259,17 @@ public class addToSlipPage {
                     errorLabel.getStyleClass().add("error");
                     slip.getChildren().add(errorLabel);
                     addButton.setDisable(true);
+                    slipRedisDAO.refreshTTL(Session.getUsername(), id.toString());
+                } else if (x == -1) {
+                    // The slip is expired (or deleted): the bet has not been added, the dialog stays open.
+                    Label errorLabel = new Label("Your slip has expired");
+                    errorLabel.getStyleClass().add("error");
+                    slip.getChildren().add(errorLabel);
+                    addButton.setDisable(true);
                 }else{
                     live.getDialog().close();
+                    slipRedisDAO.refreshTTL(Session.getUsername(), id.toString());
                 }
-                slipRedisDAO.refreshTTL(Session.getUsername(), id.toString());
             }
 
         });
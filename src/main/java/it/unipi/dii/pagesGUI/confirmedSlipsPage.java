@@ -1,6 +1,5 @@
 package it.unipi.dii.pagesGUI;
 
-import com.mongodb.client.AggregateIterable;
 import it.unipi.dii.dao.mongo.SlipMongoDBDAO;
 import it.unipi.dii.model.Slip;
 import javafx.geometry.Insets;
@@ -13,8 +12,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-import static it.unipi.dii.utility.converters.jsonToDocumentConverter.convertDocumentToJson;
-import static it.unipi.dii.utility.converters.jsonToObjectConverter.convertJsonToObject;
 
 public class confirmedSlipsPage {
 
@@ -70,23 +67,9 @@ public class confirmedSlipsPage {
 
         SlipMongoDBDAO slipMongoDBDAO = new SlipMongoDBDAO();
         slipMongoDBDAO.openConnection();
-        AggregateIterable<Document> docs = slipMongoDBDAO.mongoDB.getCollection("slips").aggregate(pipeline);
-        int p = 0;
+        // The codec decodes also the win value of each bet (-1 if it is not present).
         List<Slip> slips = new ArrayList<>();
-        for (Document document : docs) {
-            slips.add(convertJsonToObject(convertDocumentToJson(document), Slip.class));
-
-            // Set the win value for each bet inside a slip.
-            List<Document> betsList = document.getList("betsList", Document.class);
-
-            int x = 0;
-            for (Document betDocument : betsList) {
-                int winValue = betDocument.getInteger("win", -1); // -1 if it is not present.
-                slips.get(p).findBetsList().get(x).setWin(winValue);
-                x++;
-            }
-            p++;
-        }
+        slipMongoDBDAO.mongoDB.getCollection("slips", Slip.class).aggregate(pipeline).into(slips);
 
         slipMongoDBDAO.closeConnection();
 
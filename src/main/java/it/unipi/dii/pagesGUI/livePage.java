@@ -22,8 +22,6 @@ import java.util.Objects;
 
 import static it.unipi.dii.utility.dateTimes.differenceDays;
 import static it.unipi.dii.utility.dateTimes.getCurrentDateString;
-import static it.unipi.dii.utility.converters.jsonToDocumentConverter.convertDocumentToJson;
-import static it.unipi.dii.utility.converters.jsonToObjectConverter.convertJsonToObject;
 
 public class livePage {
     private final Stage dialog = new Stage();
@@ -34,6 +32,9 @@ public class livePage {
     public StackPane getContent(boolean registered) {
         // This is the main container of Live Football Results page.
         StackPane stackPane = new StackPane();
+        // The scores of the page are updated by the events of the matches.
+        liveScoreUpdater.getInstance().clear();
+        liveScoreUpdater.getInstance().start();
 
         // Add white space as a node before the title.
         Region topSpacer = new Region();
@@ -104,7 +105,7 @@ public class livePage {
                 new Document("$project",
                         new Document("_id", 0L)));
 
-        AggregateIterable<Document> docs = md.mongoDB.getCollection("matches").aggregate(pipeline);
+        AggregateIterable<Match> docs = md.mongoDB.getCollection("matches", Match.class).aggregate(pipeline);
 
         int it = 0;
         int es = 0;
@@ -112,25 +113,24 @@ public class livePage {
         int fr = 0;
         int gb = 0;
 
-        for (Document document : docs) {
-            Match m = convertJsonToObject(convertDocumentToJson(document), Match.class);
+        for (Match m : docs) { // Decoded straight from BSON.
 
             assert m != null;
             if((m.getStatus().equals("IN_PLAY") || m.getStatus().equals("PAUSED")) && differenceDays(m.getMatchDate(), getCurrentDateString()) <= 0) {
                 if (Objects.equals(m.getCompetition_id(), "IT1")) {
-                    gridPane.add(createColumn(registered, m.getMatchDate(), "Serie A", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 1, it);
+                    gridPane.add(createColumn(m.getMatchID(), registered, m.getMatchDate(), "Serie A", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 1, it);
                     it++;
                 } else if (Objects.equals(m.getCompetition_id(), "ES1")) {
-                    gridPane.add(createColumn(registered, (m.getMatchDate()), "La Liga", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 3, es);
+                    gridPane.add(createColumn(m.getMatchID(), registered, (m.getMatchDate()), "La Liga", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 3, es);
                     es++;
                 } else if (Objects.equals(m.getCompetition_id(), "GB1")) {
-                    gridPane.add(createColumn(registered, (m.getMatchDate()), "Premier League", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 0, gb);
+                    gridPane.add(createColumn(m.getMatchID(), registered, (m.getMatchDate()), "Premier League", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 0, gb);
                     gb++;
                 } else if (Objects.equals(m.getCompetition_id(), "L1")) {
-                    gridPane.add(createColumn(registered, (m.getMatchDate()), "Bundesliga", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 2, ge);
+                    gridPane.add(createColumn(m.getMatchID(), registered, (m.getMatchDate()), "Bundesliga", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 2, ge);
                     ge++;
                 } else if (Objects.equals(m.getCompetition_id(), "FR1")) {
-                    gridPane.add(createColumn(registered, (m.getMatchDate()), "Ligue 1", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 4, fr);
+                    gridPane.add(createColumn(m.getMatchID(), registered, (m.getMatchDate()), "Ligue 1", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 4, fr);
                     fr++;
                 }
             }
@@ -140,7 +140,7 @@ public class livePage {
         return gridPane;
     }
 
-    public VBox createColumn(boolean registered, String matchday, String league, String team1, String team2, String score1, String score2, String minutes,  List<Multiplier> Multipliers) {
+    public VBox createColumn(Integer matchID, boolean registered, String matchday, String league, String team1, String team2, String score1, String score2, String minutes,  List<Multiplier> Multipliers) {
         VBox column = new VBox();
         column.setAlignment(Pos.CENTER);
         column.setSpacing(20);
@@ -152,13 +152,13 @@ public class livePage {
         VBox contentBox = new VBox();
         contentBox.getChildren().addAll(
                 titleLabel,
-                createMatchResult(registered, matchday, league, team1, team2, score1, score2, minutes, Multipliers));
+                createMatchResult(matchID, registered, matchday, league, team1, team2, score1, score2, minutes, Multipliers));
         column.getChildren().add(contentBox);
 
         return column;
     }
 
-    public VBox createMatchResult(boolean registered, String matchday, String league, String team1, String team2, String score1, String score2, String minutes, List<Multiplier> Multipliers) {
+    public VBox createMatchResult(Integer matchID, boolean registered, String matchday, String league, String team1, String team2, String score1, String score2, String minutes, List<Multiplier> Multipliers) {
         // Single row for the match result.
         VBox form = new VBox();
         form.getStyleClass().addAll("form", "form-container-slips");
@@ -243,6 +243,7 @@ public class livePage {
             VBox.setVgrow(bottomSpacer, Priority.ALWAYS);
             form.getChildren().add(bottomSpacer);
         }
+        liveScoreUpdater.getInstance().register(matchID, form, minutesLabel, score1Label, score2Label);
         return form;
     }
 
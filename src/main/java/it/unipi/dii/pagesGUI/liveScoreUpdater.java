@@ -0,0 +1,115 @@
+package it.unipi.dii.pagesGUI;
+
+import it.unipi.dii.dao.redis.MatchEventsRedisDAO;
+import javafx.application.Platform;
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.layout.VBox;
+import org.bson.Document;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps the cells of the matches shown by livePage and matchesPage aligned with the updates of the matches:
+ * a background thread receives the events of MatchEventsRedisDAO and patches only the cells of the changed matches,
+ * on the JavaFX thread. The cells are registered when a page is built and forgotten when the next one is built.
+ */
+public class liveScoreUpdater {
+    private static final long RECONNECT_DELAY_MS = 5000;
+    private static final liveScoreUpdater INSTANCE = new liveScoreUpdater();
+
+    // Cells of the page currently shown, used only by the JavaFX thread.
+    private final Map<Integer, cell> cells = new HashMap<>();
+    private Thread subscriber = null;
+
+    private static class cell {
+        private final VBox form;
+        private final Label status;
+        private final Label homeGoals;
+        private final Label awayGoals;
+
+        private cell(VBox form, Label status, Label homeGoals, Label awayGoals) {
+            this.form = form;
+            this.status = status;
+            this.homeGoals = homeGoals;
+            this.awayGoals = awayGoals;
+        }
+    }
+
+    private liveScoreUpdater() {
+    }
+
+    /**
+     * @return The single instance of the updater.
+     */
+    public static liveScoreUpdater getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Start the subscription to the events, if it has not been started yet.
+     */
+    public synchronized void start() {
+        if (this.subscriber != null) {
+            return;
+        }
+        this.subscriber = new Thread(this::listen, "live-score-updater");
+        this.subscriber.setDaemon(true); // It doesn't keep the application open.
+        this.subscriber.start();
+    }
+
+    /**
+     * Forget the cells of the previous page, it must be called on the JavaFX thread.
+     */
+    public void clear() {
+        this.cells.clear();
+    }
+
+    /**
+     * Register the cell of a match, it must be called on the JavaFX thread.
+     */
+    public void register(Integer matchID, VBox form, Label status, Label homeGoals, Label awayGoals) {
+        if (matchID != null) {
+            this.cells.put(matchID, new cell(form, status, homeGoals, awayGoals));
+        }
+    }
+
+    private void listen() {
+        MatchEventsRedisDAO events = new MatchEventsRedisDAO();
+        while (true) {
+            try {
+                events.subscribe(new MatchEventsRedisDAO.subscription(e -> Platform.runLater(() -> patch(e))));
+            } catch (Exception e) {
+                System.out.println("Live scores not available: " + e.getMessage());
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY_MS); // The connection has been lost, try again.
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void patch(Document event) {
+        cell c = this.cells.get(event.getInteger("matchID"));
+        if (c == null) {
+            return; // The match is not shown.
+        }
+        final String status = event.getString("status");
+        c.status.setText(status);
+        if (event.getInteger("home_goals") != null) {
+            c.homeGoals.setText(event.getInteger("home_goals").toString());
+        }
+        if (event.getInteger("away_goals") != null) {
+            c.awayGoals.setText(event.getInteger("away_goals").toString());
+        }
+        if (!Objects.equals(status, "TIMED") && !Objects.equals(status, "POSTPONED")) {
+            // The match can't be bet anymore. Its odds are set when it is inserted and never change, so they are not patched.
+            for (Node button : c.form.lookupAll(".multipliers-buttons")) {
+                button.setDisable(true);
+            }
+        }
+    }
+}
@@ -18,14 +18,15 @@ import java.util.List;
 import java.util.Objects;
 
 import static it.unipi.dii.utility.dateTimes.getCurrentDate;
-import static it.unipi.dii.utility.converters.jsonToDocumentConverter.convertDocumentToJson;
-import static it.unipi.dii.utility.converters.jsonToObjectConverter.convertJsonToObject;
 
 public class matchesPage {
     private final int DAY_LOOK_UP = 10; // Shows every match with matchDate greater that today - DAY_LOOK_UP days.
     public StackPane getContent(boolean registered) {
 
         StackPane stackPane = new StackPane();
+        // The scores of the page are updated by the events of the matches.
+        liveScoreUpdater.getInstance().clear();
+        liveScoreUpdater.getInstance().start();
 
         Region topSpacer = new Region();
         topSpacer.setPrefHeight(20);
@@ -88,7 +89,7 @@ public class matchesPage {
                 new Document("$project",
                         new Document("_id", 0L)));
 
-        AggregateIterable<Document> docs = md.mongoDB.getCollection("matches").aggregate(pipeline);
+        AggregateIterable<Match> docs = md.mongoDB.getCollection("matches", Match.class).aggregate(pipeline);
 
         // Set the row indexes.
         int it = 0;
@@ -97,8 +98,7 @@ public class matchesPage {
         int fr = 0;
         int gb = 0;
 
-        for (Document document : docs) {
-            Match m = convertJsonToObject(convertDocumentToJson(document), Match.class); // Convert the document to object.
+        for (Match m : docs) { // Decoded straight from BSON.
 
             assert m != null;
 
@@ -107,19 +107,19 @@ public class matchesPage {
             // So this function set them to 0 instead.
 
             if(Objects.equals(m.getCompetition_id(), "IT1")){
-                gridPane.add(createColumn(registered, m.getMatchDate(), "Serie A", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 1, it);
+                gridPane.add(createColumn(m.getMatchID(), registered, m.getMatchDate(), "Serie A", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 1, it);
                 it++;
             }else if(Objects.equals(m.getCompetition_id(), "ES1")){
-                gridPane.add(createColumn(registered, m.getMatchDate(), "La Liga", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 3, es);
+                gridPane.add(createColumn(m.getMatchID(), registered, m.getMatchDate(), "La Liga", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 3, es);
                 es++;
             }else if(Objects.equals(m.getCompetition_id(), "GB1")){
-                gridPane.add(createColumn(registered, m.getMatchDate(), "Premier League", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 0, gb);
+                gridPane.add(createColumn(m.getMatchID(), registered, m.getMatchDate(), "Premier League", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 0, gb);
                 gb++;
             }else if(Objects.equals(m.getCompetition_id(), "L1")){
-                gridPane.add(createColumn(registered, m.getMatchDate(), "Bundesliga", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 2, ge);
+                gridPane.add(createColumn(m.getMatchID(), registered, m.getMatchDate(), "Bundesliga", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 2, ge);
                 ge++;
             }else if(Objects.equals(m.getCompetition_id(), "FR1")){
-                gridPane.add(createColumn(registered, m.getMatchDate(), "Ligue 1", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 4, fr);
+                gridPane.add(createColumn(m.getMatchID(), registered, m.getMatchDate(), "Ligue 1", m.getTeam_home(), m.getTeam_away(), m.getHome_goals().toString(), m.getAway_goals().toString(), m.getStatus(), m.getMultipliers()), 4, fr);
                 fr++;
             }
         }
@@ -128,9 +128,9 @@ public class matchesPage {
     }
     // We create an instance of Live, and we use the
     // functions in common with the other class.
-    private VBox createColumn(boolean registered, String matchday, String league, String team1, String team2, String score1, String score2, String minutes, List<Multiplier> multipliers) {
+    private VBox createColumn(Integer matchID, boolean registered, String matchday, String league, String team1, String team2, String score1, String score2, String minutes, List<Multiplier> multipliers) {
         livePage liveInstance = new livePage();
-        return liveInstance.createColumn(registered, matchday, league, team1, team2, score1, score2, minutes, multipliers);
+        return liveInstance.createColumn(matchID, registered, matchday, league, team1, team2, score1, score2, minutes, multipliers);
     }
     private Label colorLeagueLabel(Label label) {
         livePage liveInstance = new livePage();
@@ -20,8 +20,6 @@ import java.util.List;
 import java.util.Objects;
 
 import static it.unipi.dii.utility.dateTimes.getCurrentInstant;
-import static it.unipi.dii.utility.converters.jsonToDocumentConverter.convertDocumentToJson;
-import static it.unipi.dii.utility.converters.jsonToObjectConverter.convertJsonToObject;
 
 public class pollsPage {
     private final List<pollProgressBar> progressList = new ArrayList<>();
@@ -56,13 +54,12 @@ public class pollsPage {
                             new Document("activationDate", -1L)),
                     new Document("$project",
                             new Document("_id", 0L)));
-            AggregateIterable<Document> docs = pMongo.mongoDB.getCollection("polls").aggregate(pipeline);
+            AggregateIterable<Poll> docs = pMongo.mongoDB.getCollection("polls", Poll.class).aggregate(pipeline);
 
             VBox choice;
             pollsContent.getChildren().addAll(topSpacer, titleLabel);
 
-            for (Document document : docs) {
-                Poll p = convertJsonToObject(convertDocumentToJson(document), Poll.class);
+            for (Poll p : docs) {
                 if (p != null) {
                     choice = createResult(registered, false, p.getPollName(), p.getOptions(),p.getPollID(), null);
                     choice.setMaxWidth(350);
@@ -1,9 +1,11 @@
 package it.unipi.dii.pagesGUI;
 
 import com.mongodb.client.MongoCursor;
+import it.unipi.dii.analyticsPeriodicCalculator.analyticsBuckets;
 import it.unipi.dii.analyticsPeriodicCalculator.analyticsResultModel.financialResults.financialReport;
 import it.unipi.dii.analyticsPeriodicCalculator.analyticsResultModel.seventhQuery.mainReport;
 import it.unipi.dii.dao.mongo.StatisticsMongoDBDAO;
+import it.unipi.dii.dao.redis.LiveStatsRedisDAO;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.control.Label;
@@ -13,7 +15,9 @@ import javafx.scene.layout.*;
 import org.bson.Document;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import static it.unipi.dii.utility.converters.jsonToObjectConverter.convertJsonToObject;
 import static it.unipi.dii.utility.dateTimes.*;
@@ -36,39 +40,47 @@ public class statsPage {
         StatisticsMongoDBDAO st = new StatisticsMongoDBDAO();
         st.openConnection();
 
-        List<String> financialArray = new ArrayList<>();
+        // The live counters of Redis, read with a single pipeline; the analytics of MongoDB if they are not available.
+        analyticsBuckets.summary live = null;
+        List<Document> liveBuckets = new LiveStatsRedisDAO().readMonth();
+        if (liveBuckets != null) {
+            live = new analyticsBuckets.summary();
+            for (Document d : liveBuckets) {
+                live.add(d);
+            }
+        }
 
-        try (MongoCursor<Document> cursor = st.mongoDB.getCollection("analytics")
-                .find(new Document("type", "financial").append("periodRelated", getFirstDayOfMonth().toString()))
-                .projection(new Document("_id", 0L))
-                .iterator()) {
-            financialReport f = convertJsonToObject(cursor.next().toJson(), financialReport.class);
-            assert f != null;
-            financialArray.add(String.valueOf(f.getValueList().get(0).getValue()));
-        } catch (NullPointerException e) {
-            financialArray.add("No info available!");
+        List<String> financialArray = new ArrayList<>();
+        if (live != null) {
+            financialArray.add(String.valueOf(live.getFinancial()));
+        } else {
+            readFinancial(st, financialArray);
         }
 
         List<String> appreciatedTeams = st.showMostAppreciatedTeamsPolls();
 
         List<String> appreciatedPlayers = st.showMostAppreciatedPlayersPolls();
 
-        mainReport m;
         List<String> topTeams = new ArrayList<>();
-        try (MongoCursor<Document> cursor = st.mongoDB.getCollection("analytics")
-                .find(new Document("type", "users favourite teams").append("periodRelated", getFirstDayOfMonth().toString()))
-                .projection(new Document("_id", 0L))
-                .iterator()) {
-            m = convertJsonToObject(cursor.next().toJson(), mainReport.class);
-
-            assert m != null;
-
-            for(int i = 0 ; i < m.getValueList().size() ; i++){
-                topTeams.add(m.getValueList().get(i).getChampionship_id());
-            }
+        if (live != null) {
+            topTeams.addAll(live.getFavouriteTeams(10));
+        } else {
+            readTopTeams(st, topTeams);
+        }
 
-        } catch (NullPointerException e) {
-            topTeams.clear();
+        // The last 7 whole days, composed from the results of the single days cached by the DAO (StatisticsResultCache):
+        // the past days are computed only once.
+        final String weekFrom = getCurrentDate().minusDays(7).toString();
+        final String weekTo = getCurrentDate().toString();
+        List<String> weekFinancial = new ArrayList<>();
+        List<String> weekTeams = new ArrayList<>();
+        try {
+            weekFinancial.add(String.valueOf(st.showFinancialResults(weekFrom, weekTo)));
+            weekTeams.addAll(st.showUsersFavouriteTeams(weekFrom, weekTo, 3));
+        } catch (Exception e) {
+            e.printStackTrace();
+            weekFinancial.clear();
+            weekFinancial.add("No info available!");
         }
 
         List<String> averageMatches = new ArrayList<>();
@@ -76,33 +88,26 @@ public class statsPage {
             averageMatches.add("No info");
         }
 
-        try (MongoCursor<Document> cursor = st.mongoDB.getCollection("analytics")
-                .find(new Document("type", "seventh").append("periodRelated", getFirstDayOfMonth().toString()))
-                .projection(new Document("_id", 0L))
-                .iterator()) {
-            m = convertJsonToObject(cursor.next().toJson(), mainReport.class);
-            assert m != null;
-
-            for (int i = 0; i < m.getValueList().size() ; i++) {
-                String id = m.getValueList().get(i).getChampionship_id();
-                String howMany = String.valueOf(m.getValueList().get(i).getValue());
-
-                if (Objects.equals(id, "GB1")) {
-                    averageMatches.set(0, howMany);
-                } else if (Objects.equals(id, "IT1")) {
-                    averageMatches.set(1, howMany);
-                } else if (Objects.equals(id, "L1")) {
-                    averageMatches.set(2, howMany);
-                } else if (Objects.equals(id, "ES1")) {
-                    averageMatches.set(3, howMany);
-                } else if (Objects.equals(id, "FR1")) {
-                    averageMatches.set(4, howMany);
-                }
-            }
-
-        } catch (NullPointerException e) {
-            for (int i = 0; i < CHAMPIONSHIP_NUMBER; i++) {
-                averageMatches.add("No info");
+        Map<String, String> averages = new HashMap<>();
+        if (live != null) {
+            live.getAverageMatchesForChampionship().forEach((id, howMany) -> averages.put(id, String.valueOf(howMany)));
+        } else {
+            readAverages(st, averages);
+        }
+        for (Map.Entry<String, String> e : averages.entrySet()) {
+            String id = e.getKey();
+            String howMany = e.getValue();
+
+            if (Objects.equals(id, "GB1")) {
+                averageMatches.set(0, howMany);
+            } else if (Objects.equals(id, "IT1")) {
+                averageMatches.set(1, howMany);
+            } else if (Objects.equals(id, "L1")) {
+                averageMatches.set(2, howMany);
+            } else if (Objects.equals(id, "ES1")) {
+                averageMatches.set(3, howMany);
+            } else if (Objects.equals(id, "FR1")) {
+                averageMatches.set(4, howMany);
             }
         }
 
@@ -119,12 +124,16 @@ public class statsPage {
 
         VBox topThreeTeams = createStatElement("Top bet teams by users", topTeams);
         topThreeTeams.setMaxWidth(300);
+        VBox weekFinancialResults = createStatElement("Financial results of the last 7 days", weekFinancial);
+        weekFinancialResults.setMaxWidth(300);
+        VBox weekTopTeams = createStatElement("Top bet teams of the last 7 days", weekTeams);
+        weekTopTeams.setMaxWidth(300);
 
         VBox content = new VBox();
         content.setMaxWidth(800);
         content.setAlignment(Pos.CENTER);
         content.setSpacing(20);
-        content.getChildren().addAll(topSpacer, titleLabel, financialResults, mostAppreciatedTeams, mostAppreciatedPlayers, averageMatchesForSlip, topThreeTeams, bottomSpacer);
+        content.getChildren().addAll(topSpacer, titleLabel, financialResults, mostAppreciatedTeams, mostAppreciatedPlayers, averageMatchesForSlip, topThreeTeams, weekFinancialResults, weekTopTeams, bottomSpacer);
 
         stackPane.getChildren().addAll(content);
         ScrollPane scrollPane = new ScrollPane(stackPane);
@@ -136,6 +145,54 @@ public class statsPage {
         return new StackPane(scrollPane);
     }
 
+    private void readFinancial(StatisticsMongoDBDAO st, List<String> financialArray) {
+        try (MongoCursor<Document> cursor = st.mongoDB.getCollection("analytics")
+                .find(new Document("type", "financial").append("periodRelated", getFirstDayOfMonth().toString()))
+                .projection(new Document("_id", 0L))
+                .iterator()) {
+            financialReport f = convertJsonToObject(cursor.next().toJson(), financialReport.class);
+            assert f != null;
+            financialArray.add(String.valueOf(f.getValueList().get(0).getValue()));
+        } catch (NullPointerException e) {
+            financialArray.add("No info available!");
+        }
+    }
+
+    private void readTopTeams(StatisticsMongoDBDAO st, List<String> topTeams) {
+        try (MongoCursor<Document> cursor = st.mongoDB.getCollection("analytics")
+                .find(new Document("type", "users favourite teams").append("periodRelated", getFirstDayOfMonth().toString()))
+                .projection(new Document("_id", 0L))
+                .iterator()) {
+            mainReport m = convertJsonToObject(cursor.next().toJson(), mainReport.class);
+
+            assert m != null;
+
+            for(int i = 0 ; i < m.getValueList().size() ; i++){
+                topTeams.add(m.getValueList().get(i).getChampionship_id());
+            }
+
+        } catch (NullPointerException e) {
+            topTeams.clear();
+        }
+    }
+
+    private void readAverages(StatisticsMongoDBDAO st, Map<String, String> averages) {
+        try (MongoCursor<Document> cursor = st.mongoDB.getCollection("analytics")
+                .find(new Document("type", "seventh").append("periodRelated", getFirstDayOfMonth().toString()))
+                .projection(new Document("_id", 0L))
+                .iterator()) {
+            mainReport m = convertJsonToObject(cursor.next().toJson(), mainReport.class);
+            assert m != null;
+
+            for (int i = 0; i < m.getValueList().size() ; i++) {
+                averages.put(m.getValueList().get(i).getChampionship_id(), String.valueOf(m.getValueList().get(i).getValue()));
+            }
+
+        } catch (NullPointerException e) {
+            averages.clear();
+        }
+    }
+
     protected VBox createStatElement(String title, List<String> array) {
         String[] championships = {"Premier League", "Serie A", "Bundesliga", "La Liga", "Ligue 1"};
         VBox form = new VBox();
@@ -153,6 +210,7 @@ public class statsPage {
             case "Most appreciated teams":
             case "Most appreciated  players":
             case "Top bet teams by users":
+            case "Top bet teams of the last 7 days":
                 form.getChildren().add(titleLabel);
                 for (int i = 0; i < array.size(); i++) {
                     HBox regionBox = createTeamBox(array.get(i), i);
@@ -165,6 +223,7 @@ public class statsPage {
                 form.getChildren().add(regionBox);
                 break;
             case "Financial results":
+            case "Financial results of the last 7 days":
                 form.getChildren().add(titleLabel);
                 for (int i = 0; i < array.size(); i++) {
                     HBox regionBox1 = createFinancialBox(array.get(0));
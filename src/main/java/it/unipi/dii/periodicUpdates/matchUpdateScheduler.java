@@ -0,0 +1,237 @@
+package it.unipi.dii.periodicUpdates;
+
+import it.unipi.dii.dao.base.MatchSnapshot;
+import it.unipi.dii.dao.mongo.MatchMongoDBDAO;
+import it.unipi.dii.dao.mongo.SettlementEngine;
+import it.unipi.dii.utility.sportAPI;
+import it.unipi.dii.utility.tokenBucket;
+import org.bson.Document;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static it.unipi.dii.utility.dateTimes.getCurrentInstant;
+import static it.unipi.dii.utility.dateTimes.getCurrentInstantString;
+
+/**
+ * Adaptive scheduler of the updates of the matches from the API.
+ * <ul>
+ *     <li>A league with a match IN_PLAY or PAUSED, or with a kick-off in the next minutes, is polled every
+ *     ACTIVE_PERIOD_MS; the other leagues every IDLE_PERIOD_MS, or just before their next kick-off.</li>
+ *     <li>Every request to the API takes a token of a bucket sized on the rate limit of football-data.org:
+ *     a league due without tokens waits for the next tick (the most late leagues go first).</li>
+ *     <li>The polls are executed by the single scheduler thread with a fixed delay, so two runs never overlap,
+ *     and an exception ends the run, not the schedule. A poll doesn't wait for the settlements of the matches
+ *     it finishes, they run in background (see MatchMongoDBDAO.updateLeagues()).</li>
+ *     <li>Every run is recorded in the "update_runs" collection: polled leagues, lag (delay of the poll from the
+ *     time it was due), duration, fixtures processed and skipped by MatchSnapshot, success and error.</li>
+ *     <li>At the start and every RECOVERY_PERIOD_MINUTES, the settlements left not DONE in the journal are resumed
+ *     in background (SettlementEngine.resumePendingAsync()), unless the previous recovery is still running.</li>
+ * </ul>
+ */
+public class matchUpdateScheduler {
+    private static final long TICK_SECONDS = 15;
+    public static final long ACTIVE_PERIOD_MS = 30 * 1000L; // Also the period of the refresh of MatchStatusCache in the GUI.
+    private static final long IDLE_PERIOD_MS = 30 * 60 * 1000L;
+    private static final long KICK_OFF_LEAD_MS = 15 * 60 * 1000L; // A kick-off is imminent in this time.
+    private static final long RETRY_PERIOD_MS = 60 * 1000L; // After a failed run.
+    private static final int RATE_LIMIT_PER_MINUTE = 10; // Free plan of football-data.org.
+    private static final long RECOVERY_PERIOD_MINUTES = 10;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final tokenBucket tokens = new tokenBucket(RATE_LIMIT_PER_MINUTE, RATE_LIMIT_PER_MINUTE);
+    // State of the leagues, used only by the scheduler thread.
+    private final Map<String, Long> nextDue = new LinkedHashMap<>();
+    private final Map<String, Long> lastPolled = new HashMap<>();
+    private Map<String, Instant> nextActivity = new HashMap<>(); // Keyed by competition_id.
+    private CompletableFuture<?> recovery = CompletableFuture.completedFuture(null);
+
+    // Metrics.
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private volatile long lastLagMs = 0;
+    private volatile long maxLagMs = 0;
+    private volatile long lastDurationMs = 0;
+
+    public matchUpdateScheduler() {
+        final long now = System.currentTimeMillis();
+        for (String league : sportAPI.getLeagues()) {
+            this.nextDue.put(league, now); // Every league is polled at the start.
+        }
+    }
+
+    public void start() {
+        this.scheduler.scheduleWithFixedDelay(this::recover, 0, RECOVERY_PERIOD_MINUTES, TimeUnit.MINUTES);
+        this.scheduler.scheduleWithFixedDelay(this::tick, 0, TICK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void shutdown() {
+        this.scheduler.shutdown();
+    }
+
+    private void tick() {
+        try {
+            final long now = System.currentTimeMillis();
+            List<String> due = new ArrayList<>();
+            for (Map.Entry<String, Long> e : this.nextDue.entrySet()) {
+                if (e.getValue() <= now) {
+                    due.add(e.getKey());
+                }
+            }
+            if (due.isEmpty()) {
+                return;
+            }
+            due.sort(Comparator.comparing(this.nextDue::get));
+            List<String> polled = new ArrayList<>();
+            for (String league : due) {
+                if (this.tokens.tryAcquire()) {
+                    polled.add(league);
+                } else {
+                    this.rateLimited.incrementAndGet(); // Still due at the next tick.
+                }
+            }
+            if (!polled.isEmpty()) {
+                runOnce(polled, now - this.nextDue.get(polled.get(0)));
+            }
+        } catch (Exception e) {
+            e.printStackTrace(); // The schedule goes on.
+        }
+    }
+
+    private void recover() {
+        if (!this.recovery.isDone()) {
+            return; // The previous recovery is still running.
+        }
+        // The polls don't wait for the recovery, it runs on the coordinator of the settlements.
+        this.recovery = SettlementEngine.resumePendingAsync().whenComplete((reports, e) -> {
+            if (e != null) {
+                e.printStackTrace(); // Resumed at the next recovery.
+                return;
+            }
+            for (SettlementEngine.Report report : reports) {
+                System.out.println("Resumed " + report);
+            }
+        });
+    }
+
+    private void runOnce(List<String> leagues, long lagMs) {
+        final String startedAt = getCurrentInstantString();
+        final long start = System.nanoTime();
+        final MatchSnapshot snapshot = MatchSnapshot.getInstance();
+        final long processedBefore = snapshot.getProcessed();
+        final long skippedBefore = snapshot.getSkipped();
+        String error = null;
+        MatchMongoDBDAO dao = new MatchMongoDBDAO();
+        try {
+            dao.openConnection();
+            dao.updateLeagues(leagues);
+            this.nextActivity = dao.getNextActivity();
+        } catch (Exception e) {
+            e.printStackTrace();
+            error = e.toString();
+        }
+        final long durationMs = (System.nanoTime() - start) / 1_000_000;
+        final long now = System.currentTimeMillis();
+        for (String league : leagues) {
+            this.lastPolled.put(league, now);
+            if (error != null) {
+                this.nextDue.put(league, now + RETRY_PERIOD_MS);
+            }
+        }
+        if (error == null) {
+            reschedule(now);
+        }
+
+        this.runs.incrementAndGet();
+        if (error != null) {
+            this.failures.incrementAndGet();
+        }
+        this.lastLagMs = lagMs;
+        this.maxLagMs = Math.max(this.maxLagMs, lagMs);
+        this.lastDurationMs = durationMs;
+
+        try {
+            dao.mongoDB.getCollection("update_runs").insertOne(new Document("startedAt", startedAt)
+                    .append("leagues", leagues)
+                    .append("lagMs", lagMs)
+                    .append("durationMs", durationMs)
+                    .append("processed", snapshot.getProcessed() - processedBefore)
+                    .append("skipped", snapshot.getSkipped() - skippedBefore)
+                    .append("tokensLeft", this.tokens.available())
+                    .append("success", error == null)
+                    .append("error", error));
+        } catch (Exception e) {
+            e.printStackTrace(); // The run is not recorded, the next ones will be.
+        } finally {
+            dao.closeConnection();
+        }
+        System.out.println(this);
+    }
+
+    /**
+     * Compute the next poll of every league from the activity of its matches.
+     */
+    private void reschedule(long now) {
+        final Instant appNow = getCurrentInstant();
+        for (String league : this.nextDue.keySet()) {
+            if (!this.lastPolled.containsKey(league)) {
+                continue; // Never polled, still due.
+            }
+            final long last = this.lastPolled.get(league);
+            Instant activity = this.nextActivity.get(sportAPI.competitionOf(league));
+            if (activity == null) {
+                this.nextDue.put(league, last + IDLE_PERIOD_MS); // No next matches in the database.
+                continue;
+            }
+            final long untilActivity = Duration.between(appNow, activity).toMillis();
+            if (untilActivity <= KICK_OFF_LEAD_MS) {
+                this.nextDue.put(league, last + ACTIVE_PERIOD_MS);
+            } else {
+                this.nextDue.put(league, Math.min(last + IDLE_PERIOD_MS, now + untilActivity - KICK_OFF_LEAD_MS));
+            }
+        }
+    }
+
+    public long getRuns() {
+        return this.runs.get();
+    }
+
+    public long getFailures() {
+        return this.failures.get();
+    }
+
+    public long getRateLimited() {
+        return this.rateLimited.get();
+    }
+
+    public long getLastLagMs() {
+        return this.lastLagMs;
+    }
+
+    public long getMaxLagMs() {
+        return this.maxLagMs;
+    }
+
+    public long getLastDurationMs() {
+        return this.lastDurationMs;
+    }
+
+    @Override
+    public String toString() {
+        return "matchUpdateScheduler{" +
+                "runs=" + getRuns() +
+                ", failures=" + getFailures() +
+                ", rateLimited=" + getRateLimited() +
+                ", lastLagMs=" + getLastLagMs() +
+                ", maxLagMs=" + getMaxLagMs() +
+                ", lastDurationMs=" + getLastDurationMs() +
+                '}';
+    }
+}
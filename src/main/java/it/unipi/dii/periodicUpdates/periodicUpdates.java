@@ -11,17 +11,19 @@ public class periodicUpdates {
     }
 
     private static void launchPeriodicUpdate(){
-        ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
-
-        // Every minute, the system checks if there are any matches updates.
-        UpdateMatchPeriodicThread updateMatchTask = new UpdateMatchPeriodicThread();
-        executorService.scheduleAtFixedRate(updateMatchTask, 0, 1, TimeUnit.MINUTES);
+        // The leagues with live matches or imminent kick-offs are updated every 30 seconds, the others rarely.
+        matchUpdateScheduler matchScheduler = new matchUpdateScheduler();
+        matchScheduler.start();
 
         // Every 5 hours, the system checks if some poll has to be deleted from Redis.
+        ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
         UpdatePollPeriodicThread updatePollTask = new UpdatePollPeriodicThread();
-        executorService.scheduleAtFixedRate(updatePollTask, 0, 5, TimeUnit.HOURS);
+        executorService.scheduleWithFixedDelay(() -> {
+            try {
+                updatePollTask.run();
+            } catch (Exception e) {
+                e.printStackTrace(); // An exception ends the run, not the schedule.
+            }
+        }, 0, 5, TimeUnit.HOURS);
     }
 }
-
-
-
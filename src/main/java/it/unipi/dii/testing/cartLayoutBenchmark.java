@@ -0,0 +1,132 @@
+package it.unipi.dii.testing;
+
+import it.unipi.dii.dao.base.RedisPoolManager;
+import it.unipi.dii.dao.redis.SlipRedisDAO;
+import it.unipi.dii.model.Bet;
+import it.unipi.dii.model.Slip;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static it.unipi.dii.dao.redis.SlipRedisDAO.writeToJsonFileBets;
+import static it.unipi.dii.utility.dateTimes.getCurrentInstantString;
+
+// BENCHMARK OF THE LOAD OF A CART PAGE: OLD LAYOUT (SCAN + three GETs for each slip) VERSUS HASH LAYOUT.
+// It works on a scratch user in a scratch database of Redis (SCRATCH_DB), so the carts of the real users are not
+// touched by the migration; the keys are deleted at the end.
+// The round trips are counted on the client: every command of the old layout is one, while the hash layout
+// does the reads of SlipRedisDAO.getListFromUser(), SMEMBERS and one pipeline of HGETALL (one sync()).
+public class cartLayoutBenchmark {
+    private static final int SCRATCH_DB = 15;
+    private static final String SCRATCH_USER = "benchmark_cart_user";
+    private static final int SLIPS = 10;
+    private static final int BETS_PER_SLIP = 3;
+    private static final int PAGE_LOADS = 200;
+
+    public static void main(String[] args) throws Exception {
+        RedisPoolManager.useDatabase(SCRATCH_DB);
+        SlipRedisDAO dao = new SlipRedisDAO();
+        List<Bet> bets = new ArrayList<>();
+        for (int i = 0; i < BETS_PER_SLIP; i++) {
+            Bet bet = new Bet(-1, 1.5, "1", getCurrentInstantString());
+            bet.setTeamHome("Home " + i);
+            bet.setTeamAway("Away " + i);
+            bets.add(bet);
+        }
+        String jsonBets = writeToJsonFileBets(bets);
+
+        // Old layout.
+        try (Jedis jedis = dao.getConnection()) {
+            for (int id = 1; id <= SLIPS; id++) {
+                jedis.setex(dao.slipBetsKeysNS(SCRATCH_USER, id), SlipRedisDAO.EXPIRATION_IN_SEC, jsonBets);
+                jedis.setex(dao.slipbetAmountKeysNS(SCRATCH_USER, id), SlipRedisDAO.EXPIRATION_IN_SEC, "10.0");
+                jedis.setex(dao.slipcreationDateKeysNS(SCRATCH_USER, id), SlipRedisDAO.EXPIRATION_IN_SEC, getCurrentInstantString());
+            }
+
+            long roundTrips = 0;
+            final long start = System.nanoTime();
+            for (int n = 0; n < PAGE_LOADS; n++) {
+                roundTrips += legacyPageLoad(dao, jedis);
+            }
+            final long elapsed = System.nanoTime() - start;
+            report("Old layout", roundTrips, elapsed);
+        }
+
+        // New layout, the same slips migrated (only the scratch database is scanned).
+        dao.migrateLegacySlips();
+        List<Slip> migrated = dao.getListFromUser(SCRATCH_USER);
+        assert migrated.size() == SLIPS;
+        try (Jedis jedis = dao.getConnection()) {
+            long roundTrips = 0;
+            final long start = System.nanoTime();
+            for (int n = 0; n < PAGE_LOADS; n++) {
+                roundTrips += hashPageLoad(dao, jedis);
+            }
+            final long elapsed = System.nanoTime() - start;
+            report("Hash layout", roundTrips, elapsed);
+        }
+
+        for (int id = 1; id <= SLIPS; id++) {
+            dao.delete_Slip(SCRATCH_USER, id);
+        }
+        SlipRedisDAO.closePool();
+    }
+
+    /**
+     * The read of the cart as it was done before the hash layout, one round trip for each command.
+     *
+     * @return The number of round trips.
+     */
+    private static int legacyPageLoad(SlipRedisDAO dao, Jedis jedis) {
+        int slips = 0;
+        int roundTrips = 0;
+        ScanParams scanParams = new ScanParams().match(dao.UsernameKeysNS(SCRATCH_USER) + "*:bets");
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            ScanResult<String> scanResult = jedis.scan(cursor, scanParams);
+            roundTrips++;
+            for (String key : scanResult.getResult()) {
+                Integer slipID = Integer.parseInt(key.split(":")[2]);
+                jedis.get(dao.slipBetsKeysNS(SCRATCH_USER, slipID));
+                jedis.get(dao.slipbetAmountKeysNS(SCRATCH_USER, slipID));
+                jedis.get(dao.slipcreationDateKeysNS(SCRATCH_USER, slipID));
+                roundTrips += 3;
+                slips++;
+            }
+            cursor = scanResult.getCursor();
+        } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+        assert slips == SLIPS;
+        return roundTrips;
+    }
+
+    /**
+     * The read of the cart with the hash layout, the same of SlipRedisDAO.getListFromUser().
+     *
+     * @return The number of round trips.
+     */
+    private static int hashPageLoad(SlipRedisDAO dao, Jedis jedis) {
+        List<String> slipIDs = new ArrayList<>(jedis.smembers(dao.userSlipsKeysNS(SCRATCH_USER)));
+        int roundTrips = 1;
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<Map<String, String>>> responses = new ArrayList<>();
+        for (String slipID : slipIDs) {
+            responses.add(pipeline.hgetAll(dao.slipHashKeysNS(SCRATCH_USER, Integer.parseInt(slipID))));
+        }
+        pipeline.sync();
+        roundTrips++;
+        assert responses.size() == SLIPS;
+        return roundTrips;
+    }
+
+    private static void report(String name, long roundTrips, long elapsedNanos) {
+        System.out.println(name + ": " + String.format("%.1f", (double) roundTrips / PAGE_LOADS) + " round trips for each page load, "
+                + String.format("%.3f", elapsedNanos / 1_000_000.0 / PAGE_LOADS) + " ms for each page load ("
+                + SLIPS + " slips, " + BETS_PER_SLIP + " bets each).");
+    }
+}
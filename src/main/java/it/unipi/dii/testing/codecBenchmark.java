@@ -0,0 +1,65 @@
+package it.unipi.dii.testing;
+
+import it.unipi.dii.model.Bet;
+import it.unipi.dii.model.Slip;
+import it.unipi.dii.utility.codecs.SlipCodec;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import static it.unipi.dii.utility.converters.jsonToObjectConverter.convertJsonToObject;
+import static it.unipi.dii.utility.converters.objectToJsonStringConverter.convertObjectToJsonString;
+import static it.unipi.dii.utility.dateTimes.getCurrentInstantString;
+
+// MICRO-BENCHMARK OF THE MAPPING OF A SLIP: JSON CONVERTERS VERSUS BSON CODEC.
+// It works only in memory, no database is needed.
+public class codecBenchmark {
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 100000;
+    private static final int BETS = 10;
+
+    public static void main(String[] args) {
+        Slip slip = new Slip("benchmark_user", getCurrentInstantString(), getCurrentInstantString(), 10);
+        for (int i = 0; i < BETS; i++) {
+            Bet bet = new Bet(i, 1.5 + i, "1", getCurrentInstantString());
+            bet.setTeamHome("Home " + i);
+            bet.setTeamAway("Away " + i);
+            bet.setCompetition_id("IT1");
+            slip.findBetsList().add(bet);
+        }
+
+        SlipCodec codec = new SlipCodec();
+        Document document = Document.parse(convertObjectToJsonString(slip));
+        BsonDocument bsonDocument = new BsonDocument();
+        codec.encode(new BsonDocumentWriter(bsonDocument), slip, EncoderContext.builder().build());
+
+        // Writes.
+        run("Write with converters", () -> Document.parse(convertObjectToJsonString(slip)));
+        run("Write with codec", () -> codec.encode(new BsonDocumentWriter(new BsonDocument()), slip, EncoderContext.builder().build()));
+
+        // Reads.
+        run("Read with converters", () -> convertJsonToObject(document.toJson(), Slip.class));
+        run("Read with codec", () -> codec.decode(new BsonDocumentReader(bsonDocument), DecoderContext.builder().build()));
+
+        // The codec must give back the same slip, bets fields included.
+        Slip decoded = codec.decode(new BsonDocumentReader(bsonDocument), DecoderContext.builder().build());
+        assert decoded.equals(slip);
+        assert decoded.findBetsList().get(0).getCompetitionId().equals("IT1");
+    }
+
+    private static void run(String name, Runnable task) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            task.run();
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            task.run();
+        }
+        final long elapsed = System.nanoTime() - start;
+        System.out.println(name + ": " + String.format("%.2f", elapsed / 1000.0 / ITERATIONS) + " us for each slip ("
+                + BETS + " bets).");
+    }
+}
@@ -0,0 +1,152 @@
+package it.unipi.dii.testing;
+
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.MongoCollection;
+import it.unipi.dii.dao.base.StatisticsResultCache;
+import it.unipi.dii.dao.mongo.StatisticsMongoDBDAO;
+import org.bson.Document;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+import static it.unipi.dii.utility.mongoUtility.createIndex;
+import static it.unipi.dii.utility.mongoUtility.deactivateMongoDBNotifications;
+
+// TIMING BENCHMARK OF THE FAVOURITE TEAMS QUERY: HOME AND AWAY AGGREGATIONS VERSUS A SINGLE AGGREGATION,
+// AND THE showUsersFavouriteTeams OF THE STATS PAGE (COMPOSED FROM THE CACHED DAY BUCKETS).
+// It works on a scratch database filled with a generated month of slips, the real slips are not touched.
+public class favouriteTeamsBenchmark {
+    private static final String SCRATCH_DATABASE = "BeansBetBenchmark";
+    private static final int DAYS = 30;
+    private static final int SLIPS_PER_DAY = 3000;
+    private static final int TEAMS = 100;
+    private static final int MAX_BETS = 6;
+    private static final int HOW_MANY_SHOW = 10;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        deactivateMongoDBNotifications();
+        StatisticsMongoDBDAO st = new StatisticsMongoDBDAO();
+        st.openConnection();
+        st.mongoDB = st.getClient().getDatabase(SCRATCH_DATABASE);
+        MongoCollection<Document> slips = st.mongoDB.getCollection("slips");
+        slips.drop();
+
+        // A month of slips.
+        System.out.println("Generation of " + DAYS * SLIPS_PER_DAY + " slips.");
+        Random random = new Random(42);
+        final Instant end = Instant.now().truncatedTo(ChronoUnit.DAYS);
+        final Instant begin = end.minus(DAYS, ChronoUnit.DAYS);
+        int slipID = 0;
+        for (int d = 0; d < DAYS; d++) {
+            List<Document> day = new ArrayList<>();
+            for (int i = 0; i < SLIPS_PER_DAY; i++) {
+                List<Document> bets = new ArrayList<>();
+                final int howManyBets = 1 + random.nextInt(MAX_BETS);
+                for (int b = 0; b < howManyBets; b++) {
+                    // Some teams are more popular than others.
+                    final int home = (int) (TEAMS * Math.pow(random.nextDouble(), 2));
+                    final int away = (home + 1 + random.nextInt(TEAMS - 1)) % TEAMS;
+                    bets.add(new Document("matchID", random.nextInt(10000))
+                            .append("teamHome", "Team " + home)
+                            .append("teamAway", "Team " + away)
+                            .append("win", -1));
+                }
+                day.add(new Document("slipID", slipID++)
+                        .append("confirmationDate", begin.plus(d, ChronoUnit.DAYS).plusSeconds(random.nextInt(86400)).toString())
+                        .append("betsList", bets));
+            }
+            slips.insertMany(day);
+        }
+        createIndex(st.mongoDB, "slips", "confirmationDate", 1);
+
+        final String dateFrom = begin.toString();
+        final String dateTo = end.toString();
+        List<String> oldResult = null;
+        List<String> newResult = null;
+        List<String> showResult = null;
+        for (int r = 0; r <= ROUNDS; r++) { // The first round is the warm-up.
+            long start = System.nanoTime();
+            oldResult = oldFavouriteTeams(slips, dateFrom, dateTo, HOW_MANY_SHOW);
+            final long oldElapsed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            newResult = st.computeUsersFavouriteTeams(dateFrom, dateTo, HOW_MANY_SHOW);
+            final long newElapsed = System.nanoTime() - start;
+
+            // The query of the stats page: from an empty cache, then from the cached days.
+            StatisticsResultCache.getInstance().invalidateAll();
+            start = System.nanoTime();
+            showResult = st.showUsersFavouriteTeams(dateFrom, dateTo, HOW_MANY_SHOW);
+            final long coldElapsed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            st.showUsersFavouriteTeams(dateFrom, dateTo, HOW_MANY_SHOW);
+            final long cachedElapsed = System.nanoTime() - start;
+
+            if (r > 0) {
+                System.out.println("Round " + r + ": home and away aggregations " + oldElapsed / 1_000_000
+                        + " ms, single aggregation " + newElapsed / 1_000_000
+                        + " ms, showUsersFavouriteTeams " + coldElapsed / 1_000_000
+                        + " ms (empty cache), " + cachedElapsed / 1_000_000 + " ms (cached days).");
+            }
+        }
+        System.out.println("Home and away aggregations: " + oldResult);
+        System.out.println("Single aggregation (home and away bets counted): " + newResult);
+        System.out.println("showUsersFavouriteTeams (from the day buckets): " + showResult);
+
+        st.mongoDB.drop();
+        st.closeConnection();
+    }
+
+    /**
+     * The previous implementation of showUsersFavouriteTeams, kept only for the comparison:
+     * the away aggregation is executed again for every home team.
+     */
+    private static List<String> oldFavouriteTeams(MongoCollection<Document> slips_coll, String dateFrom, String dateTo, int howManyShow) {
+        AggregateIterable<Document> docHome = slips_coll.aggregate(teamPipeline("$betsList.teamHome", dateFrom, dateTo));
+        AggregateIterable<Document> docAway = slips_coll.aggregate(teamPipeline("$betsList.teamAway", dateFrom, dateTo));
+
+        List<String> doc = new ArrayList<>();
+        int counter = 0;
+        for (Document document : docHome) {
+            long howManyValue = document.getLong("howMany");
+            for (Document documentA : docAway) {
+                if (Objects.equals(document.getString("_id"), documentA.getString("_id"))) {
+                    howManyValue = howManyValue + document.getLong("howMany");
+                }
+            }
+            document.put("howMany", howManyValue);
+            doc.add(document.getString("_id"));
+            counter++;
+            if (counter == howManyShow) {
+                break;
+            }
+        }
+        return doc;
+    }
+
+    private static List<Document> teamPipeline(String team, String dateFrom, String dateTo) {
+        return Arrays.asList(new Document("$match",
+                        new Document("confirmationDate",
+                                new Document("$gt", dateFrom)
+                                        .append("$lt", dateTo))),
+                new Document("$unwind",
+                        new Document("path", "$betsList")),
+                new Document("$project",
+                        new Document("comp", team)
+                                .append("slip", "$slipID")
+                                .append("_id", 0L)),
+                new Document("$group",
+                        new Document("_id", "$comp")
+                                .append("howMany",
+                                        new Document("$sum", 1L))),
+                new Document("$sort",
+                        new Document("howMany", -1L)));
+    }
+}
@@ -0,0 +1,97 @@
+package it.unipi.dii.testing;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import it.unipi.dii.dao.base.BaseMongoDAO;
+import it.unipi.dii.dao.base.IdAllocator;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static it.unipi.dii.utility.mongoUtility.deactivateMongoDBNotifications;
+
+// CONTENTION BENCHMARK OF THE ID ALLOCATION: "getLastID + 1" VERSUS IdAllocator.
+// It works on a scratch collection and on a scratch counter, no real ID is consumed.
+public class idAllocatorBenchmark {
+    private static final String SCRATCH_COLLECTION = "benchmark_ids";
+    private static final String SCRATCH_SEQUENCE = "benchmark_ids";
+    private static final int THREADS = 16;
+    private static final int INSERTS_PER_THREAD = 200;
+
+    public static void main(String[] args) throws Exception {
+        deactivateMongoDBNotifications();
+        BaseMongoDAO dao = new BaseMongoDAO();
+        dao.openConnection();
+        MongoCollection<Document> coll = dao.mongoDB.getCollection(SCRATCH_COLLECTION);
+
+        coll.drop();
+        dao.mongoDB.getCollection(IdAllocator.COUNTERS_COLLECTION).deleteOne(Filters.eq("_id", SCRATCH_SEQUENCE));
+        long elapsed = runThreads(() -> {
+            // The old strategy: an aggregation for the biggest id, then the insert.
+            int last = lastId(coll);
+            coll.insertOne(new Document("id", last + 1));
+        });
+        report("getLastID + 1", coll, elapsed);
+
+        coll.drop();
+        IdAllocator allocator = IdAllocator.forSequence(SCRATCH_SEQUENCE, 20);
+        elapsed = runThreads(() -> coll.insertOne(new Document("id", allocator.nextId(() -> lastId(coll)))));
+        report("IdAllocator (block of 20)", coll, elapsed);
+        System.out.println("Round trips for the reservations: " + allocator.getReservations());
+
+        coll.drop();
+        dao.mongoDB.getCollection(IdAllocator.COUNTERS_COLLECTION).deleteOne(Filters.eq("_id", SCRATCH_SEQUENCE));
+        dao.closeConnection();
+    }
+
+    /**
+     * @param task The insertion to benchmark.
+     * @return The elapsed time in milliseconds.
+     */
+    private static long runThreads(Runnable task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        final long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < INSERTS_PER_THREAD; i++) {
+                    task.run();
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        final long elapsed = (System.nanoTime() - start) / 1_000_000;
+        executor.shutdown();
+        return elapsed;
+    }
+
+    private static int lastId(MongoCollection<Document> coll) {
+        Document d = coll.aggregate(Arrays.asList(
+                new Document("$sort", new Document("id", -1L)),
+                new Document("$limit", 1L)
+        )).first();
+        return d == null ? 0 : d.getInteger("id");
+    }
+
+    private static void report(String name, MongoCollection<Document> coll, long elapsedMillis) {
+        Set<Integer> ids = new HashSet<>();
+        int total = 0;
+        for (Document d : coll.find()) {
+            ids.add(d.getInteger("id"));
+            total++;
+        }
+        System.out.println(name + ": " + total + " inserts in " + elapsedMillis + " ms ("
+                + (total * 1000L / Math.max(1, elapsedMillis)) + " inserts/s), duplicated IDs: " + (total - ids.size()));
+        assert Objects.equals(total, THREADS * INSERTS_PER_THREAD);
+    }
+}
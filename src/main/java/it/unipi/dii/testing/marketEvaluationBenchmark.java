@@ -0,0 +1,79 @@
+package it.unipi.dii.testing;
+
+import it.unipi.dii.model.Bet;
+import it.unipi.dii.model.MarketOutcome;
+import it.unipi.dii.model.Match;
+
+import java.util.Random;
+
+import static it.unipi.dii.utility.dateTimes.getCurrentInstantString;
+
+// MICRO-BENCHMARK OF THE EVALUATION OF THE BETS: SWITCH ON THE MULTIPLIER NAME VERSUS BIT TEST ON THE WINNING MASK.
+// It works only in memory, no database is needed.
+public class marketEvaluationBenchmark {
+    private static final int MATCHES = 1000;
+    private static final int BETS = 5_000_000;
+    private static final int ROUNDS = 5; // The first round is the warm-up.
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        final String date = getCurrentInstantString();
+        final MarketOutcome[] markets = MarketOutcome.values();
+
+        Match[] matches = new Match[MATCHES];
+        for (int i = 0; i < MATCHES; i++) {
+            matches[i] = new Match(i, "IT1", "Home " + i, "Away " + i, date, random.nextInt(5), random.nextInt(5));
+        }
+        Bet[] bets = new Bet[BETS];
+        for (int i = 0; i < BETS; i++) {
+            bets[i] = new Bet(random.nextInt(MATCHES), 1.5, markets[random.nextInt(markets.length)].getCaption(), date);
+        }
+
+        for (int r = 0; r < ROUNDS; r++) {
+            // Old evaluation, a string switch for every bet.
+            long start = System.nanoTime();
+            int wonWithSwitch = 0;
+            for (Bet b : bets) {
+                if (matches[b.getMatchID()].checkMultiplierWinWithSwitch(b.getChosenMultiplierName())) {
+                    wonWithSwitch++;
+                }
+            }
+            final long switchElapsed = System.nanoTime() - start;
+
+            // New evaluation, the mask is computed once for each match and every bet is a bit test.
+            start = System.nanoTime();
+            int[] masks = new int[MATCHES];
+            for (int i = 0; i < MATCHES; i++) {
+                masks[i] = matches[i].computeWinningMask();
+            }
+            int wonWithMask = 0;
+            for (Bet b : bets) {
+                if (b.checkWin(masks[b.getMatchID()])) {
+                    wonWithMask++;
+                }
+            }
+            final long maskElapsed = System.nanoTime() - start;
+
+            // Both the evaluations must give the same bets won.
+            assert wonWithSwitch == wonWithMask;
+            if (r > 0) {
+                System.out.println("Round " + r + " (" + BETS + " bets, " + wonWithMask + " won): switch "
+                        + String.format("%.1f", switchElapsed / 1_000_000.0) + " ms, mask "
+                        + String.format("%.1f", maskElapsed / 1_000_000.0) + " ms, speedup "
+                        + String.format("%.1f", (double) switchElapsed / maskElapsed) + "x.");
+            }
+        }
+
+        // Check every market against every score between 0-0 and 6-6.
+        for (int h = 0; h <= 6; h++) {
+            for (int a = 0; a <= 6; a++) {
+                Match m = new Match(0, "IT1", "Home", "Away", date, h, a);
+                for (MarketOutcome market : markets) {
+                    if (m.checkMultiplierWinWithSwitch(market.getCaption()) != market.wins(m.computeWinningMask())) {
+                        System.out.println("Mismatch on " + market.getCaption() + " with " + h + "-" + a + ".");
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package it.unipi.dii.testing;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import it.unipi.dii.model.Match;
+import it.unipi.dii.utility.sportAPI;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+// TEST OF THE SPORT API CLIENT AGAINST A LOCAL HTTP STUB (no internet connection and no database are needed).
+// The stub serves the recorded responses in resources/it/unipi/dii/fixtures/sportAPI with an ETag,
+// the leagues without a fixture get an empty list of matches.
+public class sportAPIStubTest {
+    private static final String FIXTURES = "/it/unipi/dii/fixtures/sportAPI/";
+    private static final String LAST_MODIFIED = "Sun, 17 Mar 2024 17:31:10 GMT";
+    private static final String EMPTY = "{\"resultSet\":{\"count\":0},\"matches\":[]}";
+
+    private static final AtomicInteger served = new AtomicInteger();
+    private static final AtomicInteger notModified = new AtomicInteger();
+    private static final AtomicInteger unauthorized = new AtomicInteger();
+
+    public static void main(String[] args) throws IOException {
+        Map<String, byte[]> fixtures = new HashMap<>();
+        for (String league : new String[]{"SA", "PL"}) {
+            try (InputStream in = sportAPIStubTest.class.getResourceAsStream(FIXTURES + league + ".json")) {
+                fixtures.put(league, Objects.requireNonNull(in).readAllBytes());
+            }
+        }
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/v4/competitions/", exchange -> serve(exchange, fixtures));
+        server.start();
+        sportAPI.setBaseUrl("http://localhost:" + server.getAddress().getPort() + "/v4");
+
+        try {
+            // First poll: every league is downloaded.
+            List<Match> first = sportAPI.getNewMatchesUpdates();
+            assertEquals(5, first.size());
+            assertEquals(5, served.get());
+            assertEquals(0, unauthorized.get());
+
+            Match finished = find(first, "FC Internazionale Milano");
+            assertEquals("FINISHED", finished.getStatus());
+            assertEquals(2, (int) finished.getHome_goals());
+            assertEquals(0, (int) finished.getAway_goals());
+            assertEquals("IT1", finished.getCompetition_id());
+
+            Match timed = find(first, "Juventus FC");
+            assertEquals("TIMED", timed.getStatus());
+            assertNull(timed.getHome_goals());
+
+            Match postponed = find(first, "Brighton & Hove Albion FC");
+            assertEquals("POSTPONED", postponed.getStatus());
+            assertEquals("GB1", postponed.getCompetition_id());
+
+            // Second poll, the first one has not been applied: every league is downloaded again.
+            List<Match> again = sportAPI.getNewMatchesUpdates();
+            assertEquals(5, again.size());
+            assertEquals(10, served.get());
+            assertEquals(0, notModified.get());
+
+            // Third poll, after the DAO has applied the fixtures: every league costs a 304 and gives no updates.
+            sportAPI.commitResponses(sportAPI.getLeagues());
+            List<Match> third = sportAPI.getNewMatchesUpdates();
+            assertTrue(third.isEmpty());
+            assertEquals(10, served.get());
+            assertEquals(5, notModified.get());
+            assertEquals(5, sportAPI.getNotModified());
+
+            System.out.println("OK! sportAPI: " + served.get() + " responses, " + notModified.get() + " not modified.");
+        } finally {
+            server.stop(0);
+            sportAPI.setBaseUrl(sportAPI.DEFAULT_BASE_URL);
+        }
+    }
+
+    private static void serve(HttpExchange exchange, Map<String, byte[]> fixtures) throws IOException {
+        // Path: /v4/competitions/{league}/matches/
+        final String league = exchange.getRequestURI().getPath().split("/")[3];
+        if (!Objects.equals(exchange.getRequestHeaders().getFirst("X-Auth-Token"), sportAPI.API_KEY)) {
+            unauthorized.incrementAndGet();
+        }
+        final byte[] body = fixtures.getOrDefault(league, EMPTY.getBytes());
+        final String eTag = "\"" + league + "-" + body.length + "\"";
+
+        exchange.getResponseHeaders().add("ETag", eTag);
+        exchange.getResponseHeaders().add("Last-Modified", LAST_MODIFIED);
+        if (Objects.equals(exchange.getRequestHeaders().getFirst("If-None-Match"), eTag)) {
+            notModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        served.incrementAndGet();
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Match find(List<Match> matches, String teamHome) {
+        for (Match m : matches) {
+            if (Objects.equals(m.getTeam_home(), teamHome)) {
+                return m;
+            }
+        }
+        fail("Match of " + teamHome + " not found.");
+        return null;
+    }
+}
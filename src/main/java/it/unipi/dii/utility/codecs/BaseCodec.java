@@ -0,0 +1,73 @@
+package it.unipi.dii.utility.codecs;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+
+/**
+ * Common helpers of the codecs of the model.
+ * The readers are lenient with the numeric types, because the documents of the dataset
+ * can store the same field as int32, int64 or double.
+ *
+ * @param <T> The class handled by the codec.
+ */
+public abstract class BaseCodec<T> implements Codec<T> {
+
+    protected static String readString(BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+        if (reader.getCurrentBsonType() != BsonType.STRING) {
+            reader.skipValue();
+            return null;
+        }
+        return reader.readString();
+    }
+
+    protected static Integer readInteger(BsonReader reader) {
+        Number n = readNumber(reader);
+        return n == null ? null : n.intValue();
+    }
+
+    protected static double readDouble(BsonReader reader, double defaultValue) {
+        Number n = readNumber(reader);
+        return n == null ? defaultValue : n.doubleValue();
+    }
+
+    protected static Number readNumber(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case INT32:
+                return reader.readInt32();
+            case INT64:
+                return reader.readInt64();
+            case DOUBLE:
+                return reader.readDouble();
+            case DECIMAL128:
+                return reader.readDecimal128().bigDecimalValue();
+            case NULL:
+                reader.readNull();
+                return null;
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    protected static void writeString(BsonWriter writer, String name, String value) {
+        if (value == null) {
+            writer.writeNull(name);
+        } else {
+            writer.writeString(name, value);
+        }
+    }
+
+    protected static void writeInteger(BsonWriter writer, String name, Integer value) {
+        if (value == null) {
+            writer.writeNull(name);
+        } else {
+            writer.writeInt32(name, value);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package it.unipi.dii.utility.codecs;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+
+/**
+ * Registry of the codecs of the model, used by all the MongoDB clients of the application.
+ * With it the collections can be typed (e.g. mongoDB.getCollection("slips", Slip.class)) and the objects
+ * are decoded straight from BSON, without passing through JSON strings and Jackson.
+ */
+public class BeansBetCodecs {
+    private static final CodecRegistry REGISTRY = CodecRegistries.fromRegistries(
+            CodecRegistries.fromCodecs(
+                    new MatchCodec(),
+                    new MultiplierCodec(),
+                    new SlipCodec(),
+                    new BetCodec(),
+                    new CustomerCodec(),
+                    new PollCodec()
+            ),
+            MongoClientSettings.getDefaultCodecRegistry()
+    );
+
+    private BeansBetCodecs() {
+    }
+
+    /**
+     * @return The default codecs of the driver plus the codecs of the model.
+     */
+    public static CodecRegistry getCodecRegistry() {
+        return REGISTRY;
+    }
+}
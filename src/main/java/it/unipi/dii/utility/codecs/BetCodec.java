@@ -0,0 +1,78 @@
+package it.unipi.dii.utility.codecs;
+
+import it.unipi.dii.model.Bet;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+public class BetCodec extends BaseCodec<Bet> {
+
+    @Override
+    public void encode(BsonWriter writer, Bet bet, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeInteger(writer, "matchID", bet.getMatchID());
+        writeInteger(writer, "win", bet.getWin());
+        writer.writeDouble("chosenMultipliervalue", bet.getChosenMultiplierValue());
+        writeString(writer, "chosenMultiplierName", bet.getChosenMultiplierName());
+        writeInteger(writer, "market", bet.getMarket());
+        writeString(writer, "competition_id", bet.getCompetitionId());
+        writeString(writer, "teamHome", bet.getTeamHome());
+        writeString(writer, "teamAway", bet.getTeamAway());
+        writeString(writer, "matchDate", bet.getMatchDate());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Bet decode(BsonReader reader, DecoderContext decoderContext) {
+        Bet bet = new Bet();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "matchID":
+                    bet.setMatchID(readInteger(reader));
+                    break;
+                case "win":
+                    Integer win = readInteger(reader);
+                    if (win != null) {
+                        bet.setWin(win); // Otherwise the bet is not evaluated (-1).
+                    }
+                    break;
+                case "chosenMultipliervalue":
+                    bet.setChosenMultiplierValue(readDouble(reader, 0));
+                    break;
+                case "chosenMultiplierName":
+                    bet.setChosenMultiplierName(readString(reader));
+                    break;
+                case "market":
+                    Integer market = readInteger(reader);
+                    if (market != null) {
+                        bet.setMarket(market); // Otherwise it is derived from the chosen multiplier name.
+                    }
+                    break;
+                case "competition_id":
+                    bet.setCompetition_id(readString(reader));
+                    break;
+                case "teamHome":
+                    bet.setTeamHome(readString(reader));
+                    break;
+                case "teamAway":
+                    bet.setTeamAway(readString(reader));
+                    break;
+                case "matchDate":
+                    bet.setMatchDate(readString(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return bet;
+    }
+
+    @Override
+    public Class<Bet> getEncoderClass() {
+        return Bet.class;
+    }
+}
@@ -0,0 +1,88 @@
+package it.unipi.dii.utility.codecs;
+
+import it.unipi.dii.model.Customer;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+public class CustomerCodec extends BaseCodec<Customer> {
+
+    @Override
+    public void encode(BsonWriter writer, Customer c, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeString(writer, "username", c.getUsername());
+        writeString(writer, "gender", c.getGender());
+        writeString(writer, "birthDate", c.getBirthDate());
+        writeString(writer, "registrationDate", c.getRegistrationDate());
+        writeString(writer, "address", c.getAddress());
+        writeString(writer, "cityOfResidence", c.getCityOfResidence());
+        writeString(writer, "province", c.getProvince());
+        writer.writeDouble("credit", c.getCredit());
+        writeString(writer, "name", c.getName());
+        writeString(writer, "surname", c.getSurname());
+        writeString(writer, "email", c.getEmail());
+        writeString(writer, "cellNumber", c.getCellNumber());
+        writeString(writer, "password", c.getPassword());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Customer decode(BsonReader reader, DecoderContext decoderContext) {
+        Customer c = new Customer();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "username":
+                    c.setUsername(readString(reader));
+                    break;
+                case "gender":
+                    c.setGender(readString(reader));
+                    break;
+                case "birthDate":
+                    c.setBirthDate(readString(reader));
+                    break;
+                case "registrationDate":
+                    c.setRegistrationDate(readString(reader));
+                    break;
+                case "address":
+                    c.setAddress(readString(reader));
+                    break;
+                case "cityOfResidence":
+                    c.setCityOfResidence(readString(reader));
+                    break;
+                case "province":
+                    c.setProvince(readString(reader));
+                    break;
+                case "credit":
+                    c.setCredit(readDouble(reader, 0));
+                    break;
+                case "name":
+                    c.setName(readString(reader));
+                    break;
+                case "surname":
+                    c.setSurname(readString(reader));
+                    break;
+                case "email":
+                    c.setEmail(readString(reader));
+                    break;
+                case "cellNumber":
+                    c.setCellNumber(readString(reader));
+                    break;
+                case "password":
+                    c.setPassword(readString(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return c;
+    }
+
+    @Override
+    public Class<Customer> getEncoderClass() {
+        return Customer.class;
+    }
+}
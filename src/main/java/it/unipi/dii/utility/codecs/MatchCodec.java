@@ -0,0 +1,88 @@
+package it.unipi.dii.utility.codecs;
+
+import it.unipi.dii.model.Match;
+import it.unipi.dii.model.Multiplier;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MatchCodec extends BaseCodec<Match> {
+    private final MultiplierCodec multiplierCodec = new MultiplierCodec();
+
+    @Override
+    public void encode(BsonWriter writer, Match match, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeInteger(writer, "matchID", match.getMatchID());
+        writeString(writer, "competition_id", match.getCompetition_id());
+        writeString(writer, "team_home", match.getTeam_home());
+        writeString(writer, "team_away", match.getTeam_away());
+        writeString(writer, "matchDate", match.getMatchDate());
+        writer.writeName("multipliers");
+        writer.writeStartArray();
+        for (Multiplier m : match.getMultipliers()) {
+            encoderContext.encodeWithChildContext(this.multiplierCodec, writer, m);
+        }
+        writer.writeEndArray();
+        writeInteger(writer, "home_goals", match.getHome_goals());
+        writeInteger(writer, "away_goals", match.getAway_goals());
+        writeString(writer, "status", match.getStatus());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Match decode(BsonReader reader, DecoderContext decoderContext) {
+        Match match = new Match();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "matchID":
+                    match.setMatchID(readInteger(reader));
+                    break;
+                case "competition_id":
+                    match.setCompetition_id(readString(reader));
+                    break;
+                case "team_home":
+                    match.setTeam_home(readString(reader));
+                    break;
+                case "team_away":
+                    match.setTeam_away(readString(reader));
+                    break;
+                case "matchDate":
+                    match.setMatchDate(readString(reader));
+                    break;
+                case "multipliers":
+                    List<Multiplier> multipliers = new ArrayList<>();
+                    reader.readStartArray();
+                    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                        multipliers.add(decoderContext.decodeWithChildContext(this.multiplierCodec, reader));
+                    }
+                    reader.readEndArray();
+                    match.setMultipliers(multipliers);
+                    break;
+                case "home_goals":
+                    match.setHome_goals(readInteger(reader));
+                    break;
+                case "away_goals":
+                    match.setAway_goals(readInteger(reader));
+                    break;
+                case "status":
+                    match.setStatus(readString(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return match;
+    }
+
+    @Override
+    public Class<Match> getEncoderClass() {
+        return Match.class;
+    }
+}
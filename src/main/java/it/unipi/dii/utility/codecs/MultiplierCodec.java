@@ -0,0 +1,44 @@
+package it.unipi.dii.utility.codecs;
+
+import it.unipi.dii.model.Multiplier;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+public class MultiplierCodec extends BaseCodec<Multiplier> {
+
+    @Override
+    public void encode(BsonWriter writer, Multiplier m, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeString(writer, "name", m.getName());
+        writer.writeDouble("value", m.getValue());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Multiplier decode(BsonReader reader, DecoderContext decoderContext) {
+        Multiplier m = new Multiplier();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "name":
+                    m.setName(readString(reader));
+                    break;
+                case "value":
+                    m.setValue(readDouble(reader, 0));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return m;
+    }
+
+    @Override
+    public Class<Multiplier> getEncoderClass() {
+        return Multiplier.class;
+    }
+}
@@ -0,0 +1,107 @@
+package it.unipi.dii.utility.codecs;
+
+import it.unipi.dii.model.Poll;
+import it.unipi.dii.model.pollOption;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PollCodec extends BaseCodec<Poll> {
+
+    @Override
+    public void encode(BsonWriter writer, Poll poll, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeInteger(writer, "pollID", poll.getPollID());
+        writeString(writer, "pollName", poll.getPollName());
+        writeString(writer, "pollType", poll.getPollType());
+        writeString(writer, "creationDate", poll.getCreationDate());
+        writeString(writer, "activationDate", poll.getActivationDate());
+        if (poll.getOptions() == null) {
+            writer.writeNull("options");
+        } else {
+            writer.writeName("options");
+            writer.writeStartArray();
+            for (pollOption op : poll.getOptions()) {
+                writer.writeStartDocument();
+                writeString(writer, "optionCaption", op.getOptionCaption());
+                writer.writeInt32("optionVotes", op.getOptionVotes());
+                writer.writeEndDocument();
+            }
+            writer.writeEndArray();
+        }
+        writeInteger(writer, "numberOfVotes", poll.getNumberOfVotes());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Poll decode(BsonReader reader, DecoderContext decoderContext) {
+        Poll poll = new Poll();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "pollID":
+                    poll.setPollID(readInteger(reader));
+                    break;
+                case "pollName":
+                    poll.setPollName(readString(reader));
+                    break;
+                case "pollType":
+                    poll.setPollType(readString(reader));
+                    break;
+                case "creationDate":
+                    poll.setCreationDate(readString(reader));
+                    break;
+                case "activationDate":
+                    poll.setActivationDate(readString(reader));
+                    break;
+                case "options":
+                    if (reader.getCurrentBsonType() != BsonType.ARRAY) {
+                        reader.skipValue();
+                        break;
+                    }
+                    List<pollOption> options = new ArrayList<>();
+                    reader.readStartArray();
+                    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                        options.add(decodeOption(reader));
+                    }
+                    reader.readEndArray();
+                    poll.setOptions(options); // It also computes the number of votes.
+                    break;
+                default:
+                    reader.skipValue(); // numberOfVotes is derived from the options.
+            }
+        }
+        reader.readEndDocument();
+        return poll;
+    }
+
+    private static pollOption decodeOption(BsonReader reader) {
+        pollOption op = new pollOption();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "optionCaption":
+                    op.setOptionCaption(readString(reader));
+                    break;
+                case "optionVotes":
+                    Integer votes = readInteger(reader);
+                    op.setOptionVotes(votes == null ? 0 : votes);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return op;
+    }
+
+    @Override
+    public Class<Poll> getEncoderClass() {
+        return Poll.class;
+    }
+}
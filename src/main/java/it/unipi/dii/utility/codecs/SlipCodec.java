@@ -0,0 +1,91 @@
+package it.unipi.dii.utility.codecs;
+
+import it.unipi.dii.model.Bet;
+import it.unipi.dii.model.Slip;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SlipCodec extends BaseCodec<Slip> {
+    private final BetCodec betCodec = new BetCodec();
+
+    @Override
+    public void encode(BsonWriter writer, Slip slip, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeInteger(writer, "slipID", slip.getSlipID());
+        writeString(writer, "username", slip.getUsername());
+        writeString(writer, "confirmationDate", slip.getConfirmationDate());
+        writeString(writer, "creationDate", slip.getCreationDate());
+        writer.writeDouble("amount", slip.getAmount());
+        writer.writeDouble("betAmount", slip.getBetAmount());
+        writeInteger(writer, "win", slip.getWin());
+        // Settlement state, then maintained by the SettlementEngine as the bets are evaluated.
+        writer.writeInt32("openLegs", slip.countOpenLegs());
+        writer.writeDouble("runningMultiplier", slip.computeRunningMultiplier());
+        writer.writeBoolean("lost", slip.checkLost());
+        writer.writeName("betsList");
+        writer.writeStartArray();
+        for (Bet bet : slip.findBetsList()) {
+            encoderContext.encodeWithChildContext(this.betCodec, writer, bet);
+        }
+        writer.writeEndArray();
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Slip decode(BsonReader reader, DecoderContext decoderContext) {
+        Slip slip = new Slip();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "slipID":
+                    slip.setSlipID(readInteger(reader));
+                    break;
+                case "username":
+                    slip.setUsername(readString(reader));
+                    break;
+                case "confirmationDate":
+                    slip.setConfirmationDate(readString(reader));
+                    break;
+                case "creationDate":
+                    slip.setCreationDate(readString(reader));
+                    break;
+                case "amount":
+                    slip.setAmount(readDouble(reader, 0));
+                    break;
+                case "betAmount":
+                    slip.setBetAmount(readDouble(reader, 0));
+                    break;
+                case "win":
+                    Integer win = readInteger(reader);
+                    if (win != null) {
+                        slip.setWin(win);
+                    }
+                    break;
+                case "betsList":
+                    List<Bet> bets = new ArrayList<>();
+                    reader.readStartArray();
+                    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                        bets.add(decoderContext.decodeWithChildContext(this.betCodec, reader));
+                    }
+                    reader.readEndArray();
+                    slip.setBetsList(bets);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return slip;
+    }
+
+    @Override
+    public Class<Slip> getEncoderClass() {
+        return Slip.class;
+    }
+}
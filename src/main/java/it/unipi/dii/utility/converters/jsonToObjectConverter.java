@@ -3,6 +3,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.bson.Document;
 
 public class jsonToObjectConverter {
+    private static final ObjectMapper objectMapper = new ObjectMapper(); // Thread-safe, it can be shared.
+
     /**
      *
      * @param jsonString JSON to convert
@@ -12,7 +14,6 @@ public class jsonToObjectConverter {
      */
     public static <T> T convertJsonToObject(String jsonString, Class<T> objectType) {
         try {
-            ObjectMapper objectMapper = new ObjectMapper();
             return objectMapper.convertValue(Document.parse(jsonString), objectType);
         } catch (Exception e) {
             e.printStackTrace();
@@ -3,6 +3,8 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class objectToJsonStringConverter {
+    private static final ObjectMapper objectMapper = new ObjectMapper(); // Thread-safe, it can be shared.
+
     /**
      * @param object The object to convert.
      * @return A String which contains the JSON version of the object, or NULL if something goes wrong.
@@ -10,7 +12,6 @@ public class objectToJsonStringConverter {
      */
     public static <T> String convertObjectToJsonString(T object) {
         try {
-            ObjectMapper objectMapper = new ObjectMapper();
             return objectMapper.writeValueAsString(object);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
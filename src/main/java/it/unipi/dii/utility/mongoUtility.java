@@ -3,6 +3,7 @@ package it.unipi.dii.utility;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.LoggerContext;
 import com.mongodb.client.*;
+import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.result.InsertManyResult;
 import org.bson.Document;
 import org.bson.conversions.Bson;
@@ -52,7 +53,7 @@ public class mongoUtility {
      * @param dstCollection Collection where insert the new documents.
      * @param documents     Documents to insert.
      */
-    public static boolean insertDocuments(MongoCollection<Document> dstCollection, List<Document> documents) {
+    public static <T> boolean insertDocuments(MongoCollection<T> dstCollection, List<T> documents) {
         if (documents.size() == 1) {
             try {
                 dstCollection.insertOne(documents.get(0));
@@ -122,4 +123,25 @@ public class mongoUtility {
 
         collection.createIndex(index);
     }
+
+    /**
+     * @param mongoDB       The mongoDB instance.
+     * @param dstCollection The target collection.
+     * @param keys          The fields of the index with their order, two documents can't have the same values.
+     */
+    public static void createUniqueIndex(MongoDatabase mongoDB, String dstCollection, Document keys) {
+        MongoCollection<Document> collection = mongoDB.getCollection(dstCollection);
+        collection.createIndex(keys, new IndexOptions().unique(true));
+    }
+
+    /**
+     * @param mongoDB       The mongoDB instance.
+     * @param dstCollection The target collection.
+     * @param keys          The fields of the index with their order.
+     * @param partialFilter Only the documents that respect this filter are indexed.
+     */
+    public static void createPartialIndex(MongoDatabase mongoDB, String dstCollection, Document keys, Document partialFilter) {
+        MongoCollection<Document> collection = mongoDB.getCollection(dstCollection);
+        collection.createIndex(keys, new IndexOptions().partialFilterExpression(partialFilter));
+    }
 }
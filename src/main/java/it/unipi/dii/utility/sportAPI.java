@@ -1,45 +1,210 @@
 package it.unipi.dii.utility;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import it.unipi.dii.model.Match;
-import org.json.JSONArray;
-import org.json.JSONObject;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static it.unipi.dii.utility.dateTimes.*;
 
+/**
+ * Client of the football-data.org API.
+ * The leagues are requested concurrently with conditional GETs (If-None-Match / If-Modified-Since): a league not
+ * changed since its last response costs a 304 and gives no updates, since the last response has already been applied.
+ * The validators of a response are used only after its fixtures have been applied (commitResponses()),
+ * so a response whose fixtures failed to be applied is downloaded again by the next poll.
+ * The responses are parsed with the Jackson streaming parser directly from the body stream.
+ */
 public class sportAPI {
     public static final String API_KEY = "d78f2f22b4324475b801e9fe8534eba7"; // Key to access to the services of the API.
+    public static final String DEFAULT_BASE_URL = "https://api.football-data.org/v4";
+    private static final String[] LEAGUES = {"SA", "PL", "PD", "FL1", "BL1"};
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(20);
+
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private static final ExecutorService FETCHERS = Executors.newFixedThreadPool(LEAGUES.length, r -> {
+        Thread t = new Thread(r, "sport-api-fetcher");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static volatile String baseUrl = DEFAULT_BASE_URL;
+    // Validators of the last applied response of each league, and of the responses not applied yet.
+    private static final Map<String, validators> lastResponses = new ConcurrentHashMap<>();
+    private static final Map<String, validators> pendingResponses = new ConcurrentHashMap<>();
+
+    // Counters of the requests.
+    private static final AtomicLong fetched = new AtomicLong();
+    private static final AtomicLong notModified = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+
+    /**
+     * A match of a response, with the identifiers of the API.
+     */
+    public static final class fixture {
+        private final long apiID;
+        private final String lastUpdated;
+        private final Match match;
+
+        public fixture(long apiID, String lastUpdated, Match match) {
+            this.apiID = apiID;
+            this.lastUpdated = lastUpdated;
+            this.match = match;
+        }
+
+        public long getApiID() {
+            return this.apiID;
+        }
+
+        public String getLastUpdated() {
+            return this.lastUpdated;
+        }
+
+        public Match getMatch() {
+            return this.match;
+        }
+    }
+
+    private static final class validators {
+        final String url;
+        final String eTag;
+        final String lastModified;
+
+        validators(String url, String eTag, String lastModified) {
+            this.url = url;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+    }
+
     public sportAPI() {
     }
 
     /**
-     * @return The list of matches updates of the 5 european competitions (Italy, Germany, France, UK and Spain).
+     * Change the address of the API, e.g. a local stub that serves recorded responses (see sportAPIStubTest).
+     * The validators of the previous address are forgotten.
+     */
+    public static void setBaseUrl(String url) {
+        baseUrl = url;
+        lastResponses.clear();
+        pendingResponses.clear();
+    }
+
+    /**
+     * The fixtures of the last responses of the leagues have been applied: the next requests of the leagues
+     * are conditional on those responses.
+     *
+     * @param leagueNames The leagues whose fixtures have been applied.
+     */
+    public static void commitResponses(Collection<String> leagueNames) {
+        for (String league : leagueNames) {
+            validators v = pendingResponses.remove(league);
+            if (v != null) {
+                lastResponses.put(league, v);
+            }
+        }
+    }
+
+    /**
+     * @return The list of matches updates of the 5 european competitions (Italy, Germany, France, UK and Spain),
+     * a league not reachable or not changed since the last request gives no updates.
      */
     public static List<Match> getNewMatchesUpdates() {
-        List<Match> a = getLeague("SA");
-        List<Match> ret = new ArrayList<>(a);
-        a = getLeague("PL");
-        ret.addAll(a);
-        a = getLeague("PD");
-        ret.addAll(a);
-        a = getLeague("FL1");
-        ret.addAll(a);
-        a = getLeague("BL1");
-        ret.addAll(a);
+        List<Match> ret = new ArrayList<>();
+        for (fixture f : getNewFixtures()) {
+            ret.add(f.getMatch());
+        }
+        return ret;
+    }
+
+    /**
+     * @return The matches of the 5 european competitions with their API id and lastUpdated,
+     * a league not reachable or not changed since the last request gives no fixtures.
+     */
+    public static List<fixture> getNewFixtures() {
+        return getNewFixtures(getLeagues());
+    }
+
+    /**
+     * @param leagueNames The leagues to request, every league costs a request of the rate limit of the API.
+     * @return The matches of the leagues with their API id and lastUpdated,
+     * a league not reachable or not changed since the last request gives no fixtures.
+     */
+    public static List<fixture> getNewFixtures(Collection<String> leagueNames) {
+        List<Future<List<fixture>>> leagues = new ArrayList<>();
+        for (String league : leagueNames) {
+            leagues.add(FETCHERS.submit(() -> getLeague(league)));
+        }
+        List<fixture> ret = new ArrayList<>();
+        for (Future<List<fixture>> f : leagues) {
+            try {
+                List<fixture> a = f.get();
+                if (a != null) {
+                    ret.addAll(a);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
         return ret;
     }
 
+    /**
+     * @return The leagues requested to the API.
+     */
+    public static List<String> getLeagues() {
+        return List.of(LEAGUES);
+    }
+
+    /**
+     * @param leagueName The name of the league in the API.
+     * @return The competition_id of the league in the database, null if the league is not handled.
+     */
+    public static String competitionOf(String leagueName) {
+        switch (leagueName) {
+            case "SA":
+                return "IT1";
+            case "PL":
+                return "GB1";
+            case "PD":
+                return "ES1";
+            case "FL1":
+                return "FR1";
+            case "BL1":
+                return "L1";
+            default:
+                return null;
+        }
+    }
+
     /**
      * Returns a list of Match object. created with data gathered from the API.
      *
@@ -47,15 +212,15 @@ public class sportAPI {
      * @return The list of matches updates of the 5 european competitions (Italy, Germany, France, UK and Spain).
      */
 
-    public static List<Match> getLeague(String leagueName) {
+    public static List<fixture> getLeague(String leagueName) {
         LocalDate dateFrom = getCurrentDate().minusDays(1);
         LocalDate dateTo = dateFrom.plusDays(15);
-        return getApiContent("https://api.football-data.org/v4/competitions/" + leagueName + "/matches/?dateFrom=" + dateFrom + "&dateTo=" + dateTo, leagueName);
+        return getApiContent(baseUrl + "/competitions/" + leagueName + "/matches/?dateFrom=" + dateFrom + "&dateTo=" + dateTo, leagueName);
     }
 
     /**
      * Returns a list of Match object. created with data gathered from the API.
-     * The url argument must specify an absolute <a href="#{@link}">{@link URL}</a>. The name
+     * The url argument must specify an absolute URL. The name
      * argument is a specifier that is relative to the url argument.
      * <br>
      * This method always returns immediately, whether there are new updates or not.
@@ -88,118 +253,139 @@ public class sportAPI {
      *
      * @param apiUrl     URL of the resource that you want to get,
      * @param leagueName Name of the football competition.
-     * @return The list of matches updates.
+     * @return The list of matches updates, empty if the resource is not modified, null if the request failed.
      */
-    private static List<Match> getApiContent(String apiUrl, String leagueName) {
+    private static List<fixture> getApiContent(String apiUrl, String leagueName) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(apiUrl))
+                .timeout(REQUEST_TIMEOUT)
+                .header("X-Auth-Token", API_KEY)
+                .GET();
+        validators last = lastResponses.get(leagueName);
+        if (last != null && Objects.equals(last.url, apiUrl)) {
+            // Conditional request: the same resource of the last response.
+            if (last.eTag != null) {
+                request.header("If-None-Match", last.eTag);
+            }
+            if (last.lastModified != null) {
+                request.header("If-Modified-Since", last.lastModified);
+            }
+        }
+
         try {
-            URL url = new URL(apiUrl);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setRequestProperty("X-Auth-Token", API_KEY);
-
-            InputStream inputStream = connection.getInputStream();
-
-            String jsonResponse = new Scanner(inputStream, StandardCharsets.UTF_8).useDelimiter("\\A").next();
-
-            JSONObject jsonObject = new JSONObject(jsonResponse);
-            JSONArray matches = jsonObject.getJSONArray("matches");
-            List<Match> ret = new ArrayList<>();
-
-            for (int i = 0; i < matches.length(); i++) {
-                JSONObject match = matches.getJSONObject(i);
-                Instant lastUpdated = stringToTimestamp(match.getString("lastUpdated"));
-
-                if (
-                        lastUpdated != null &&
-                                !Objects.equals(lastUpdated.toString(), "null") &&
-                                !Objects.equals(lastUpdated.toString(), "NULL")
-                ) {
-                    // lastUpdated.compareTo(getCurrentInstant().minusSeconds(65)) > 0
-                    if (true) {
-                        // If the update is "new enough".
-                        JSONObject score = match.getJSONObject("score");
-                        JSONObject fullTime = score.optJSONObject("fullTime"); // final result.
-                        Match m = new Match();
-                        m.setMatchDate(match.getString("utcDate"));
-                        m.setTeam_home(match.getJSONObject("homeTeam").getString("name"));
-                        m.setTeam_away(match.getJSONObject("awayTeam").getString("name"));
-
-                        if (fullTime.get("home") == null || Objects.equals(fullTime.get("home").toString(), "null")) {
-                            m.setHome_goals(null);
-                        } else {
-                            m.setHome_goals(Integer.valueOf(fullTime.get("home").toString()));
-                        }
+            HttpResponse<InputStream> response = CLIENT.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream body = response.body()) {
+                if (response.statusCode() == 304) {
+                    notModified.incrementAndGet();
+                    return new ArrayList<>();
+                }
+                if (response.statusCode() != 200) {
+                    failed.incrementAndGet();
+                    System.out.println("The API answered " + response.statusCode() + " for the league " + leagueName + ".");
+                    return null;
+                }
+                List<fixture> ret = parseMatches(body, leagueName);
+                pendingResponses.put(leagueName, new validators(apiUrl,
+                        response.headers().firstValue("ETag").orElse(null),
+                        response.headers().firstValue("Last-Modified").orElse(null)));
+                fetched.incrementAndGet();
+                return ret;
+            }
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            System.out.println("Failed to get the league " + leagueName + " from the API: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
 
-                        if (fullTime.get("away") == null || Objects.equals(fullTime.get("away").toString(), "null")) {
-                            m.setAway_goals(null);
-                        } else {
-                            m.setAway_goals(Integer.valueOf(fullTime.get("away").toString()));
+    /**
+     * Read the "matches" array of a response, one match at a time, without reading the whole body in memory.
+     */
+    private static List<fixture> parseMatches(InputStream body, String leagueName) throws IOException {
+        List<fixture> ret = new ArrayList<>();
+        try (JsonParser parser = MAPPER.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return ret;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                if (Objects.equals(field, "matches") && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        fixture f = toFixture(MAPPER.readTree(parser), leagueName);
+                        if (f != null) {
+                            ret.add(f);
                         }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return ret;
+    }
 
-                        m.setStatus(match.getString("status"));
+    /*
+    Example of the object returned by the API:
 
-                        if(Objects.equals(m.getStatus(), "TIMED")){
-                            m.initializeAndRandomizeMultipliers();
-                        }
+        {"area":
+        {"code":"NLD","flag":"https://crests.football-data.org/8601.svg","name":"Netherlands","id":2163}
+        ,"matchday":18
+        ,"awayTeam":{"name":"Fortuna Sittard","tla":"SIT","id":1920,"shortName":"Sittard","crest":"https://crests.football-data.org/1920.png"}
+        ,"competition":{"code":"DED","name":"Eredivisie","id":2003,"type":"LEAGUE","emblem":"https://crests.football-data.org/ED.png"}
+        ,"utcDate":"2024-01-24T17:45:00Z"
+        ,"lastUpdated":"2024-01-22T20:21:04Z"
+        ,"score":{"duration":"REGULAR","winner":"DRAW","halfTime":{"away":null,"home":null}
+        ,"fullTime":{"away":0,"home":0}}
+        ,"stage":"REGULAR_SEASON"
+        ,"odds":{"msg":"Activate Odds-Package in User-Panel to retrieve odds."}
+        ,"season":{"winner":null,"currentMatchday":18,"endDate":"2024-05-19","id":1590,"startDate":"2023-08-11"}
+        ,"homeTeam":{"name":"Almere City FC","tla":"ALM","id":1911,"shortName":"Almere City","crest":"https://crests.football-data.org/1911.png"}
+        ,"id":441639
+        ,"referees":[{"nationality":"Netherlands","name":"Jeroen Manschot","id":56912,"type":"REFEREE"}]
+        ,"status":"TIMED"
+        ,"group":null
+    */
 
-                        switch (leagueName) {
-                            case "SA":
-                                m.setCompetition_id("IT1");
-                                break;
-                            case "PL":
-                                m.setCompetition_id("GB1");
-                                break;
-                            case "PD":
-                                m.setCompetition_id("ES1");
-                                break;
-                            case "FL1":
-                                m.setCompetition_id("FR1");
-                                break;
-                            case "BL1":
-                                m.setCompetition_id("L1");
-                                break;
-                            default:
-                                m.setCompetition_id("null");
-                                break;
-                        }
+    /**
+     * @return The fixture of an element of the "matches" array, null if it must be ignored.
+     * The fixtures not changed since the last poll are discarded later, by MatchSnapshot.
+     */
+    private static fixture toFixture(JsonNode match, String leagueName) {
+        Instant lastUpdated = match.hasNonNull("lastUpdated") ? stringToTimestamp(match.get("lastUpdated").asText()) : null;
+        if (lastUpdated == null) {
+            return null;
+        }
+        JsonNode fullTime = match.path("score").path("fullTime"); // final result.
+        Match m = new Match();
+        m.setMatchDate(match.path("utcDate").asText());
+        m.setTeam_home(match.path("homeTeam").path("name").asText());
+        m.setTeam_away(match.path("awayTeam").path("name").asText());
+        m.setHome_goals(fullTime.hasNonNull("home") ? fullTime.get("home").asInt() : null);
+        m.setAway_goals(fullTime.hasNonNull("away") ? fullTime.get("away").asInt() : null);
+        m.setStatus(match.path("status").asText());
 
-                        if (!Objects.equals(m.getCompetition_id(), "null")) {
-                            ret.add(m);
-                        }
+        if (Objects.equals(m.getStatus(), "TIMED")) {
+            m.initializeAndRandomizeMultipliers();
+        }
 
-                    }
-                }
-            }
+        m.setCompetition_id(competitionOf(leagueName));
+        if (m.getCompetition_id() == null) {
+            return null;
+        }
+        return new fixture(match.path("id").asLong(), lastUpdated.toString(), m);
+    }
 
-            /*
-            Example of the object returned by the API:
-
-                {"area":
-                {"code":"NLD","flag":"https://crests.football-data.org/8601.svg","name":"Netherlands","id":2163}
-                ,"matchday":18
-                ,"awayTeam":{"name":"Fortuna Sittard","tla":"SIT","id":1920,"shortName":"Sittard","crest":"https://crests.football-data.org/1920.png"}
-                ,"competition":{"code":"DED","name":"Eredivisie","id":2003,"type":"LEAGUE","emblem":"https://crests.football-data.org/ED.png"}
-                ,"utcDate":"2024-01-24T17:45:00Z"
-                ,"lastUpdated":"2024-01-22T20:21:04Z"
-                ,"score":{"duration":"REGULAR","winner":"DRAW","halfTime":{"away":null,"home":null}
-                ,"fullTime":{"away":0,"home":0}}
-                ,"stage":"REGULAR_SEASON"
-                ,"odds":{"msg":"Activate Odds-Package in User-Panel to retrieve odds."}
-                ,"season":{"winner":null,"currentMatchday":18,"endDate":"2024-05-19","id":1590,"startDate":"2023-08-11"}
-                ,"homeTeam":{"name":"Almere City FC","tla":"ALM","id":1911,"shortName":"Almere City","crest":"https://crests.football-data.org/1911.png"}
-                ,"id":441639
-                ,"referees":[{"nationality":"Netherlands","name":"Jeroen Manschot","id":56912,"type":"REFEREE"}]
-                ,"status":"TIMED"
-                ,"group":null
-            */
-
-            connection.disconnect();
-            return ret;
-
-        } catch (IOException ignored) {
+    public static long getFetched() {
+        return fetched.get();
+    }
 
-        }
-        return null;
+    public static long getNotModified() {
+        return notModified.get();
     }
 
-}
\ No newline at end of file
+    public static long getFailed() {
+        return failed.get();
+    }
+}
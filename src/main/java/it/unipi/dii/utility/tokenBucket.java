@@ -0,0 +1,49 @@
+package it.unipi.dii.utility;
+
+/**
+ * Token bucket rate limiter: a request can be sent only if it takes a token, and the tokens are refilled at a
+ * constant rate up to the capacity of the bucket (so short bursts are allowed, the average rate is not exceeded).
+ */
+public class tokenBucket {
+    private final int capacity;
+    private final double tokensPerMs;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param capacity        The maximum number of requests of a burst.
+     * @param tokensPerMinute The number of requests allowed every minute.
+     */
+    public tokenBucket(int capacity, int tokensPerMinute) {
+        this.capacity = capacity;
+        this.tokensPerMs = tokensPerMinute / 60000.0;
+        this.tokens = capacity;
+        this.lastRefill = System.currentTimeMillis();
+    }
+
+    /**
+     * @return True if a token has been taken, false if the request must wait.
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (this.tokens < 1) {
+            return false;
+        }
+        this.tokens -= 1;
+        return true;
+    }
+
+    /**
+     * @return The number of tokens currently available.
+     */
+    public synchronized int available() {
+        refill();
+        return (int) this.tokens;
+    }
+
+    private void refill() {
+        final long now = System.currentTimeMillis();
+        this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefill) * this.tokensPerMs);
+        this.lastRefill = now;
+    }
+}
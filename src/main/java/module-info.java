@@ -13,6 +13,7 @@ module it.unipi.dii {
     requires org.mongodb.driver.core;
     requires org.mongodb.driver.sync.client;
     requires redis.clients.jedis;
+    requires org.apache.commons.pool2;
     requires com.fasterxml.jackson.databind;
     requires logback.classic;
     requires slf4j.api;
@@ -21,6 +22,8 @@ module it.unipi.dii {
     requires com.opencsv;
     requires json.simple;
     requires junit;
+    requires java.net.http;
+    requires jdk.httpserver;
 
     opens it.unipi.dii to javafx.fxml;
     exports it.unipi.dii;
@@ -42,6 +45,7 @@ module it.unipi.dii {
     opens it.unipi.dii.testing to javafx.fxml;
     exports it.unipi.dii.analyticsPeriodicCalculator;
     exports it.unipi.dii.utility.converters;
+    exports it.unipi.dii.utility.codecs;
     exports it.unipi.dii.utility.generators;
     exports it.unipi.dii.analyticsPeriodicCalculator.analyticsResultModel.financialResults;
     exports it.unipi.dii.analyticsPeriodicCalculator.analyticsResultModel.seventhQuery;